@@ -0,0 +1,257 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * The stored reference metrics the regression gate compares against. The
+ * file is a small JSON document:
+ * 
+ * <pre>
+ * {
+ *   "version": 1,
+ *   "tolerance": 0.1,
+ *   "benchmarks": {
+ *     "ParserBenchmark.parseTree input=crl-1000": {
+ *       "throughput": 1234.5,
+ *       "allocBytesPerOp": 567890.0
+ *     }
+ *   }
+ * }
+ * </pre>
+ * 
+ * Throughput is in operations per second, allocation in bytes per
+ * operation as reported by the JMH GC profiler.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+final class Baseline {
+    
+    static final int VERSION = 1;
+    
+    static final class Metrics {
+        
+        final double throughput;
+        final double allocBytesPerOp;
+        
+        Metrics(double throughput, double allocBytesPerOp) {
+            this.throughput = throughput;
+            this.allocBytesPerOp = allocBytesPerOp;
+        }
+    }
+    
+    private final Map<String, Metrics> metrics = new TreeMap<String, Metrics>();
+    private double tolerance;
+    
+    Baseline(double tolerance) {
+        this.tolerance = tolerance;
+    }
+    
+    double getTolerance() {
+        return tolerance;
+    }
+    
+    Map<String, Metrics> getMetrics() {
+        return metrics;
+    }
+    
+    void put(String key, Metrics m) {
+        metrics.put(key, m);
+    }
+    
+    static Baseline load(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            Map<String, Object> root = new JsonReader(reader).readObject();
+            Number version = (Number) root.get("version");
+            if (version == null || version.intValue() != VERSION)
+                throw new IOException("Unsupported baseline version: " + version);
+            Number tolerance = (Number) root.get("tolerance");
+            Baseline baseline = new Baseline(tolerance != null ? tolerance.doubleValue() : 0.1);
+            
+            @SuppressWarnings("unchecked")
+            Map<String, Object> benchmarks = (Map<String, Object>) root.get("benchmarks");
+            if (benchmarks != null) {
+                for (Map.Entry<String, Object> e : benchmarks.entrySet()) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> m = (Map<String, Object>) e.getValue();
+                    baseline.put(e.getKey(), new Metrics(number(m, "throughput"), number(m, "allocBytesPerOp")));
+                }
+            }
+            return baseline;
+        }
+        catch (ClassCastException ex) {
+            throw new IOException("Malformed baseline file: " + file, ex);
+        }
+        finally {
+            reader.close();
+        }
+    }
+    
+    void store(File file) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write("{\n");
+            w.write("  \"version\": " + VERSION + ",\n");
+            w.write("  \"tolerance\": " + format(tolerance) + ",\n");
+            w.write("  \"benchmarks\": {");
+            boolean first = true;
+            for (Map.Entry<String, Metrics> e : metrics.entrySet()) {
+                w.write(first ? "\n" : ",\n");
+                first = false;
+                w.write("    " + quote(e.getKey()) + ": {\n");
+                w.write("      \"throughput\": " + format(e.getValue().throughput) + ",\n");
+                w.write("      \"allocBytesPerOp\": " + format(e.getValue().allocBytesPerOp) + "\n");
+                w.write("    }");
+            }
+            w.write(first ? "}\n" : "\n  }\n");
+            w.write("}\n");
+        }
+        finally {
+            w.close();
+        }
+    }
+    
+    private static double number(Map<String, Object> m, String key) {
+        Object value = m.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+    
+    private static String format(double d) {
+        return Double.isNaN(d) ? "null" : String.format(Locale.ROOT, "%.3f", d);
+    }
+    
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\');
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+    
+    /* just enough JSON for the baseline file: objects, strings, numbers and literals */
+    private static final class JsonReader {
+        
+        private final Reader in;
+        private int c;
+        
+        JsonReader(Reader in) throws IOException {
+            this.in = in;
+            this.c = in.read();
+        }
+        
+        Map<String, Object> readObject() throws IOException {
+            Map<String, Object> map = new TreeMap<String, Object>();
+            expect('{');
+            skipWhitespace();
+            if (c == '}') {
+                c = in.read();
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                map.put(key, readValue());
+                skipWhitespace();
+                if (c == ',') {
+                    c = in.read();
+                    continue;
+                }
+                expect('}');
+                return map;
+            }
+        }
+        
+        private Object readValue() throws IOException {
+            skipWhitespace();
+            if (c == '{')
+                return readObject();
+            if (c == '"')
+                return readString();
+            StringBuilder sb = new StringBuilder();
+            while (c != -1 && c != ',' && c != '}' && !Character.isWhitespace(c)) {
+                sb.append((char) c);
+                c = in.read();
+            }
+            String token = sb.toString();
+            if (token.equals("null"))
+                return null;
+            if (token.equals("true") || token.equals("false"))
+                return Boolean.valueOf(token);
+            try {
+                return Double.valueOf(token);
+            }
+            catch (NumberFormatException ex) {
+                throw new IOException("Unexpected token: " + token);
+            }
+        }
+        
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (c != '"') {
+                if (c == -1)
+                    throw new IOException("Unterminated string");
+                if (c == '\\')
+                    c = in.read();
+                sb.append((char) c);
+                c = in.read();
+            }
+            c = in.read();
+            return sb.toString();
+        }
+        
+        private void expect(char expected) throws IOException {
+            if (c != expected)
+                throw new IOException("Expected '" + expected + "' but got " + (c == -1 ? "EOF" : "'" + (char) c + "'"));
+            c = in.read();
+        }
+        
+        private void skipWhitespace() throws IOException {
+            while (c != -1 && Character.isWhitespace(c))
+                c = in.read();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.jruby.ext.krypt.asn1.corpus.CorpusGenerator;
+import org.jruby.ext.krypt.asn1.encode.InfiniteLengthOctetString;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.jruby.ext.krypt.asn1.encode.Sequence;
+
+
+/**
+ * Maps the input names used as benchmark parameters to workloads of the
+ * {@link CorpusGenerator}, always with the same seed so runs are
+ * comparable.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+final class BenchInputs {
+    
+    static final long SEED = 42;
+    
+    private static final CorpusGenerator GENERATOR = new CorpusGenerator(SEED);
+    
+    private BenchInputs() {}
+    
+    /**
+     * See {@link #tree(String)} for the names. Large CRLs, SET OFs and
+     * nestings are streamed by the generator instead of building a tree.
+     */
+    static byte[] forName(String name) {
+        String[] parts = name.split("-");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (parts[0].equals("crl"))
+            GENERATOR.writeCrl(baos, Integer.parseInt(parts[1]));
+        else if (parts[0].equals("wide"))
+            GENERATOR.writeWideSetOf(baos, Integer.parseInt(parts[1]));
+        else if (parts[0].equals("deep"))
+            GENERATOR.writeDeepNesting(baos, Integer.parseInt(parts[1]));
+        else
+            return encode(tree(name));
+        return baos.toByteArray();
+    }
+    
+    /**
+     * "certificate", "crl-<entries>", "wide-<elements>", "deep-<depth>",
+     * "octets-<size>" (definite) or "octets-<size>-<chunkSize>"
+     * (indefinite, can only be serialized once)
+     */
+    static Asn1 tree(String name) {
+        if (name.equals("certificate"))
+            return GENERATOR.certificate();
+        String[] parts = name.split("-");
+        int n = Integer.parseInt(parts[1]);
+        if (parts[0].equals("crl"))
+            return GENERATOR.crl(n);
+        if (parts[0].equals("wide"))
+            return GENERATOR.wideSetOf(n);
+        if (parts[0].equals("deep"))
+            return GENERATOR.deepNesting(n);
+        if (parts[0].equals("octets")) {
+            if (parts.length > 2)
+                return new InfiniteLengthOctetString(CorpusGenerator.randomBytes(SEED, n), Integer.parseInt(parts[2]));
+            return new PrimitiveValue(Tags.OCTET_STRING, randomBytes(n));
+        }
+        throw new IllegalArgumentException("Unknown input: " + name);
+    }
+    
+    static byte[] randomBytes(int size) {
+        try {
+            InputStream in = CorpusGenerator.randomBytes(SEED, size);
+            byte[] b = new byte[size];
+            int off = 0, read;
+            while (off < size && (read = in.read(b, off, size - off)) != -1)
+                off += read;
+            return b;
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * Forces the lengths of all constructed values to be computed again
+     * on the next serialization.
+     */
+    static void invalidateLengths(Asn1 asn) {
+        if (asn instanceof Sequence) {
+            Sequence seq = (Sequence) asn;
+            seq.setInfiniteLength(false);
+            for (Asn1 child : seq.getContent())
+                invalidateLengths(child);
+        }
+    }
+    
+    static byte[] encode(Asn1 asn) {
+        return CorpusGenerator.encode(asn);
+    }
+}
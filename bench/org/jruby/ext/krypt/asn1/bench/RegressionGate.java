@@ -0,0 +1,272 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.jruby.ext.krypt.asn1.bench.Baseline.Metrics;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs a fixed subset of the parser and serializer benchmarks and compares
+ * throughput and allocation per operation against a {@link Baseline}.
+ * Exits with status 1 if any metric is worse than the baseline by more
+ * than the tolerance, after printing a report of all metrics. Benchmarks
+ * that appear in only one of baseline and current run also fail the gate,
+ * and so does an empty baseline, unless --allow-missing is given.
+ * 
+ * Options:
+ * <pre>
+ * --baseline file    baseline to compare with or update (bench/baseline.json)
+ * --tolerance x      allowed relative degradation, overrides the baseline's
+ * --report file      also write the report to file
+ * --update           record the results as new baseline instead of comparing
+ * --allow-missing    only report benchmarks without a counterpart
+ * </pre>
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class RegressionGate {
+    
+    static final double DEFAULT_TOLERANCE = 0.1;
+    
+    /* allocation differences below this many bytes per op are noise */
+    static final double ALLOC_SLACK = 16;
+    
+    /* JMH finds include patterns anywhere in the qualified name, so anchor
+     * them at the class name */
+    private static final String[][][] SUITE = {
+        { { "\\." + ParserBenchmark.class.getSimpleName() + "\\.(scanHeaders|parseTree)$" },
+          { "input", "certificate", "crl-1000" } },
+        { { "\\." + StreamingParserBenchmark.class.getSimpleName() + "\\.readValueStream$" },
+          { "input", "octets-1048576", "octets-1048576-1000" }, { "valuesOnly", "true" } },
+        { { "\\." + EncoderBenchmark.class.getSimpleName() + "\\.(serialize|serializeFresh)$" },
+          { "input", "wide-10000", "crl-10000" }, { "sink", "null" } },
+        { { "\\." + StreamingEncoderBenchmark.class.getSimpleName() + "\\.serialize$" },
+          { "chunkSize", "8192" }, { "numBuffers", "1" }, { "sink", "null" } }
+    };
+    
+    public static void main(String[] args) throws IOException, RunnerException {
+        File baselineFile = new File("bench/baseline.json");
+        File reportFile = null;
+        Double tolerance = null;
+        boolean update = false;
+        boolean allowMissing = false;
+        
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--baseline"))
+                baselineFile = new File(args[++i]);
+            else if (args[i].equals("--report"))
+                reportFile = new File(args[++i]);
+            else if (args[i].equals("--tolerance"))
+                tolerance = Double.valueOf(args[++i]);
+            else if (args[i].equals("--update"))
+                update = true;
+            else if (args[i].equals("--allow-missing"))
+                allowMissing = true;
+            else
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+        
+        Baseline baseline = baselineFile.exists() ? Baseline.load(baselineFile) : new Baseline(DEFAULT_TOLERANCE);
+        double tol = tolerance != null ? tolerance.doubleValue() : baseline.getTolerance();
+        if (!update && !allowMissing && baseline.getMetrics().isEmpty()) {
+            System.err.println("Baseline " + baselineFile + " contains no benchmarks, record one with --update.");
+            System.exit(1);
+        }
+        Map<String, Metrics> current = run();
+        
+        if (update) {
+            Baseline updated = new Baseline(tol);
+            for (Map.Entry<String, Metrics> e : current.entrySet())
+                updated.put(e.getKey(), e.getValue());
+            updated.store(baselineFile);
+            System.out.println("Recorded " + current.size() + " benchmarks in " + baselineFile);
+            return;
+        }
+        
+        StringBuilder report = new StringBuilder();
+        int failures = compare(baseline.getMetrics(), current, tol, allowMissing, report);
+        System.out.print(report);
+        if (reportFile != null) {
+            File dir = reportFile.getAbsoluteFile().getParentFile();
+            if (dir != null)
+                dir.mkdirs();
+            Writer w = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+            try {
+                w.write(report.toString());
+            }
+            finally {
+                w.close();
+            }
+        }
+        if (failures > 0)
+            System.exit(1);
+    }
+    
+    static Map<String, Metrics> run() throws RunnerException {
+        Map<String, Metrics> metrics = new TreeMap<String, Metrics>();
+        for (String[][] spec : SUITE) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(spec[0][0])
+                    .addProfiler(GCProfiler.class)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .measurementIterations(5)
+                    .shouldFailOnError(true);
+            for (int i = 1; i < spec.length; i++) {
+                String[] values = new String[spec[i].length - 1];
+                System.arraycopy(spec[i], 1, values, 0, values.length);
+                options.param(spec[i][0], values);
+            }
+            for (RunResult result : new Runner(options.build()).run())
+                metrics.put(keyOf(result.getParams()), metricsOf(result));
+        }
+        return metrics;
+    }
+    
+    /**
+     * Appends one line per metric to report.
+     * 
+     * @return the number of regressions, plus the number of metrics missing
+     * on either side unless allowMissing is set
+     */
+    static int compare(Map<String, Metrics> baseline, Map<String, Metrics> current,
+                       double tolerance, boolean allowMissing, StringBuilder report) {
+        int regressions = 0, unmatched = 0;
+        TreeSet<String> keys = new TreeSet<String>(baseline.keySet());
+        keys.addAll(current.keySet());
+        
+        report.append(String.format(Locale.ROOT, "%-64s %-10s %14s %14s %9s  %s%n",
+                                    "benchmark", "metric", "baseline", "current", "change", "status"));
+        for (String key : keys) {
+            Metrics base = baseline.get(key);
+            Metrics now = current.get(key);
+            double baseThroughput = base != null ? base.throughput : Double.NaN;
+            double baseAlloc = base != null ? base.allocBytesPerOp : Double.NaN;
+            double nowThroughput = now != null ? now.throughput : Double.NaN;
+            double nowAlloc = now != null ? now.allocBytesPerOp : Double.NaN;
+            
+            String status = throughputStatus(baseThroughput, nowThroughput, tolerance);
+            if (status.equals("REGRESSION"))
+                regressions++;
+            else if (isUnmatched(status))
+                unmatched++;
+            line(report, key, "ops/s", baseThroughput, nowThroughput, status);
+            
+            status = allocStatus(baseAlloc, nowAlloc, tolerance);
+            if (status.equals("REGRESSION"))
+                regressions++;
+            else if (isUnmatched(status))
+                unmatched++;
+            line(report, key, "B/op", baseAlloc, nowAlloc, status);
+        }
+        report.append(String.format(Locale.ROOT, "%d regression(s) at %.1f%% tolerance%n",
+                                    regressions, tolerance * 100));
+        if (unmatched > 0) {
+            report.append(String.format(Locale.ROOT, "%d metric(s) without baseline or current value%s%n",
+                                        unmatched, allowMissing ? " (allowed)" : ""));
+        }
+        return allowMissing ? regressions : regressions + unmatched;
+    }
+    
+    private static boolean isUnmatched(String status) {
+        return status.equals("missing") || status.equals("new");
+    }
+    
+    private static String throughputStatus(double base, double now, double tolerance) {
+        if (Double.isNaN(now))
+            return "missing";
+        if (Double.isNaN(base))
+            return "new";
+        if (now < base * (1 - tolerance))
+            return "REGRESSION";
+        if (now > base * (1 + tolerance))
+            return "improved";
+        return "ok";
+    }
+    
+    private static String allocStatus(double base, double now, double tolerance) {
+        if (Double.isNaN(now))
+            return "missing";
+        if (Double.isNaN(base))
+            return "new";
+        if (now > base * (1 + tolerance) + ALLOC_SLACK)
+            return "REGRESSION";
+        if (now < base * (1 - tolerance) - ALLOC_SLACK)
+            return "improved";
+        return "ok";
+    }
+    
+    private static void line(StringBuilder report, String key, String metric,
+                             double base, double now, String status) {
+        String change = Double.isNaN(base) || Double.isNaN(now) || base == 0
+                        ? "" : String.format(Locale.ROOT, "%+.1f%%", (now - base) / base * 100);
+        report.append(String.format(Locale.ROOT, "%-64s %-10s %14s %14s %9s  %s%n",
+                                    key, metric, number(base), number(now), change, status));
+    }
+    
+    private static String number(double d) {
+        return Double.isNaN(d) ? "-" : String.format(Locale.ROOT, "%.1f", d);
+    }
+    
+    /* e.g. "ParserBenchmark.parseTree input=crl-1000" */
+    private static String keyOf(BenchmarkParams params) {
+        String name = params.getBenchmark();
+        name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+        StringBuilder sb = new StringBuilder(name);
+        for (String key : new TreeSet<String>(params.getParamsKeys()))
+            sb.append(' ').append(key).append('=').append(params.getParam(key));
+        return sb.toString();
+    }
+    
+    private static Metrics metricsOf(RunResult result) {
+        double alloc = Double.NaN;
+        /* iterate names only, the map's value type is raw in JMH */
+        for (String name : result.getSecondaryResults().keySet()) {
+            /* older JMH versions prefix the name with a middle dot */
+            if (name.endsWith("gc.alloc.rate.norm"))
+                alloc = result.getSecondaryResults().get(name).getScore();
+        }
+        return new Metrics(result.getPrimaryResult().getScore(), alloc);
+    }
+}
@@ -0,0 +1,100 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * The output the encoder benchmarks write to: an in-memory buffer, a
+ * buffered temporary file or a sink that discards everything.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+@State(Scope.Thread)
+public class SinkState {
+    
+    @Param({ "baos", "file", "null" })
+    public String sink;
+    
+    private ByteArrayOutputStream baos;
+    private File file;
+    
+    @Setup
+    public void setup() throws IOException {
+        if (sink.equals("baos")) {
+            baos = new ByteArrayOutputStream(1 << 20);
+        } else if (sink.equals("file")) {
+            file = File.createTempFile("asn1-bench", ".der");
+            file.deleteOnExit();
+        } else if (!sink.equals("null")) {
+            throw new IllegalArgumentException("Unknown sink: " + sink);
+        }
+    }
+    
+    public OutputStream open() throws IOException {
+        if (baos != null) {
+            baos.reset();
+            return baos;
+        }
+        if (file != null)
+            return new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        return NullOutputStream.INSTANCE;
+    }
+    
+    @TearDown
+    public void tearDown() {
+        if (file != null)
+            file.delete();
+    }
+    
+    private static final class NullOutputStream extends OutputStream {
+        
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+            //discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            //discard
+        }
+    }
+}
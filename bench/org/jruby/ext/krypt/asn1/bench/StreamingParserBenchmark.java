@@ -0,0 +1,101 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.jruby.ext.krypt.asn1.ParsedHeader;
+import org.jruby.ext.krypt.asn1.Parser;
+import org.jruby.ext.krypt.asn1.ParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Reads a single large OCTET STRING through the value stream, covering
+ * DefiniteInputStream for definite and ChunkInputStream for indefinite
+ * length encodings at different chunk sizes.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingParserBenchmark {
+    
+    @Param({ "octets-1048576", "octets-1048576-1000", "octets-1048576-65536" })
+    public String input;
+    
+    @Param({ "true", "false" })
+    public boolean valuesOnly;
+    
+    private byte[] encoding;
+    private byte[] buf;
+    private ParserFactory factory;
+    
+    @Setup
+    public void setup() {
+        encoding = BenchInputs.forName(input);
+        buf = new byte[8192];
+        factory = new ParserFactory();
+    }
+    
+    @Benchmark
+    public long readValueStream() throws IOException {
+        Parser p = factory.newHeaderParser();
+        ParsedHeader h = p.next(new ByteArrayInputStream(encoding));
+        InputStream value = h.getValueStream(valuesOnly);
+        long total = 0;
+        int read;
+        while ((read = value.read(buf)) != -1)
+            total += read;
+        return total;
+    }
+    
+    @Benchmark
+    public int skipValue() {
+        Parser p = factory.newHeaderParser();
+        ByteArrayInputStream in = new ByteArrayInputStream(encoding);
+        p.next(in).skipValue();
+        return in.available();
+    }
+}
@@ -0,0 +1,167 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.jfr;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.jruby.ext.krypt.asn1.GenericAsn1;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class JfrMetricsTest {
+    
+    private static final Header SEQUENCE = header(Tags.SEQUENCE, true, 6);
+    private static final Header INTEGER = header(Tags.INTEGER, false, 1);
+    private static final Header OCTETS = header(Tags.OCTET_STRING, false, 1);
+    private static final Header END_OF_CONTENTS = header(Tags.END_OF_CONTENTS, false, 0);
+    
+    @Test
+    public void parseEvent() throws Exception {
+        List<RecordedEvent> events = record("org.jruby.ext.krypt.asn1.Parse", () -> {
+            JfrMetrics metrics = new JfrMetrics();
+            metrics.parseStarted();
+            metrics.headerParsed(SEQUENCE);
+            metrics.depthReached(1);
+            metrics.headerParsed(INTEGER);
+            metrics.elementParsed(INTEGER, 10);
+            metrics.headerParsed(OCTETS);
+            metrics.elementParsed(OCTETS, 10);
+            metrics.elementParsed(SEQUENCE, 30);
+            metrics.parseCompleted(50);
+        });
+        
+        assertEquals(1, events.size());
+        RecordedEvent e = events.get(0);
+        assertEquals(8, e.getLong("inputSize"));
+        assertEquals(3, e.getLong("elements"));
+        assertEquals(1, e.getInt("maxDepth"));
+        assertEquals(Tags.SEQUENCE, e.getInt("tag"));
+        assertEquals("UNIVERSAL", e.getString("tagClass"));
+    }
+    
+    @Test
+    public void serializeEvent() throws Exception {
+        List<RecordedEvent> events = record("org.jruby.ext.krypt.asn1.Serialize", () -> {
+            JfrMetrics metrics = new JfrMetrics();
+            metrics.serializeStarted();
+            metrics.elementSerialized(INTEGER, 10);
+            metrics.elementSerialized(SEQUENCE, 20);
+            metrics.serializeCompleted(8, 30);
+        });
+        
+        assertEquals(1, events.size());
+        RecordedEvent e = events.get(0);
+        assertEquals(8, e.getLong("outputSize"));
+        assertEquals(2, e.getLong("elements"));
+        assertEquals(Tags.SEQUENCE, e.getInt("tag"));
+        assertEquals("UNIVERSAL", e.getString("tagClass"));
+    }
+    
+    @Test
+    public void chunkEvents() throws Exception {
+        List<RecordedEvent> events = record("org.jruby.ext.krypt.asn1.Chunk", () -> {
+            JfrMetrics metrics = new JfrMetrics();
+            metrics.chunkParsed(OCTETS);
+            metrics.chunkParsed(END_OF_CONTENTS);
+        });
+        
+        assertEquals(2, events.size());
+        assertEquals(Tags.OCTET_STRING, events.get(0).getInt("tag"));
+        assertEquals(1, events.get(0).getLong("length"));
+        assertFalse(events.get(0).getBoolean("endOfContents"));
+        assertTrue(events.get(1).getBoolean("endOfContents"));
+    }
+    
+    @Test
+    public void largeValueEvents() throws Exception {
+        List<RecordedEvent> events = record("org.jruby.ext.krypt.asn1.LargeValue", () -> {
+            JfrMetrics metrics = new JfrMetrics(100);
+            metrics.valueBytesCopied(99);
+            metrics.valueBytesCopied(100);
+        });
+        
+        assertEquals(1, events.size());
+        assertEquals(100, events.get(0).getLong("size"));
+    }
+    
+    @Test
+    public void chunkEventsDisabledByDefault() throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.start();
+            new JfrMetrics().chunkParsed(OCTETS);
+            recording.stop();
+            assertTrue(events(recording, "org.jruby.ext.krypt.asn1.Chunk").isEmpty());
+        }
+    }
+    
+    private static List<RecordedEvent> record(String name, Runnable action) throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable(name).withThreshold(Duration.ZERO);
+            recording.start();
+            action.run();
+            recording.stop();
+            return events(recording, name);
+        }
+    }
+    
+    private static List<RecordedEvent> events(Recording recording, String prefix) throws Exception {
+        Path file = Files.createTempFile("asn1jfr", ".jfr");
+        try {
+            recording.dump(file);
+            List<RecordedEvent> ret = new ArrayList<>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+                if (e.getEventType().getName().startsWith(prefix))
+                    ret.add(e);
+            }
+            return ret;
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+    
+    private static Header header(int tag, boolean isConstructed, int length) {
+        return GenericAsn1.headerFor(new Tag(tag, TagClass.UNIVERSAL, isConstructed), new Length(length, false));
+    }
+    
+}
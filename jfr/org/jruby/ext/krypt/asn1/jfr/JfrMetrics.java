@@ -0,0 +1,189 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.jfr;
+
+import jdk.jfr.EventType;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.jruby.ext.krypt.asn1.TagClass;
+
+
+/**
+ * Emits JDK Flight Recorder events for parsing and serialization. Attach
+ * it like any other {@link Asn1Metrics}, e.g.
+ * 
+ * <pre>
+ * new Asn1Parser(new ParserFactory(new JfrMetrics()))
+ * </pre>
+ * 
+ * Parse and serialize events are only recorded if they exceed their
+ * threshold (10 ms unless configured otherwise in the recording settings).
+ * While the events are not enabled, no event objects are created and each
+ * callback costs a ThreadLocal lookup.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class JfrMetrics implements Asn1Metrics {
+    
+    public static final int DEFAULT_LARGE_VALUE = 64 * 1024;
+    
+    private static final EventType PARSE = EventType.getEventType(ParseEvent.class);
+    private static final EventType SERIALIZE = EventType.getEventType(SerializeEvent.class);
+    private static final EventType LARGE_VALUE = EventType.getEventType(LargeValueEvent.class);
+    private static final EventType CHUNK = EventType.getEventType(ChunkEvent.class);
+    
+    private final int largeValue;
+    private final ThreadLocal<ParseEvent> parse = new ThreadLocal<>();
+    private final ThreadLocal<SerializeEvent> serialize = new ThreadLocal<>();
+    
+    public JfrMetrics() {
+        this(DEFAULT_LARGE_VALUE);
+    }
+    
+    /**
+     * @param largeValue values of at least this many bytes are recorded 
+     * when they are copied by getValue
+     */
+    public JfrMetrics(int largeValue) {
+        if (largeValue < 0) throw new IllegalArgumentException("largeValue must not be negative");
+        this.largeValue = largeValue;
+    }
+
+    @Override
+    public void parseStarted() {
+        ParseEvent e = null;
+        if (PARSE.isEnabled()) {
+            e = new ParseEvent();
+            e.begin();
+        }
+        /* also drops the event of a previous parse that failed */
+        parse.set(e);
+    }
+
+    @Override
+    public void headerParsed(Header h) {
+        ParseEvent e = parse.get();
+        if (e == null)
+            return;
+        e.inputSize += h.getHeaderLength();
+        if (!h.isConstructed() && !h.isInfiniteLength())
+            e.inputSize += h.getLength();
+    }
+
+    @Override
+    public void chunkParsed(Header h) {
+        if (!CHUNK.isEnabled())
+            return;
+        ChunkEvent e = new ChunkEvent();
+        e.tag = h.getTag();
+        e.length = h.getLength();
+        e.endOfContents = h.getTag() == Tags.END_OF_CONTENTS && h.getTagClass() == TagClass.UNIVERSAL;
+        e.commit();
+    }
+
+    @Override
+    public void valueBytesRead(int n) {
+    }
+
+    @Override
+    public void valueBytesCopied(int n) {
+        if (n < largeValue || !LARGE_VALUE.isEnabled())
+            return;
+        LargeValueEvent e = new LargeValueEvent();
+        e.size = n;
+        e.commit();
+    }
+
+    @Override
+    public void valueBytesSkipped(long n) {
+    }
+
+    @Override
+    public void depthReached(int depth) {
+        ParseEvent e = parse.get();
+        if (e != null && depth > e.maxDepth)
+            e.maxDepth = depth;
+    }
+
+    @Override
+    public void elementParsed(Header h, long nanos) {
+        ParseEvent e = parse.get();
+        if (e == null)
+            return;
+        e.elements++;
+        /* the top-level element completes last */
+        e.tag = h.getTag();
+        e.tagClass = h.getTagClass().name();
+    }
+
+    @Override
+    public void parseCompleted(long nanos) {
+        ParseEvent e = parse.get();
+        if (e == null)
+            return;
+        parse.set(null);
+        e.end();
+        if (e.shouldCommit())
+            e.commit();
+    }
+
+    @Override
+    public void serializeStarted() {
+        SerializeEvent e = null;
+        if (SERIALIZE.isEnabled()) {
+            e = new SerializeEvent();
+            e.begin();
+        }
+        serialize.set(e);
+    }
+
+    @Override
+    public void elementSerialized(Header h, long nanos) {
+        SerializeEvent e = serialize.get();
+        if (e == null)
+            return;
+        e.elements++;
+        e.tag = h.getTag();
+        e.tagClass = h.getTagClass().name();
+    }
+
+    @Override
+    public void serializeCompleted(long bytes, long nanos) {
+        SerializeEvent e = serialize.get();
+        if (e == null)
+            return;
+        serialize.set(null);
+        e.end();
+        if (e.shouldCommit()) {
+            e.outputSize = bytes;
+            e.commit();
+        }
+    }
+    
+}
@@ -0,0 +1,84 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+
+/**
+ * Receives counters and timings from parsing and serialization. Attach an
+ * implementation through {@link ParserFactory#ParserFactory(Asn1Metrics)}
+ * or {@link org.jruby.ext.krypt.asn1.encode.Asn1Serializer#serialize(Asn1, java.io.OutputStream, Asn1Metrics)}.
+ * If none is attached, no timestamps are taken and no calls are made.
+ * 
+ * Implementations may be shared between threads and must be thread-safe
+ * in that case. They are called synchronously, so they should be cheap.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public interface Asn1Metrics {
+    
+    /** Every header read by the header parser, including chunks and EOC. */
+    public void headerParsed(Header h);
+    
+    /** A header read as part of an indefinite length value stream. */
+    public void chunkParsed(Header h);
+    
+    /** Bytes read by callers through a value stream. */
+    public void valueBytesRead(int n);
+    
+    /** Bytes copied into a byte[] by getValue. */
+    public void valueBytesCopied(int n);
+    
+    /** Bytes passed over by skipValue. */
+    public void valueBytesSkipped(long n);
+    
+    /** Depth of an element parsed by Asn1Parser, 0 for the top level. */
+    public void depthReached(int depth);
+    
+    /** An element completely parsed by Asn1Parser, including its contents. */
+    public void elementParsed(Header h, long nanos);
+    
+    /**
+     * Called by Asn1Parser before reading the first header. It is not 
+     * followed by parseCompleted if the input is empty or parsing fails.
+     */
+    public void parseStarted();
+    
+    public void parseCompleted(long nanos);
+    
+    /** An element completely written by Asn1Serializer, including its contents. */
+    public void elementSerialized(Header h, long nanos);
+    
+    /**
+     * Called by Asn1Serializer before writing anything. It is not followed
+     * by serializeCompleted if serialization fails.
+     */
+    public void serializeStarted();
+    
+    public void serializeCompleted(long bytes, long nanos);
+    
+}
@@ -67,8 +67,8 @@ public abstract class GenericAsn1 implements Asn1 {
         final boolean fcons = tag.isConstructed();
         final boolean finf = length.isInfiniteLength();
         final int flen = length.getLength();
-        final byte[] ftenc = tag.getEncoding();
-        final byte [] flenc = length.getEncoding();
+        final byte[] ftenc = tag.encoding();
+        final byte [] flenc = length.encoding();
         final int fhlen = ftenc.length + flenc.length;
 
         return new Header() {
@@ -134,7 +134,28 @@ public abstract class GenericAsn1 implements Asn1 {
             this.encoding = encoding;
         }
 
+        /**
+         * Returns a copy of the encoding of this tag. Use encodeTo to write
+         * it without copying.
+         */
         public byte[] getEncoding() {
+            return encoding().clone();
+        }
+        
+        public int getEncodingLength() {
+            return encoding().length;
+        }
+        
+        public void encodeTo(OutputStream out) {
+            try {
+                out.write(encoding());
+            }
+            catch (IOException ex) {
+                throw new SerializationException(ex);
+            }
+        }
+        
+        private byte[] encoding() {
             if (encoding == null) {
                 encoding = computeEncoding();
             }
@@ -154,11 +175,8 @@ public abstract class GenericAsn1 implements Asn1 {
         }
         
         private byte[] computeEncoding() {
-            if (tag < 31) {
-                byte tagByte = isConstructed ? Header.CONSTRUCTED_MASK : (byte)0x00;
-                tagByte |= tc.getMask();
-                tagByte |= (byte)(tag & 0xff);
-                return new byte[] { tagByte };
+            if (tag >= 0 && tag < 31) {
+                return SIMPLE_TAGS[tc.ordinal()][isConstructed ? 1 : 0][tag];
             }
             else {
                 return computeComplexTag();
@@ -170,7 +188,7 @@ public abstract class GenericAsn1 implements Asn1 {
             tagByte |= tc.getMask();
             tagByte |= Header.COMPLEX_TAG_MASK;
             
-            int numShifts = determineNumberOfShifts(tag, 7);
+            int numShifts = (Integer.SIZE - Integer.numberOfLeadingZeros(tag) + 6) / 7;
             byte[] out = new byte[numShifts + 1];
             int tmpTag = tag;
             
@@ -202,7 +220,28 @@ public abstract class GenericAsn1 implements Asn1 {
             this.encoding = encoding;
         }
 
+        /**
+         * Returns a copy of the encoding of this length. Use encodeTo to
+         * write it without copying.
+         */
         public byte[] getEncoding() {
+            return encoding().clone();
+        }
+        
+        public int getEncodingLength() {
+            return encoding().length;
+        }
+        
+        public void encodeTo(OutputStream out) {
+            try {
+                out.write(encoding());
+            }
+            catch (IOException ex) {
+                throw new SerializationException(ex);
+            }
+        }
+        
+        private byte[] encoding() {
             if (encoding == null) {
                 encoding = computeEncoding();
             }
@@ -219,10 +258,10 @@ public abstract class GenericAsn1 implements Asn1 {
         
         private byte[] computeEncoding() {
             if (isInfiniteLength) {
-                return new byte[] { Header.INFINITE_LENGTH_MASK };
+                return INFINITE_LENGTH;
             }
-            else if (length <= 127) {
-                return new byte[] { (byte)(length & 0xff) };
+            else if (length >= 0 && length <= 127) {
+                return SHORT_LENGTHS[length];
             }
             else {
                 return computeComplexLength();
@@ -230,7 +269,7 @@ public abstract class GenericAsn1 implements Asn1 {
         }
         
         private byte[] computeComplexLength() {
-            int numShifts = determineNumberOfShifts(length, 8);
+            int numShifts = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
             int tmp = length;
             byte[] out = new byte[numShifts + 1];
             out[0] = (byte)(numShifts & 0xff);
@@ -245,11 +284,23 @@ public abstract class GenericAsn1 implements Asn1 {
         }
     }
     
-    private static int determineNumberOfShifts(int value, int shiftBy) {
-        int i, tmp = value;
-        for (i = 0; tmp > 0; i++) {
-            tmp >>= shiftBy;
+    /* Shared encodings of all single octet tags, indexed by tag class, 
+     * primitive/constructed and tag number, and of all short form lengths.
+     * They never leave this class, getEncoding() returns copies. */
+    private static final byte[][][][] SIMPLE_TAGS = new byte[TagClass.values().length][2][31][];
+    private static final byte[][] SHORT_LENGTHS = new byte[128][];
+    private static final byte[] INFINITE_LENGTH = new byte[] { Header.INFINITE_LENGTH_MASK };
+    
+    static {
+        for (TagClass tc : TagClass.values()) {
+            for (int tag = 0; tag < 31; tag++) {
+                byte tagByte = (byte)(tc.getMask() | tag);
+                SIMPLE_TAGS[tc.ordinal()][0][tag] = new byte[] { tagByte };
+                SIMPLE_TAGS[tc.ordinal()][1][tag] = new byte[] { (byte)(tagByte | Header.CONSTRUCTED_MASK) };
+            }
+        }
+        for (int i = 0; i < SHORT_LENGTHS.length; i++) {
+            SHORT_LENGTHS[i] = new byte[] { (byte)i };
         }
-        return i;
     }
 }
@@ -35,8 +35,26 @@ import org.jruby.ext.krypt.asn1.parser.PullHeaderParser;
  * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
  */
 public class ParserFactory {
+    
+    private final Asn1Metrics metrics;
+    
+    public ParserFactory() {
+        this(null);
+    }
+    
+    /**
+     * @param metrics receives the metrics of all parsers created by this
+     * factory, may be null
+     */
+    public ParserFactory(Asn1Metrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public Asn1Metrics getMetrics() {
+        return metrics;
+    }
    
     public Parser newHeaderParser() {
-        return new PullHeaderParser();
+        return new PullHeaderParser(metrics);
     }
 }
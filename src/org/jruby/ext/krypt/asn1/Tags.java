@@ -42,9 +42,9 @@ public class Tags {
     public static final byte NULL              = (byte)0x05;
     public static final byte OBJECT_IDENTIFIER = (byte)0x06;
     
-    public static final byte ENUMERATED        = (byte)0xa0;
+    public static final byte ENUMERATED        = (byte)0x0a;
     
-    public static final byte UTF8_STRING       = (byte)0xc0;
+    public static final byte UTF8_STRING       = (byte)0x0c;
     
     public static final byte SEQUENCE          = (byte)0x10;
     public static final byte SET               = (byte)0x11;
@@ -0,0 +1,272 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.decode;
+
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.Primitive;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+
+
+/**
+ * A read-only CharSequence view over the value bytes of an ASN.1 string.
+ * The bytes are neither copied nor decoded up front. Values that consist
+ * of ASCII only are served directly from the bytes, BMPString values are
+ * read as UTF-16BE in place. A UTF8String containing non-ASCII characters
+ * is decoded into a char array on first access.
+ * 
+ * hashCode is the same as that of the equivalent String, and equality
+ * between views (or with any CharSequence via {@link #contentEquals})
+ * is determined without allocating Strings.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public final class Asn1String implements CharSequence {
+    
+    private static final int SINGLE_BYTE = 0;
+    private static final int BMP = 1;
+    private static final int UTF8 = 2;
+    
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final int mode;
+    
+    private char[] decoded;
+    private int hash;
+    private String string;
+    
+    private Asn1String(byte[] bytes, int offset, int length, int mode) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.mode = mode;
+    }
+    
+    public static Asn1String view(Primitive p) {
+        if (p == null) throw new NullPointerException();
+        Header h = p.getHeader();
+        if (h.getTagClass() != TagClass.UNIVERSAL)
+            throw new ParseException("Not a UNIVERSAL string type: " + h.getTag());
+        byte[] value = p.getValue();
+        if (value == null)
+            value = new byte[0];
+        return view(h.getTag(), value, 0, value.length);
+    }
+    
+    /**
+     * The view shares b, which therefore must not be modified while the
+     * view is in use.
+     */
+    public static Asn1String view(int tag, byte[] b, int off, int len) {
+        PrimitiveDecoder.checkSlice(b, off, len);
+        switch (tag) {
+            case Tags.NUMERIC_STRING:
+            case Tags.PRINTABLE_STRING:
+            case Tags.IA5_STRING:
+            case Tags.ISO64_STRING:
+                return new Asn1String(b, off, len, SINGLE_BYTE);
+            case Tags.UTF8_STRING:
+                return new Asn1String(b, off, len, isAscii(b, off, len) ? SINGLE_BYTE : UTF8);
+            case Tags.BMP_STRING:
+                if ((len & 1) != 0)
+                    throw new ParseException("BMPString with odd number of octets.");
+                return new Asn1String(b, off, len, BMP);
+            default:
+                throw new ParseException("Unsupported string type: " + tag);
+        }
+    }
+    
+    @Override
+    public int length() {
+        switch (mode) {
+            case SINGLE_BYTE:
+                return length;
+            case BMP:
+                return length >> 1;
+            default:
+                return decoded().length;
+        }
+    }
+    
+    @Override
+    public char charAt(int index) {
+        switch (mode) {
+            case SINGLE_BYTE:
+                if (index < 0 || index >= length)
+                    throw new IndexOutOfBoundsException();
+                return (char) (bytes[offset + index] & 0xff);
+            case BMP:
+                if (index < 0 || index >= length >> 1)
+                    throw new IndexOutOfBoundsException();
+                int i = offset + (index << 1);
+                return (char) (((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff));
+            default:
+                return decoded()[index];
+        }
+    }
+    
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+    
+    public boolean contentEquals(CharSequence cs) {
+        if (cs == null) throw new NullPointerException();
+        if (cs instanceof Asn1String)
+            return equals(cs);
+        int n = length();
+        if (n != cs.length())
+            return false;
+        for (int i = 0; i < n; i++) {
+            if (charAt(i) != cs.charAt(i))
+                return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Asn1String)) return false;
+        Asn1String other = (Asn1String) o;
+        if (mode == other.mode && mode != UTF8) {
+            if (length != other.length)
+                return false;
+            for (int i = 0; i < length; i++) {
+                if (bytes[offset + i] != other.bytes[other.offset + i])
+                    return false;
+            }
+            return true;
+        }
+        int n = length();
+        if (n != other.length())
+            return false;
+        if (hash != 0 && other.hash != 0 && hash != other.hash)
+            return false;
+        for (int i = 0; i < n; i++) {
+            if (charAt(i) != other.charAt(i))
+                return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            int n = length();
+            for (int i = 0; i < n; i++)
+                h = 31 * h + charAt(i);
+            hash = h;
+        }
+        return h;
+    }
+    
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            if (mode == UTF8) {
+                s = new String(decoded());
+            } else {
+                int n = length();
+                char[] chars = new char[n];
+                for (int i = 0; i < n; i++)
+                    chars[i] = charAt(i);
+                s = new String(chars);
+            }
+            string = s;
+        }
+        return s;
+    }
+    
+    private char[] decoded() {
+        char[] chars = decoded;
+        if (chars == null) {
+            chars = decodeUtf8(bytes, offset, length);
+            decoded = chars;
+        }
+        return chars;
+    }
+    
+    private static boolean isAscii(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (b[i] < 0)
+                return false;
+        }
+        return true;
+    }
+    
+    private static char[] decodeUtf8(byte[] b, int off, int len) {
+        char[] buf = new char[len];
+        int n = 0, pos = off, end = off + len;
+        
+        while (pos < end) {
+            int c = b[pos++] & 0xff;
+            int cp, extra;
+            if (c < 0x80) {
+                buf[n++] = (char) c;
+                continue;
+            } else if (c >= 0xc2 && c <= 0xdf) {
+                cp = c & 0x1f; extra = 1;
+            } else if (c >= 0xe0 && c <= 0xef) {
+                cp = c & 0x0f; extra = 2;
+            } else if (c >= 0xf0 && c <= 0xf4) {
+                cp = c & 0x07; extra = 3;
+            } else {
+                throw new ParseException("Malformed UTF-8 in UTF8String.");
+            }
+            if (pos + extra > end)
+                throw new ParseException("Truncated UTF-8 sequence in UTF8String.");
+            for (int i = 0; i < extra; i++) {
+                int cc = b[pos++] & 0xff;
+                if ((cc & 0xc0) != 0x80)
+                    throw new ParseException("Malformed UTF-8 in UTF8String.");
+                cp = (cp << 6) | (cc & 0x3f);
+            }
+            if ((extra == 2 && (cp < 0x800 || (cp >= 0xd800 && cp <= 0xdfff))) ||
+                (extra == 3 && (cp < 0x10000 || cp > 0x10ffff)))
+                throw new ParseException("Malformed UTF-8 in UTF8String.");
+            if (cp >= 0x10000) {
+                buf[n++] = Character.highSurrogate(cp);
+                buf[n++] = Character.lowSurrogate(cp);
+            } else {
+                buf[n++] = (char) cp;
+            }
+        }
+        
+        if (n == buf.length)
+            return buf;
+        char[] result = new char[n];
+        System.arraycopy(buf, 0, result, 0, n);
+        return result;
+    }
+    
+}
@@ -0,0 +1,217 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.decode;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.Primitive;
+
+
+/**
+ * An immutable OBJECT IDENTIFIER value. The arcs and the dotted string
+ * representation are computed once when the instance is created. Decoded
+ * instances are interned in an {@link ObjectIdentifierCache}, so repeated
+ * occurrences of the same OID share a single instance.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public final class ObjectIdentifier {
+    
+    private static final ObjectIdentifierCache DEFAULT_CACHE = new ObjectIdentifierCache();
+    
+    private final byte[] encoding;
+    private final long[] arcs;
+    private final boolean overflow;
+    private final String dotted;
+    private final int hash;
+    
+    private ObjectIdentifier(byte[] encoding, long[] arcs, boolean overflow, String dotted) {
+        this.encoding = encoding;
+        this.arcs = arcs;
+        this.overflow = overflow;
+        this.dotted = dotted;
+        this.hash = hash(encoding, 0, encoding.length);
+    }
+    
+    public static ObjectIdentifier decode(Primitive p) {
+        if (p == null) throw new NullPointerException();
+        byte[] value = p.getValue();
+        if (value == null)
+            throw new ParseException("Empty OBJECT IDENTIFIER value.");
+        return DEFAULT_CACHE.get(value, 0, value.length);
+    }
+    
+    public static ObjectIdentifier decode(byte[] b, int off, int len) {
+        return DEFAULT_CACHE.get(b, off, len);
+    }
+    
+    /**
+     * Decodes without consulting any cache, the slice is copied.
+     */
+    public static ObjectIdentifier decodeUncached(byte[] b, int off, int len) {
+        PrimitiveDecoder.checkSlice(b, off, len);
+        if (len == 0)
+            throw new ParseException("Empty OBJECT IDENTIFIER value.");
+        if ((b[off + len - 1] & 0x80) != 0)
+            throw new ParseException("Truncated OBJECT IDENTIFIER arc.");
+        
+        int numArcs = 1;
+        for (int i = off; i < off + len; i++) {
+            if ((b[i] & 0x80) == 0)
+                numArcs++;
+        }
+        
+        long[] arcs = new long[numArcs];
+        StringBuilder sb = new StringBuilder(len * 3);
+        boolean overflow = false;
+        int pos = off, end = off + len, arc = 0;
+        
+        while (pos < end) {
+            if (b[pos] == (byte)0x80)
+                throw new ParseException("OBJECT IDENTIFIER arc with leading 0x80 octet.");
+            int start = pos;
+            while ((b[pos] & 0x80) != 0)
+                pos++;
+            pos++;
+            
+            if (pos - start <= 8) {
+                long value = 0;
+                for (int i = start; i < pos; i++)
+                    value = (value << 7) | (b[i] & 0x7f);
+                if (arc == 0) {
+                    int first = value < 40 ? 0 : (value < 80 ? 1 : 2);
+                    arcs[0] = first;
+                    arcs[1] = value - first * 40;
+                    sb.append(first).append('.').append(arcs[1]);
+                    arc = 2;
+                } else {
+                    arcs[arc++] = value;
+                    sb.append('.').append(value);
+                }
+            } else {
+                /* more than 56 bits, e.g. UUID based arcs under 2.25 */
+                BigInteger value = BigInteger.ZERO;
+                for (int i = start; i < pos; i++)
+                    value = value.shiftLeft(7).or(BigInteger.valueOf(b[i] & 0x7f));
+                if (arc == 0) {
+                    value = value.subtract(BigInteger.valueOf(80));
+                    sb.append("2.");
+                    arcs[0] = 2;
+                    arc = 1;
+                } else {
+                    sb.append('.');
+                }
+                if (value.bitLength() < 64) {
+                    arcs[arc] = value.longValue();
+                } else {
+                    arcs[arc] = -1;
+                    overflow = true;
+                }
+                arc++;
+                sb.append(value);
+            }
+        }
+        
+        return new ObjectIdentifier(Arrays.copyOfRange(b, off, end),
+                                    arcs,
+                                    overflow,
+                                    sb.toString());
+    }
+    
+    public int getArcCount() {
+        return arcs.length;
+    }
+    
+    /**
+     * @throws ArithmeticException if an arc does not fit into a long
+     */
+    public long getArc(int index) {
+        long arc = arcs[index];
+        if (arc < 0)
+            throw arcOverflow();
+        return arc;
+    }
+    
+    /**
+     * @throws ArithmeticException if an arc does not fit into a long
+     */
+    public long[] getArcs() {
+        if (overflow)
+            throw arcOverflow();
+        return arcs.clone();
+    }
+    
+    public byte[] getEncoding() {
+        return encoding.clone();
+    }
+    
+    boolean matches(byte[] b, int off, int len, int h) {
+        if (hash != h || encoding.length != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (encoding[i] != b[off + i])
+                return false;
+        }
+        return true;
+    }
+    
+    int encodingHash() {
+        return hash;
+    }
+    
+    private ArithmeticException arcOverflow() {
+        return new ArithmeticException("OBJECT IDENTIFIER arc does not fit into a long: " + dotted);
+    }
+    
+    static int hash(byte[] b, int off, int len) {
+        int h = 1;
+        for (int i = off; i < off + len; i++)
+            h = 31 * h + b[i];
+        return h;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ObjectIdentifier)) return false;
+        ObjectIdentifier other = (ObjectIdentifier) o;
+        return hash == other.hash && Arrays.equals(encoding, other.encoding);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return dotted;
+    }
+    
+}
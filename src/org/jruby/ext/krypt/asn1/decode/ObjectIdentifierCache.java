@@ -0,0 +1,107 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.decode;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A bounded, lock-free interning cache for {@link ObjectIdentifier}s keyed
+ * on their encoded value bytes. Lookups hash and compare the slice in place
+ * and do not allocate. Each key may live in a small window of slots; if all
+ * of them are taken, the first one is overwritten, so the cache never grows
+ * beyond its capacity and unrelated OIDs merely evict each other.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ObjectIdentifierCache {
+    
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    private static final int PROBES = 4;
+    
+    private final AtomicReferenceArray<ObjectIdentifier> slots;
+    private final int mask;
+    
+    public ObjectIdentifierCache() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    public ObjectIdentifierCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(Math.max(capacity, PROBES));
+        if (size < capacity)
+            size <<= 1;
+        this.slots = new AtomicReferenceArray<ObjectIdentifier>(size);
+        this.mask = size - 1;
+    }
+    
+    public ObjectIdentifier get(byte[] b, int off, int len) {
+        PrimitiveDecoder.checkSlice(b, off, len);
+        int h = ObjectIdentifier.hash(b, off, len);
+        int index = spread(h) & mask;
+        
+        for (int i = 0; i < PROBES; i++) {
+            ObjectIdentifier oid = slots.get((index + i) & mask);
+            if (oid == null)
+                break;
+            if (oid.matches(b, off, len, h))
+                return oid;
+        }
+        
+        ObjectIdentifier oid = ObjectIdentifier.decodeUncached(b, off, len);
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (index + i) & mask;
+            if (slots.compareAndSet(slot, null, oid))
+                return oid;
+            ObjectIdentifier existing = slots.get(slot);
+            if (existing != null && existing.matches(b, off, len, h))
+                return existing;
+        }
+        slots.set(index, oid);
+        return oid;
+    }
+    
+    public int capacity() {
+        return slots.length();
+    }
+    
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++)
+            slots.set(i, null);
+    }
+    
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+    
+}
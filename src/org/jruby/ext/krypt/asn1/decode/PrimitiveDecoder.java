@@ -0,0 +1,185 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.decode;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.Primitive;
+
+
+/**
+ * Decodes the values of INTEGER, ENUMERATED, BOOLEAN and NULL primitives
+ * directly from their value bytes, either a whole array or a slice of a
+ * larger buffer. Integers are decoded into ints or longs without any
+ * allocation, a BigInteger is only created if explicitly requested or if
+ * the value does not fit into a long. Redundant leading octets as they
+ * may occur in BER are accepted.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class PrimitiveDecoder {
+    
+    public static enum Null {
+        INSTANCE
+    }
+    
+    private static final byte[] EMPTY = new byte[0];
+    
+    private PrimitiveDecoder() {}
+    
+    public static int decodeInt(Primitive p) {
+        byte[] value = valueOf(p);
+        return decodeInt(value, 0, value.length);
+    }
+    
+    /**
+     * @throws ArithmeticException if the value does not fit into an int
+     */
+    public static int decodeInt(byte[] b, int off, int len) {
+        long value = decodeLong(b, off, len);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new ArithmeticException("INTEGER value does not fit into an int");
+        return (int)value;
+    }
+    
+    public static long decodeLong(Primitive p) {
+        byte[] value = valueOf(p);
+        return decodeLong(value, 0, value.length);
+    }
+    
+    /**
+     * @throws ArithmeticException if the value does not fit into a long
+     */
+    public static long decodeLong(byte[] b, int off, int len) {
+        int start = significantStart(b, off, len);
+        int significant = off + len - start;
+        if (significant > 8)
+            throw new ArithmeticException("INTEGER value does not fit into a long");
+        
+        long value = b[start]; //sign extension
+        for (int i = start + 1; i < off + len; i++) {
+            value = (value << 8) | (b[i] & 0xff);
+        }
+        return value;
+    }
+    
+    public static boolean isLong(byte[] b, int off, int len) {
+        return off + len - significantStart(b, off, len) <= 8;
+    }
+    
+    public static BigInteger decodeBigInteger(Primitive p) {
+        byte[] value = valueOf(p);
+        return decodeBigInteger(value, 0, value.length);
+    }
+    
+    public static BigInteger decodeBigInteger(byte[] b, int off, int len) {
+        checkSlice(b, off, len);
+        if (len == 0)
+            throw new ParseException("Empty INTEGER value.");
+        if (off == 0 && len == b.length)
+            return new BigInteger(b);
+        return new BigInteger(Arrays.copyOfRange(b, off, off + len));
+    }
+    
+    public static Number decodeInteger(Primitive p) {
+        byte[] value = valueOf(p);
+        return decodeInteger(value, 0, value.length);
+    }
+    
+    /**
+     * Returns a Long if the value fits, a BigInteger otherwise.
+     */
+    public static Number decodeInteger(byte[] b, int off, int len) {
+        if (isLong(b, off, len))
+            return Long.valueOf(decodeLong(b, off, len));
+        return decodeBigInteger(b, off, len);
+    }
+    
+    public static int decodeEnumerated(Primitive p) {
+        return decodeInt(p);
+    }
+    
+    public static int decodeEnumerated(byte[] b, int off, int len) {
+        return decodeInt(b, off, len);
+    }
+    
+    public static Boolean decodeBoolean(Primitive p) {
+        byte[] value = valueOf(p);
+        return decodeBoolean(value, 0, value.length);
+    }
+    
+    /**
+     * Any value other than 0x00 is TRUE as in BER.
+     */
+    public static Boolean decodeBoolean(byte[] b, int off, int len) {
+        checkSlice(b, off, len);
+        if (len != 1)
+            throw new ParseException("BOOLEAN value must be a single octet.");
+        return b[off] == 0 ? Boolean.FALSE : Boolean.TRUE;
+    }
+    
+    public static Null decodeNull(Primitive p) {
+        byte[] value = valueOf(p);
+        return decodeNull(value, 0, value.length);
+    }
+    
+    public static Null decodeNull(byte[] b, int off, int len) {
+        checkSlice(b, off, len);
+        if (len != 0)
+            throw new ParseException("NULL value must be empty.");
+        return Null.INSTANCE;
+    }
+    
+    private static byte[] valueOf(Primitive p) {
+        if (p == null) throw new NullPointerException();
+        byte[] value = p.getValue();
+        return value == null ? EMPTY : value;
+    }
+    
+    private static int significantStart(byte[] b, int off, int len) {
+        checkSlice(b, off, len);
+        if (len == 0)
+            throw new ParseException("Empty INTEGER value.");
+        
+        int start = off, end = off + len - 1;
+        while (start < end &&
+               ((b[start] == 0 && b[start + 1] >= 0) ||
+                (b[start] == -1 && b[start + 1] < 0))) {
+            start++;
+        }
+        return start;
+    }
+    
+    static void checkSlice(byte[] b, int off, int len) {
+        if (b == null) throw new NullPointerException();
+        if (off < 0 || len < 0 || off > b.length - len)
+            throw new IndexOutOfBoundsException();
+    }
+    
+}
@@ -0,0 +1,247 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.decode;
+
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.Primitive;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+
+
+/**
+ * Decodes UTCTime and GeneralizedTime values straight from their ASCII
+ * digits into milliseconds or seconds since the epoch, without creating
+ * intermediate Strings or calendar objects.
+ * 
+ * In lenient mode, seconds and minutes may be omitted where BER allows it,
+ * fractions may be separated by '.' or ',' and time zone offsets are
+ * accepted in place of 'Z'. A fraction always applies to the last field
+ * present, so "2023010112.5Z" is half past twelve. Strict mode enforces the DER rules: seconds
+ * are mandatory, the time zone must be 'Z' and fractions must use '.'
+ * without trailing zeros. GeneralizedTime in local time without any zone
+ * designator is rejected in both modes since it has no defined instant.
+ * 
+ * UTCTime years are interpreted as in RFC 5280: values below 50 are
+ * 20YY, all others 19YY.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class TimeDecoder {
+    
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    
+    private TimeDecoder() {}
+    
+    /**
+     * Dispatches on the tag of p, which must be a UNIVERSAL UTCTime or
+     * GeneralizedTime.
+     */
+    public static long decodeMillis(Primitive p, boolean strict) {
+        if (p == null) throw new NullPointerException();
+        byte[] value = p.getValue();
+        if (value == null)
+            throw new ParseException("Empty time value.");
+        Header h = p.getHeader();
+        if (h.getTagClass() == TagClass.UNIVERSAL) {
+            if (h.getTag() == Tags.UTC_TIME)
+                return decodeUtcTimeMillis(value, 0, value.length, strict);
+            if (h.getTag() == Tags.GENERALIZED_TIME)
+                return decodeGeneralizedTimeMillis(value, 0, value.length, strict);
+        }
+        throw new ParseException("Not a time value: " + h.getTag());
+    }
+    
+    public static long decodeSeconds(Primitive p, boolean strict) {
+        return floorDiv(decodeMillis(p, strict), 1000);
+    }
+    
+    public static long decodeUtcTimeMillis(byte[] b, int off, int len, boolean strict) {
+        PrimitiveDecoder.checkSlice(b, off, len);
+        int end = off + len;
+        if (len < 11)
+            throw new ParseException("UTCTime value too short.");
+        
+        int yy = digits2(b, off);
+        int year = yy < 50 ? 2000 + yy : 1900 + yy;
+        int month = digits2(b, off + 2);
+        int day = digits2(b, off + 4);
+        int hour = digits2(b, off + 6);
+        int minute = digits2(b, off + 8);
+        int second = 0;
+        int pos = off + 10;
+        
+        if (pos + 1 < end && isDigit(b[pos])) {
+            second = digits2(b, pos);
+            pos += 2;
+        } else if (strict) {
+            throw new ParseException("DER UTCTime requires seconds.");
+        }
+        
+        long millis = toEpochMillis(year, month, day, hour, minute, second, 0);
+        return millis - zoneOffsetMillis(b, pos, end, strict);
+    }
+    
+    public static long decodeUtcTimeSeconds(byte[] b, int off, int len, boolean strict) {
+        return floorDiv(decodeUtcTimeMillis(b, off, len, strict), 1000);
+    }
+    
+    public static long decodeGeneralizedTimeMillis(byte[] b, int off, int len, boolean strict) {
+        PrimitiveDecoder.checkSlice(b, off, len);
+        int end = off + len;
+        if (len < 11)
+            throw new ParseException("GeneralizedTime value too short.");
+        
+        int year = digits2(b, off) * 100 + digits2(b, off + 2);
+        int month = digits2(b, off + 4);
+        int day = digits2(b, off + 6);
+        int hour = digits2(b, off + 8);
+        int minute = 0, second = 0;
+        long fractionUnit = MILLIS_PER_HOUR, fraction = 0;
+        int pos = off + 10;
+        
+        if (pos + 1 < end && isDigit(b[pos])) {
+            minute = digits2(b, pos);
+            pos += 2;
+            fractionUnit = MILLIS_PER_MINUTE;
+            if (pos + 1 < end && isDigit(b[pos])) {
+                second = digits2(b, pos);
+                pos += 2;
+                fractionUnit = 1000;
+            } else if (strict) {
+                throw new ParseException("DER GeneralizedTime requires seconds.");
+            }
+        } else if (strict) {
+            throw new ParseException("DER GeneralizedTime requires minutes and seconds.");
+        }
+        
+        if (pos < end && (b[pos] == '.' || b[pos] == ',')) {
+            if (strict && b[pos] == ',')
+                throw new ParseException("DER GeneralizedTime requires '.' as fraction separator.");
+            int start = ++pos;
+            /* a fraction of the last field present, truncated to millis */
+            long numerator = 0, denominator = 1;
+            while (pos < end && isDigit(b[pos])) {
+                if (denominator < 1000000000L) {
+                    numerator = numerator * 10 + (b[pos] - '0');
+                    denominator *= 10;
+                }
+                pos++;
+            }
+            if (pos == start)
+                throw new ParseException("Empty fraction in GeneralizedTime.");
+            if (strict && b[pos - 1] == '0')
+                throw new ParseException("DER GeneralizedTime fraction with trailing zero.");
+            fraction = numerator * fractionUnit / denominator;
+        }
+        
+        long result = toEpochMillis(year, month, day, hour, minute, second, 0) + fraction;
+        return result - zoneOffsetMillis(b, pos, end, strict);
+    }
+    
+    public static long decodeGeneralizedTimeSeconds(byte[] b, int off, int len, boolean strict) {
+        return floorDiv(decodeGeneralizedTimeMillis(b, off, len, strict), 1000);
+    }
+    
+    private static long zoneOffsetMillis(byte[] b, int pos, int end, boolean strict) {
+        if (pos >= end)
+            throw new ParseException("Time value without time zone.");
+        byte c = b[pos];
+        if (c == 'Z') {
+            if (pos + 1 != end)
+                throw new ParseException("Trailing data after time zone.");
+            return 0;
+        }
+        if (c != '+' && c != '-')
+            throw new ParseException("Invalid time zone designator: " + (char) c);
+        if (strict)
+            throw new ParseException("DER requires time values in UTC ('Z').");
+        if (pos + 5 != end)
+            throw new ParseException("Invalid time zone offset.");
+        int hours = digits2(b, pos + 1);
+        int minutes = digits2(b, pos + 3);
+        if (hours > 23 || minutes > 59)
+            throw new ParseException("Invalid time zone offset.");
+        long offset = (hours * 60 + minutes) * MILLIS_PER_MINUTE;
+        return c == '+' ? offset : -offset;
+    }
+    
+    private static long toEpochMillis(int year, int month, int day, int hour,
+                                      int minute, int second, int millis) {
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+            throw new ParseException("Invalid date in time value.");
+        if (hour > 23 || minute > 59 || second > 59)
+            throw new ParseException("Invalid time of day in time value.");
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+               + ((hour * 60L + minute) * 60 + second) * 1000 + millis;
+    }
+    
+    /* days since 1970-01-01 in the proleptic Gregorian calendar */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+    
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4: case 6: case 9: case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+    
+    private static int digits2(byte[] b, int pos) {
+        byte hi = b[pos], lo = b[pos + 1];
+        if (!isDigit(hi) || !isDigit(lo))
+            throw new ParseException("Expected digits in time value.");
+        return (hi - '0') * 10 + (lo - '0');
+    }
+    
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+    
+    /* Math.floorDiv, which Java 7 lacks */
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+    
+}
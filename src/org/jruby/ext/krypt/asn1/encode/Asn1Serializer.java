@@ -28,11 +28,14 @@
 package org.jruby.ext.krypt.asn1.encode;
 
 import org.jruby.ext.krypt.asn1.SerializationException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
 import org.jruby.ext.krypt.asn1.Constructed;
 import org.jruby.ext.krypt.asn1.Primitive;
+import org.jruby.ext.krypt.asn1.RawEncoded;
 
 
 /**
@@ -44,16 +47,61 @@ public class Asn1Serializer {
     private Asn1Serializer() {}
     
     public static void serialize(Asn1 asn, OutputStream out) {
-        if (asn.getHeader().isConstructed()) 
-            serializeConstructed((Constructed<?>)asn, out);
+        write(asn, out, null);
+    }
+    
+    /**
+     * Like {@link #serialize(Asn1, OutputStream)}, reporting each element
+     * and the total number of bytes written to metrics, if not null.
+     */
+    public static void serialize(Asn1 asn, OutputStream out, Asn1Metrics metrics) {
+        if (metrics == null) {
+            write(asn, out, null);
+            return;
+        }
+        
+        metrics.serializeStarted();
+        long t0 = System.nanoTime();
+        CountingOutputStream counting = new CountingOutputStream(out);
+        write(asn, counting, metrics);
+        metrics.serializeCompleted(counting.count, System.nanoTime() - t0);
+    }
+    
+    private static void write(Asn1 asn, OutputStream out, Asn1Metrics metrics) {
+        if (metrics == null) {
+            writeElement(asn, out, null);
+            return;
+        }
+        
+        long t0 = System.nanoTime();
+        writeElement(asn, out, metrics);
+        metrics.elementSerialized(asn.getHeader(), System.nanoTime() - t0);
+    }
+    
+    private static void writeElement(Asn1 asn, OutputStream out, Asn1Metrics metrics) {
+        if (asn instanceof RawEncoded)
+            ((RawEncoded)asn).encodeTo(out);
+        else if (asn instanceof InfiniteLengthStreamingValue)
+            ((InfiniteLengthStreamingValue)asn).encodeTo(out);
+        else if (asn instanceof DefiniteLengthStreamingValue)
+            writeStreaming((DefiniteLengthStreamingValue)asn, out);
+        else if (asn.getHeader().isConstructed()) 
+            serializeConstructed((Constructed<?>)asn, out, metrics);
         else 
             serializePrimitive((Primitive)asn, out);
     }
     
-    private static void serializeConstructed(Constructed<?> c, OutputStream out) {
+    private static void writeStreaming(DefiniteLengthStreamingValue v, OutputStream out) {
+        if (out instanceof CountingOutputStream)
+            ((CountingOutputStream)out).encode(v);
+        else
+            v.encodeTo(out);
+    }
+    
+    private static void serializeConstructed(Constructed<?> c, OutputStream out, Asn1Metrics metrics) {
         c.getHeader().encodeTo(out);
         for (Asn1 asn : c.getContent()) {
-            serialize(asn, out);
+            write(asn, out, metrics);
         }
     }
     
@@ -69,4 +117,31 @@ public class Asn1Serializer {
         }
     }
     
+    private static class CountingOutputStream extends FilterOutputStream {
+        
+        private long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+        
+        /* bypasses this stream, so that a FileOutputStream still gets the zero-copy transfer */
+        void encode(DefiniteLengthStreamingValue v) {
+            v.encodeTo(out);
+            count += v.getHeader().getHeaderLength() + v.getLength();
+        }
+    }
+    
 }
@@ -0,0 +1,375 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Constructed;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.Primitive;
+import org.jruby.ext.krypt.asn1.SerializationException;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+
+
+/**
+ * Serializes according to the Canonical Encoding Rules. Values are always
+ * encoded anew, even if their original encoding is known. Every constructed
+ * value is written with infinite length, so no lengths of the tree need to
+ * be known in advance and the output is produced in a single forward pass.
+ * String values longer than SEGMENT_SIZE bytes are split into segments of
+ * exactly SEGMENT_SIZE bytes, streaming values are segmented as they are
+ * read. The content of a BIT STRING, streaming or not, starts with its
+ * unused bits octet, every segment gets its own. Constructed values of the
+ * universal string types are merged and encoded the same way. The components of SET values are sorted by their encodings, which
+ * requires the components of a SET, but only those, to be held in memory.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class CerSerializer {
+    
+    public static final int SEGMENT_SIZE = 1000;
+    
+    private static final Length INFINITE_LENGTH = new Length(0, true);
+    private static final Length SEGMENT_LENGTH = new Length(SEGMENT_SIZE, false);
+    private static final byte[] END_OF_CONTENTS = new byte[] { Tags.END_OF_CONTENTS, 0x00 };
+    private static final byte[] EMPTY = new byte[0];
+    
+    private CerSerializer() {}
+    
+    public static void serialize(Asn1 asn, OutputStream out) {
+        try {
+            if (asn instanceof InfiniteLengthStreamingValue)
+                serializeStreaming((InfiniteLengthStreamingValue)asn, out);
+            else if (asn instanceof DefiniteLengthStreamingValue)
+                serializeStreaming((DefiniteLengthStreamingValue)asn, out);
+            else if (asn.getHeader().isConstructed()) 
+                serializeConstructed((Constructed<?>)asn, out);
+            else 
+                serializePrimitive((Primitive)asn, out);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    private static void serializeConstructed(Constructed<?> c, OutputStream out) throws IOException {
+        Header h = c.getHeader();
+        if (DerTranscoder.isStringTag(h.getTag(), h.getTagClass())) {
+            serializeConstructedString(c, out);
+            return;
+        }
+        
+        writeInfiniteHeader(h.getTag(), h.getTagClass(), out);
+        if (h.getTag() == Tags.SET && h.getTagClass() == TagClass.UNIVERSAL) {
+            for (byte[] encoding : sortedEncodings(c)) {
+                out.write(encoding);
+            }
+        }
+        else {
+            for (Asn1 asn : c.getContent()) {
+                if (!isEndOfContents(asn))
+                    serialize(asn, out);
+            }
+        }
+        out.write(END_OF_CONTENTS);
+    }
+    
+    private static List<byte[]> sortedEncodings(Constructed<?> c) {
+        List<byte[]> encodings = new ArrayList<byte[]>();
+        for (Asn1 asn : c.getContent()) {
+            if (isEndOfContents(asn))
+                continue;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            serialize(asn, baos);
+            encodings.add(baos.toByteArray());
+        }
+        Collections.sort(encodings, ENCODING_ORDER);
+        return encodings;
+    }
+    
+    /* The segments are merged and encoded anew like a primitive value */
+    private static void serializeConstructedString(Constructed<?> c, OutputStream out) throws IOException {
+        Header h = c.getHeader();
+        boolean bits = h.getTag() == Tags.BIT_STRING;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (bits)
+            baos.write(0); //placeholder for the unused bits octet
+        int unusedBits = concatenate(c, h.getTag(), baos, 0);
+        byte[] value = baos.toByteArray();
+        if (bits)
+            value[0] = (byte)unusedBits;
+        
+        if (value.length <= SEGMENT_SIZE)
+            writePrimitive(h, value, value.length, out);
+        else
+            serializeString(h, h.getTag(), new ByteArrayInputStream(value), out);
+    }
+    
+    /* Returns the unused bits of the last BIT STRING segment, 0 for any 
+     * other type */
+    private static int concatenate(Constructed<?> c, int tag, ByteArrayOutputStream out, int unusedBits) throws IOException {
+        for (Asn1 asn : c.getContent()) {
+            if (isEndOfContents(asn))
+                continue;
+            Header h = asn.getHeader();
+            if (h.getTag() != tag || h.getTagClass() != TagClass.UNIVERSAL)
+                throw new SerializationException("Segment tag does not match constructed string tag.");
+            if (unusedBits != 0)
+                throw new SerializationException("Only the last BIT STRING segment may contain unused bits.");
+            
+            if (h.isConstructed()) {
+                unusedBits = concatenate((Constructed<?>)asn, tag, out, unusedBits);
+            }
+            else {
+                byte[] value = contentsOf(asn);
+                if (tag != Tags.BIT_STRING) {
+                    out.write(value);
+                }
+                else {
+                    if (value.length == 0)
+                        throw new SerializationException("BIT STRING segment without unused bits octet.");
+                    out.write(value, 1, value.length - 1);
+                    unusedBits = value[0] & 0xff;
+                }
+            }
+        }
+        return unusedBits;
+    }
+    
+    private static byte[] contentsOf(Asn1 asn) throws IOException {
+        if (asn instanceof DefiniteLengthStreamingValue) {
+            DefiniteLengthStreamingValue v = (DefiniteLengthStreamingValue)asn;
+            byte[] value = new byte[v.getLength()];
+            ChunkReader.fill(new ExactInputStream(v.getValueStream(), value.length), value);
+            return value;
+        }
+        byte[] value = ((Primitive)asn).getValue();
+        return value == null ? EMPTY : value;
+    }
+    
+    private static boolean isEndOfContents(Asn1 asn) {
+        Header h = asn.getHeader();
+        return h.getTag() == Tags.END_OF_CONTENTS && 
+               h.getTagClass() == TagClass.UNIVERSAL && 
+               !h.isConstructed();
+    }
+    
+    private static void serializePrimitive(Primitive p, OutputStream out) throws IOException {
+        Header h = p.getHeader();
+        byte[] value = p.getValue();
+        
+        if (value == null) 
+            value = EMPTY;
+        
+        if (value.length <= SEGMENT_SIZE || !DerTranscoder.isStringTag(h.getTag(), h.getTagClass()))
+            writePrimitive(h, value, value.length, out);
+        else
+            serializeString(h, h.getTag(), new ByteArrayInputStream(value), out);
+    }
+    
+    private static void serializeStreaming(DefiniteLengthStreamingValue v, OutputStream out) throws IOException {
+        Header h = v.getHeader();
+        if (v.getLength() <= SEGMENT_SIZE || !DerTranscoder.isStringTag(h.getTag(), h.getTagClass())) {
+            v.encodeTo(out);
+            return;
+        }
+        serializeString(h, h.getTag(), new ExactInputStream(v.getValueStream(), v.getLength()), out);
+    }
+    
+    private static void serializeStreaming(InfiniteLengthStreamingValue v, OutputStream out) throws IOException {
+        ChunkReader reader = v.newChunkReader(SEGMENT_SIZE);
+        try {
+            serializeString(v.getHeader(), v.getChunkTag(), new ChunkReaderInputStream(reader), out);
+        }
+        finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Writes the contents octets read from in as a primitive value if there
+     * are at most SEGMENT_SIZE of them, as segments of exactly SEGMENT_SIZE
+     * octets otherwise. For a BIT STRING, in starts with the unused bits 
+     * octet. Every segment carries its own, which is 0 in all but the last.
+     */
+    private static void serializeString(Header h, int segmentTag, InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[SEGMENT_SIZE + 1];
+        int count = ChunkReader.fill(in, buf);
+        if (count <= SEGMENT_SIZE) {
+            writePrimitive(h, buf, count, out);
+            return;
+        }
+        
+        boolean bits = segmentTag == Tags.BIT_STRING;
+        Tag tag = new Tag(segmentTag, TagClass.UNIVERSAL, false);
+        int unusedBits = 0, segment = SEGMENT_SIZE;
+        if (bits) {
+            unusedBits = buf[0] & 0xff;
+            System.arraycopy(buf, 1, buf, 0, --count);
+            segment--;
+        }
+        
+        writeInfiniteHeader(h.getTag(), h.getTagClass(), out);
+        while (true) {
+            count += ChunkReader.fill(in, buf, count, segment + 1 - count);
+            if (count <= segment)
+                break;
+            //at least one more octet follows, this is not the last segment
+            writeSegmentHeader(tag, SEGMENT_SIZE, out);
+            if (bits)
+                out.write(0x00);
+            out.write(buf, 0, segment);
+            buf[0] = buf[segment];
+            count = 1;
+        }
+        writeSegmentHeader(tag, bits ? count + 1 : count, out);
+        if (bits)
+            out.write(unusedBits);
+        out.write(buf, 0, count);
+        out.write(END_OF_CONTENTS);
+    }
+    
+    private static void writePrimitive(Header h, byte[] value, int length, OutputStream out) throws IOException {
+        new Tag(h.getTag(), h.getTagClass(), false).encodeTo(out);
+        new Length(length, false).encodeTo(out);
+        out.write(value, 0, length);
+    }
+    
+    private static void writeInfiniteHeader(int tag, TagClass tc, OutputStream out) {
+        new Tag(tag, tc, true).encodeTo(out);
+        INFINITE_LENGTH.encodeTo(out);
+    }
+    
+    private static void writeSegmentHeader(Tag tag, int len, OutputStream out) {
+        tag.encodeTo(out);
+        if (len == SEGMENT_SIZE)
+            SEGMENT_LENGTH.encodeTo(out);
+        else
+            new Length(len, false).encodeTo(out);
+    }
+    
+    /* Ends after length bytes, fails if the source ends before */
+    private static class ExactInputStream extends FilterInputStream {
+        
+        private int remaining;
+        
+        ExactInputStream(InputStream in, int length) {
+            super(in);
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0)
+                return -1;
+            int read = super.read(b, off, Math.min(len, remaining));
+            if (read == -1)
+                throw new SerializationException("Premature end of value source.");
+            remaining -= read;
+            return read;
+        }
+    }
+    
+    /* Reads the chunks of a ChunkReader, which must not be asked again once
+     * it signalled EOF */
+    private static class ChunkReaderInputStream extends InputStream {
+        
+        private final ChunkReader reader;
+        private ChunkReader.Chunk chunk;
+        private int pos;
+        private boolean eof;
+        
+        ChunkReaderInputStream(ChunkReader reader) {
+            this.reader = reader;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof)
+                return -1;
+            if (chunk == null) {
+                chunk = reader.next();
+                pos = 0;
+                if (chunk.length == 0) {
+                    eof = true;
+                    return -1;
+                }
+            }
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk.buf, pos, b, off, n);
+            pos += n;
+            if (pos == chunk.length) {
+                reader.release(chunk);
+                chunk = null;
+            }
+            return n;
+        }
+    }
+    
+    /* Orders encodings as unsigned octet strings, a shorter encoding is 
+     * treated as if it were padded with trailing zero octets */
+    static final Comparator<byte[]> ENCODING_ORDER = new Comparator<byte[]>() {
+        
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int len = Math.max(a.length, b.length);
+            for (int i = 0; i < len; i++) {
+                int x = i < a.length ? a[i] & 0xff : 0;
+                int y = i < b.length ? b[i] & 0xff : 0;
+                if (x != y)
+                    return x - y;
+            }
+            return 0;
+        }
+    };
+    
+}
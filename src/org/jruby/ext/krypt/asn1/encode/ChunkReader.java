@@ -0,0 +1,232 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jruby.ext.krypt.asn1.SerializationException;
+
+
+/**
+ * Splits a source into chunks of a fixed size. Every chunk but the last one
+ * is filled completely, a chunk of length 0 signals EOF. A chunk obtained
+ * by next() must be handed back via release() once its content has been
+ * processed.
+ * 
+ * With more than one buffer, a background thread prefetches upcoming chunks
+ * into a ring of buffers while the caller is still busy with the current one.
+ * Anything thrown while reading the source, errors included, is rethrown to
+ * the caller by next(). close() stops the thread.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+abstract class ChunkReader {
+    
+    static class Chunk {
+        final byte[] buf;
+        int length;
+        Throwable error;
+        
+        Chunk(int chunkSize) {
+            this.buf = new byte[chunkSize];
+        }
+    }
+    
+    abstract Chunk next();
+    
+    abstract void release(Chunk chunk);
+    
+    abstract void close();
+    
+    static ChunkReader newInstance(InputStream source, int chunkSize, int numBuffers) {
+        if (numBuffers == 1)
+            return new Synchronous(source, chunkSize);
+        else
+            return new ReadAhead(source, chunkSize, numBuffers);
+    }
+    
+    static int fill(InputStream source, byte[] buf) throws IOException {
+        return fill(source, buf, buf.length);
+    }
+    
+    static int fill(InputStream source, byte[] buf, int length) throws IOException {
+        return fill(source, buf, 0, length);
+    }
+    
+    static int fill(InputStream source, byte[] buf, int off, int length) throws IOException {
+        int read, total = 0;
+        while (total != length && 
+               (read = source.read(buf, off + total, length - total)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+    
+    private static class Synchronous extends ChunkReader {
+        
+        private final InputStream source;
+        private final Chunk chunk;
+        
+        Synchronous(InputStream source, int chunkSize) {
+            this.source = source;
+            this.chunk = new Chunk(chunkSize);
+        }
+
+        @Override
+        Chunk next() {
+            try {
+                chunk.length = fill(source, chunk.buf);
+                return chunk;
+            }
+            catch (IOException ex) {
+                throw new SerializationException(ex);
+            }
+        }
+
+        @Override
+        void release(Chunk chunk) {
+            //nothing to do, the buffer is reused
+        }
+
+        @Override
+        void close() {
+            //nothing to do
+        }
+    }
+    
+    private static class ReadAhead extends ChunkReader {
+        
+        private final Prefetcher prefetcher;
+        
+        private Thread thread;
+        
+        ReadAhead(InputStream source, int chunkSize, int numBuffers) {
+            this.prefetcher = new Prefetcher(source, chunkSize, numBuffers, this);
+        }
+
+        @Override
+        Chunk next() {
+            if (thread == null) {
+                thread = new Thread(prefetcher, "asn1-read-ahead");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            try {
+                Chunk chunk = prefetcher.filled.take();
+                if (chunk.error instanceof Error)
+                    throw (Error)chunk.error;
+                if (chunk.error != null)
+                    throw new SerializationException(chunk.error);
+                return chunk;
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SerializationException(ex);
+            }
+        }
+
+        @Override
+        void release(Chunk chunk) {
+            prefetcher.free.add(chunk);
+        }
+
+        /**
+         * Stops the read-ahead thread by interrupting it. Note that if the
+         * source is backed by an InterruptibleChannel, e.g. one obtained
+         * from Channels.newInputStream, a read that is in progress is
+         * aborted and the channel is closed as a consequence.
+         */
+        @Override
+        void close() {
+            prefetcher.closed = true;
+            if (thread != null)
+                thread.interrupt();
+        }
+    }
+    
+    /* Runs on the read-ahead thread. It only holds a weak reference to its
+     * reader, so a reader that is dropped without being closed, e.g. by
+     * abandoning the iteration over a streaming value, lets the thread end
+     * once the reader has been collected. */
+    private static class Prefetcher implements Runnable {
+        
+        private static final long POLL_MILLIS = 1000;
+        
+        private final InputStream source;
+        private final BlockingQueue<Chunk> free;
+        private final BlockingQueue<Chunk> filled;
+        private final WeakReference<ReadAhead> reader;
+        
+        private volatile boolean closed;
+        
+        Prefetcher(InputStream source, int chunkSize, int numBuffers, ReadAhead reader) {
+            this.source = source;
+            this.free = new ArrayBlockingQueue<Chunk>(numBuffers);
+            this.filled = new ArrayBlockingQueue<Chunk>(numBuffers);
+            this.reader = new WeakReference<ReadAhead>(reader);
+            for (int i = 0; i < numBuffers; i++) {
+                free.add(new Chunk(chunkSize));
+            }
+        }
+        
+        @Override
+        public void run() {
+            try {
+                Chunk chunk;
+                do {
+                    if ((chunk = nextFree()) == null)
+                        return;
+                    try {
+                        chunk.length = fill(source, chunk.buf);
+                    }
+                    catch (Throwable t) {
+                        chunk.error = t;
+                    }
+                    filled.put(chunk);
+                } while (chunk.length != 0 && chunk.error == null);
+            }
+            catch (InterruptedException ex) {
+                //closed by the consumer
+            }
+        }
+        
+        private Chunk nextFree() throws InterruptedException {
+            Chunk chunk;
+            while ((chunk = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                if (closed || reader.get() == null)
+                    return null;
+            }
+            return closed ? null : chunk;
+        }
+    }
+    
+}
@@ -0,0 +1,257 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import org.jruby.ext.krypt.asn1.GenericAsn1;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.Primitive;
+import org.jruby.ext.krypt.asn1.SerializationException;
+import org.jruby.ext.krypt.asn1.TagClass;
+
+
+/**
+ * A primitive value of known length whose content is streamed from a source
+ * when serialized by Asn1Serializer, producing a single definite length
+ * header followed by the payload. If the source is a file, the payload is
+ * transferred using FileChannel.transferTo, provided the output is a
+ * FileOutputStream, also when Asn1Serializer records metrics for the
+ * serialization. Asn1Serializer cannot detect this for any other stream,
+ * even if it wraps a channel, so use writeTo(WritableByteChannel) to transfer
+ * to a socket or other channel directly. Otherwise the payload is copied
+ * through a buffer.
+ * 
+ * The value bytes are never held in memory, getValue() returns null. The
+ * source can only be consumed once.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class DefiniteLengthStreamingValue extends Primitive {
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private final InputStream source;
+    private final FileChannel channel;
+    private final int length;
+    
+    private int tag;
+    private TagClass tc;
+    
+    private Header header;
+    
+    public DefiniteLengthStreamingValue(int tag, InputStream source, int length) {
+        this(tag, source, null, length);
+    }
+    
+    public DefiniteLengthStreamingValue(int tag, FileChannel channel, int length) {
+        this(tag, null, channel, length);
+    }
+    
+    public DefiniteLengthStreamingValue(int tag, FileChannel channel) {
+        this(tag, null, channel, remaining(channel));
+    }
+    
+    private DefiniteLengthStreamingValue(int tag, InputStream source, FileChannel channel, int length) {
+        super(null);
+        if (source == null && channel == null) throw new NullPointerException();
+        if (length < 0) throw new IllegalArgumentException("Length must not be negative");
+        if (tag > 30) 
+            throw new IllegalArgumentException("UNIVERSAL tags must be <= 30");
+        this.tag = tag;
+        this.tc = TagClass.UNIVERSAL;
+        this.source = source;
+        this.channel = channel != null ? channel : channelOf(source);
+        this.length = length;
+    }
+    
+    private static int remaining(FileChannel channel) {
+        try {
+            long remaining = channel.size() - channel.position();
+            if (remaining > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Value too long: " + remaining);
+            return (int)remaining;
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    private static FileChannel channelOf(InputStream source) {
+        if (source instanceof FileInputStream)
+            return ((FileInputStream)source).getChannel();
+        return null;
+    }
+
+    @Override
+    public Header getHeader() {
+        if (header == null) {
+            header = computeHeader();
+        }
+        return header;
+    }
+    
+    private Header computeHeader() {
+        Tag t = new Tag(tag, tc, false);
+        Length l = new Length(length, false);
+        return GenericAsn1.headerFor(t, l);
+    }
+    
+    public void setTagAndClass(int tag, TagClass tc) {
+        if (tc == null) throw new NullPointerException();
+        
+        this.tag = tag;
+        this.tc = tc;
+        this.header = null; //needs to be recomputed
+    }
+    
+    int getLength() {
+        return length;
+    }
+    
+    InputStream getValueStream() {
+        return channel != null ? Channels.newInputStream(channel) : source;
+    }
+    
+    void encodeTo(OutputStream out) {
+        getHeader().encodeTo(out);
+        try {
+            if (channel != null && out instanceof FileOutputStream)
+                transfer(((FileOutputStream)out).getChannel());
+            else
+                copy(getValueStream(), out);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    /**
+     * Writes the encoding to target. With a file source, the payload is
+     * transferred using FileChannel.transferTo.
+     */
+    public void writeTo(WritableByteChannel target) {
+        if (target == null) throw new NullPointerException();
+        
+        OutputStream out = new ChannelOutputStream(target);
+        getHeader().encodeTo(out);
+        try {
+            if (channel != null)
+                transfer(target);
+            else
+                copy(getValueStream(), out);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    private void transfer(WritableByteChannel target) throws IOException {
+        long position = channel.position();
+        long remaining = length;
+        
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred == 0) {
+                /* a non-blocking target may accept nothing, that is no EOF */
+                if (position >= channel.size())
+                    throw new SerializationException("Premature end of value source.");
+                position = copy(position, remaining, target);
+                break;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        channel.position(position);
+    }
+    
+    private long copy(long position, long remaining, WritableByteChannel target) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, remaining));
+        
+        while (remaining > 0) {
+            buf.clear();
+            buf.limit((int)Math.min(buf.capacity(), remaining));
+            int read = channel.read(buf, position);
+            if (read == -1)
+                throw new SerializationException("Premature end of value source.");
+            buf.flip();
+            writeFully(buf, target);
+            position += read;
+            remaining -= read;
+        }
+        return position;
+    }
+    
+    private static void writeFully(ByteBuffer buf, WritableByteChannel target) throws IOException {
+        while (buf.hasRemaining())
+            target.write(buf);
+    }
+    
+    private void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        int read, remaining = length;
+        
+        while (remaining > 0) {
+            read = in.read(buf, 0, Math.min(remaining, buf.length));
+            if (read == -1)
+                throw new SerializationException("Premature end of value source.");
+            out.write(buf, 0, read);
+            remaining -= read;
+        }
+    }
+    
+    /* unlike Channels.newOutputStream, tolerates targets that accept nothing at times */
+    private static class ChannelOutputStream extends OutputStream {
+        
+        private final WritableByteChannel target;
+        
+        ChannelOutputStream(WritableByteChannel target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeFully(ByteBuffer.wrap(b, off, len), target);
+        }
+    }
+    
+}
@@ -0,0 +1,586 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.ParsedHeader;
+import org.jruby.ext.krypt.asn1.Parser;
+import org.jruby.ext.krypt.asn1.ParserFactory;
+import org.jruby.ext.krypt.asn1.SerializationException;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.jruby.ext.krypt.asn1.decode.TimeDecoder;
+
+
+/**
+ * Transcodes BER to DER on the level of the encoding, without building a
+ * tree of the input. Indefinite length values are given definite lengths,
+ * all tag and length encodings are made minimal and constructed (chunked)
+ * string values are merged into a single primitive value. The components of
+ * SET values are sorted by their encodings, as required for SET OF. For a SET
+ * whose components all have distinct tags of the same class this is also the
+ * required tag order.
+ * 
+ * Primitive contents are brought into DER form where that is possible
+ * without changing their length: BOOLEAN TRUE becomes 0xff and the unused
+ * bits of a BIT STRING are zeroed. Contents that cannot be fixed this way
+ * are rejected with a ParseException: BOOLEANs and NULLs of wrong length,
+ * INTEGERs and ENUMERATEDs that are not minimally encoded, invalid unused
+ * bits octets and primitive UTCTime and GeneralizedTime values that are
+ * not in DER form. Time values in constructed form are merged but not 
+ * checked.
+ * 
+ * Primitive top-level values are streamed through directly. The value bytes
+ * of constructed top-level values need to be held back until their lengths
+ * are known, they are buffered in memory up to threshold bytes and spilled
+ * to a temporary file beyond that. Only a small record per constructed value
+ * is kept on the heap, except for the components of a SET, which are held in
+ * memory while they are sorted. These records take about 50 bytes each, and
+ * a top-level value with more than maxHeaders constructed values is rejected
+ * with a SerializationException, so heap use stays bounded for arbitrary
+ * input.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class DerTranscoder {
+    
+    public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+    
+    public static final int DEFAULT_MAX_HEADERS = 1024 * 1024;
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private static final boolean[] STRING_TAGS = new boolean[31];
+    
+    static {
+        int[] strings = new int[] {
+            Tags.BIT_STRING, Tags.OCTET_STRING, Tags.UTF8_STRING,
+            Tags.NUMERIC_STRING, Tags.PRINTABLE_STRING, Tags.T61_STRING, 
+            Tags.VIDEOTEX_STRING, Tags.IA5_STRING, Tags.UTC_TIME, 
+            Tags.GENERALIZED_TIME, Tags.GRAPHIC_STRING, Tags.ISO64_STRING,
+            Tags.GENERAL_STRING, Tags.UNIVERSAL_STRING, Tags.BMP_STRING
+        };
+        for (int tag : strings) {
+            STRING_TAGS[tag] = true;
+        }
+    }
+    
+    private final ParserFactory parserFactory;
+    private final int threshold;
+    private final File directory;
+    private final int maxHeaders;
+    
+    public DerTranscoder() {
+        this(new ParserFactory(), DEFAULT_THRESHOLD, null);
+    }
+    
+    public DerTranscoder(int threshold) {
+        this(new ParserFactory(), threshold, null);
+    }
+    
+    /**
+     * @param directory the directory for temporary files, null for the
+     * default temporary-file directory
+     */
+    public DerTranscoder(ParserFactory parserFactory, int threshold, File directory) {
+        this(parserFactory, threshold, directory, DEFAULT_MAX_HEADERS);
+    }
+    
+    /**
+     * @param directory the directory for temporary files, null for the
+     * default temporary-file directory
+     * @param maxHeaders the maximum number of constructed values within a
+     * single top-level value
+     */
+    public DerTranscoder(ParserFactory parserFactory, int threshold, File directory, int maxHeaders) {
+        if (parserFactory == null) throw new NullPointerException();
+        if (threshold < 0) throw new IllegalArgumentException("threshold must be positive");
+        if (maxHeaders <= 0) throw new IllegalArgumentException("maxHeaders must be positive");
+        
+        this.parserFactory = parserFactory;
+        this.threshold = threshold;
+        this.directory = directory;
+        this.maxHeaders = maxHeaders;
+    }
+    
+    /**
+     * Transcodes all values of in until EOF is reached.
+     */
+    public void transcode(InputStream in, OutputStream out) {
+        if (in == null) throw new NullPointerException();
+        if (out == null) throw new NullPointerException();
+        
+        Parser parser = parserFactory.newHeaderParser();
+        CountingInputStream cin = new CountingInputStream(in);
+        ParsedHeader h;
+        
+        try {
+            while ((h = parser.next(cin)) != null) {
+                if (isEndOfContents(h))
+                    throw new ParseException("Unexpected END OF CONTENTS.");
+                if (h.isConstructed())
+                    transcodeConstructed(parser, h, cin, out);
+                else
+                    transcodePrimitive(h, out);
+            }
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    private void transcodePrimitive(ParsedHeader h, OutputStream out) throws IOException {
+        primitive(h, out, new byte[BUFFER_SIZE]);
+    }
+    
+    private void transcodeConstructed(Parser parser, ParsedHeader h, CountingInputStream in, OutputStream out) throws IOException {
+        SpillBuffer spill = new SpillBuffer(threshold, directory);
+        try {
+            Transcoding t = new Transcoding(parser, in, spill, null);
+            t.element(h);
+            t.writeTo(out);
+        }
+        finally {
+            spill.dispose();
+        }
+    }
+    
+    private static void checkPrimitive(ParsedHeader h) {
+        if (h.isInfiniteLength())
+            throw new ParseException("Primitive value with infinite length encoding.");
+    }
+    
+    /**
+     * Writes a primitive value with its contents in DER form, see the class
+     * documentation. Nothing is written if the contents are rejected.
+     * 
+     * @return the number of bytes written
+     */
+    private static long primitive(ParsedHeader h, OutputStream out, byte[] buf) throws IOException {
+        checkPrimitive(h);
+        int length = h.getLength();
+        InputStream value = h.getValueStream(false);
+        int prefix = Math.min(length, buf.length);
+        if (ChunkReader.fill(value, buf, prefix) != prefix)
+            throw new ParseException("Premature EOF detected.");
+        
+        int tag = h.getTagClass() == TagClass.UNIVERSAL ? h.getTag() : -1;
+        checkContents(tag, buf, prefix, length);
+        int mask = tag == Tags.BIT_STRING && length > 1 ? (0xff << buf[0]) & 0xff : 0xff;
+        
+        Tag t = derTag(h, false);
+        Length l = new Length(length, false);
+        t.encodeTo(out);
+        l.encodeTo(out);
+        if (prefix == length) {
+            if (length > 0)
+                buf[length - 1] &= mask;
+            out.write(buf, 0, length);
+        }
+        else {
+            out.write(buf, 0, prefix);
+            copy(value, out, length - prefix - 1, buf);
+            int last = value.read();
+            if (last == -1)
+                throw new ParseException("Premature EOF detected.");
+            out.write(last & mask);
+        }
+        return t.getEncodingLength() + l.getEncodingLength() + length;
+    }
+    
+    /* b holds the first len octets of contents that are length octets long */
+    private static void checkContents(int tag, byte[] b, int len, int length) {
+        switch (tag) {
+            case Tags.BOOLEAN:
+                if (length != 1)
+                    throw new ParseException("BOOLEAN value must be one octet.");
+                if (b[0] != 0)
+                    b[0] = (byte)0xff;
+                break;
+            case Tags.NULL:
+                if (length != 0)
+                    throw new ParseException("NULL value must be empty.");
+                break;
+            case Tags.INTEGER:
+            case Tags.ENUMERATED:
+                if (length == 0)
+                    throw new ParseException("Empty INTEGER value.");
+                if (length > 1 && ((b[0] == 0 && b[1] >= 0) || (b[0] == -1 && b[1] < 0)))
+                    throw new ParseException("INTEGER value is not minimally encoded.");
+                break;
+            case Tags.BIT_STRING:
+                if (length == 0)
+                    throw new ParseException("BIT STRING without unused bits octet.");
+                if (b[0] < 0 || b[0] > 7 || (length == 1 && b[0] != 0))
+                    throw new ParseException("Invalid number of unused bits: " + (b[0] & 0xff));
+                break;
+            case Tags.UTC_TIME:
+            case Tags.GENERALIZED_TIME:
+                if (len != length)
+                    throw new ParseException("Time value too long.");
+                if (tag == Tags.UTC_TIME)
+                    TimeDecoder.decodeUtcTimeMillis(b, 0, len, true);
+                else
+                    TimeDecoder.decodeGeneralizedTimeMillis(b, 0, len, true);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private static boolean isEndOfContents(ParsedHeader h) {
+        return h.getTag() == Tags.END_OF_CONTENTS && 
+               h.getTagClass() == TagClass.UNIVERSAL && 
+               !h.isConstructed();
+    }
+    
+    private static boolean isSet(ParsedHeader h) {
+        return h.getTag() == Tags.SET && h.getTagClass() == TagClass.UNIVERSAL;
+    }
+    
+    private static boolean isString(ParsedHeader h) {
+        return isStringTag(h.getTag(), h.getTagClass());
+    }
+    
+    static boolean isStringTag(int tag, TagClass tc) {
+        return tc == TagClass.UNIVERSAL &&
+               tag >= 0 &&
+               tag < STRING_TAGS.length &&
+               STRING_TAGS[tag];
+    }
+    
+    private static Tag derTag(ParsedHeader h, boolean isConstructed) {
+        return new Tag(h.getTag(), h.getTagClass(), isConstructed);
+    }
+    
+    private static int toLength(long length) {
+        if (length > Integer.MAX_VALUE)
+            throw new SerializationException("Value too long for a definite length encoding: " + length);
+        return (int)length;
+    }
+    
+    private static void copy(InputStream in, OutputStream out, long length, byte[] buf) throws IOException {
+        int read;
+        while (length > 0) {
+            read = in.read(buf, 0, (int)Math.min(length, buf.length));
+            if (read == -1)
+                throw new ParseException("Premature EOF detected.");
+            out.write(buf, 0, read);
+            length -= read;
+        }
+    }
+    
+    /**
+     * A header whose length is only known after its content was processed,
+     * or, if tag is null, a run of bytes to be copied from the spill buffer.
+     */
+    private static class Node {
+        final Tag tag;
+        long length;
+        int unusedBits = -1; //only used for BIT STRINGs
+        int pending = -1; //last octet of a BIT STRING, written once its segments are done
+        
+        Node(Tag tag) {
+            this.tag = tag;
+        }
+        
+        long valueLength() {
+            return unusedBits == -1 ? length : length + 1;
+        }
+        
+        long size() {
+            long valueLength = valueLength();
+            return tag.getEncodingLength() + new Length(toLength(valueLength), false).getEncodingLength() + valueLength;
+        }
+    }
+    
+    private class Transcoding {
+        
+        private final Parser parser;
+        private final CountingInputStream in;
+        private final SpillBuffer spill;
+        private final Transcoding root;
+        private final List<Node> plan = new ArrayList<Node>();
+        private final byte[] buf = new byte[BUFFER_SIZE];
+        
+        private int headers; //counted on the root only
+        
+        /* parent is the transcoding a SET component is part of */
+        Transcoding(Parser parser, CountingInputStream in, SpillBuffer spill, Transcoding parent) {
+            this.parser = parser;
+            this.in = in;
+            this.spill = spill;
+            this.root = parent == null ? this : parent.root;
+        }
+        
+        long element(ParsedHeader h) throws IOException {
+            if (!h.isConstructed())
+                return primitive(h);
+            else if (isString(h))
+                return string(h);
+            else if (isSet(h))
+                return set(h);
+            else
+                return constructed(h);
+        }
+        
+        private long primitive(ParsedHeader h) throws IOException {
+            long size = DerTranscoder.primitive(h, spill, buf);
+            data(size);
+            return size;
+        }
+        
+        private long constructed(ParsedHeader h) throws IOException {
+            Node node = new Node(derTag(h, true));
+            header(node);
+            
+            long end = in.position + h.getLength();
+            ParsedHeader nested;
+            while ((nested = nextNested(h, end)) != null) {
+                node.length += element(nested);
+                checkEnd(h, end);
+            }
+            return node.size();
+        }
+        
+        private long set(ParsedHeader h) throws IOException {
+            Node node = new Node(derTag(h, true));
+            header(node);
+            
+            List<byte[]> encodings = new ArrayList<byte[]>();
+            long end = in.position + h.getLength();
+            ParsedHeader nested;
+            while ((nested = nextNested(h, end)) != null) {
+                encodings.add(component(nested));
+                checkEnd(h, end);
+            }
+            Collections.sort(encodings, CerSerializer.ENCODING_ORDER);
+            for (byte[] encoding : encodings) {
+                spill.write(encoding);
+                data(encoding.length);
+                node.length += encoding.length;
+            }
+            return node.size();
+        }
+        
+        private byte[] component(ParsedHeader h) throws IOException {
+            SpillBuffer memory = new SpillBuffer(Integer.MAX_VALUE, null);
+            try {
+                Transcoding t = new Transcoding(parser, in, memory, this);
+                t.element(h);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                t.writeTo(baos);
+                return baos.toByteArray();
+            }
+            finally {
+                memory.dispose();
+            }
+        }
+        
+        private long string(ParsedHeader h) throws IOException {
+            Node node = new Node(derTag(h, false));
+            if (h.getTag() == Tags.BIT_STRING)
+                node.unusedBits = 0;
+            header(node);
+            node.length = segments(h, node);
+            if (node.pending != -1) {
+                spill.write(node.pending & (0xff << node.unusedBits));
+                data(1);
+                node.length++;
+            }
+            return node.size();
+        }
+        
+        private long segments(ParsedHeader h, Node node) throws IOException {
+            long total = 0;
+            long end = in.position + h.getLength();
+            ParsedHeader nested;
+            
+            while ((nested = nextNested(h, end)) != null) {
+                if (nested.getTag() != h.getTag() || nested.getTagClass() != h.getTagClass())
+                    throw new ParseException("Malformed encoding. Segment tag does not match constructed string tag.");
+                if (nested.isConstructed())
+                    total += segments(nested, node);
+                else
+                    total += segment(nested, node);
+                checkEnd(h, end);
+            }
+            return total;
+        }
+        
+        private long segment(ParsedHeader h, Node node) throws IOException {
+            checkPrimitive(h);
+            InputStream value = h.getValueStream(false);
+            long length = h.getLength();
+            
+            if (node.unusedBits != -1) {
+                if (node.unusedBits != 0)
+                    throw new ParseException("Only the last BIT STRING segment may contain unused bits.");
+                if (length == 0)
+                    throw new ParseException("BIT STRING segment without unused bits octet.");
+                int unusedBits = value.read();
+                if (unusedBits == -1)
+                    throw new ParseException("Premature EOF detected.");
+                if (unusedBits > 7 || (length == 1 && unusedBits != 0))
+                    throw new ParseException("Invalid number of unused bits: " + unusedBits);
+                node.unusedBits = unusedBits;
+                length--;
+                if (length == 0)
+                    return 0;
+                /* hold back the last octet, its unused bits are zeroed once the last segment is known */
+                long written = 0;
+                if (node.pending != -1) {
+                    spill.write(node.pending);
+                    data(1);
+                    written++;
+                }
+                copy(value, spill, length - 1, buf);
+                data(length - 1);
+                node.pending = value.read();
+                if (node.pending == -1)
+                    throw new ParseException("Premature EOF detected.");
+                return written + length - 1;
+            }
+            copy(value, spill, length, buf);
+            data(length);
+            return length;
+        }
+        
+        private void header(Node node) {
+            if (++root.headers > maxHeaders)
+                throw new SerializationException("More than " + maxHeaders + " constructed values in a single top-level value.");
+            plan.add(node);
+        }
+        
+        private ParsedHeader nextNested(ParsedHeader h, long end) {
+            if (!h.isInfiniteLength() && in.position == end)
+                return null;
+            
+            ParsedHeader nested = parser.next(in);
+            if (nested == null)
+                throw new ParseException("Premature EOF detected.");
+            if (isEndOfContents(nested)) {
+                if (!h.isInfiniteLength())
+                    throw new ParseException("Unexpected END OF CONTENTS.");
+                if (nested.getLength() != 0)
+                    throw new ParseException("EOF tag with length > 0 found.");
+                return null;
+            }
+            return nested;
+        }
+        
+        private void checkEnd(ParsedHeader h, long end) {
+            if (!h.isInfiniteLength() && in.position > end)
+                throw new ParseException("Malformed encoding. Single lengths of "+
+                                         "constructed value do not add up to total value");
+        }
+        
+        private void data(long length) {
+            if (length == 0)
+                return;
+            Node last = plan.isEmpty() ? null : plan.get(plan.size() - 1);
+            if (last != null && last.tag == null) {
+                last.length += length;
+            }
+            else {
+                Node data = new Node(null);
+                data.length = length;
+                plan.add(data);
+            }
+        }
+        
+        void writeTo(OutputStream out) throws IOException {
+            InputStream data = spill.getInputStream();
+            try {
+                for (Node node : plan) {
+                    if (node.tag == null) {
+                        copy(data, out, node.length, buf);
+                    }
+                    else {
+                        node.tag.encodeTo(out);
+                        new Length(toLength(node.valueLength()), false).encodeTo(out);
+                        if (node.unusedBits != -1)
+                            out.write(node.unusedBits);
+                    }
+                }
+            }
+            finally {
+                data.close();
+            }
+        }
+    }
+    
+    private static class CountingInputStream extends FilterInputStream {
+        
+        private long position = 0;
+        
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read != -1)
+                position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+    
+}
@@ -0,0 +1,144 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Constructed;
+import org.jruby.ext.krypt.asn1.RawEncoded;
+
+
+/**
+ * Serializes like Asn1Serializer and at the same time feeds the encodings
+ * of designated values into MessageDigests, as they are written to the
+ * output. This way, signed structures can be encoded and hashed in a single
+ * pass, which also holds for the payload of streaming values. 
+ * 
+ * Values are designated by identity. A designated value may be nested
+ * within another designated value.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class DigestingSerializer {
+    
+    private final Map<Asn1, MessageDigest[]> targets = new IdentityHashMap<Asn1, MessageDigest[]>();
+    
+    public void digest(Asn1 asn, MessageDigest... digests) {
+        if (asn == null) throw new NullPointerException();
+        if (digests == null) throw new NullPointerException();
+        
+        targets.put(asn, digests);
+    }
+    
+    public void serialize(Asn1 asn, OutputStream out) {
+        if (out == null) throw new NullPointerException();
+        
+        serialize(asn, new TeeOutputStream(out));
+    }
+    
+    private void serialize(Asn1 asn, TeeOutputStream out) {
+        MessageDigest[] digests = targets.get(asn);
+        if (digests != null)
+            out.active.add(digests);
+        
+        try {
+            if (isComposite(asn)) {
+                asn.getHeader().encodeTo(out);
+                for (Asn1 nested : ((Constructed<?>)asn).getContent()) {
+                    serialize(nested, out);
+                }
+            }
+            else {
+                Asn1Serializer.serialize(asn, out);
+            }
+        }
+        finally {
+            if (digests != null)
+                out.active.remove(out.active.size() - 1);
+        }
+    }
+    
+    /* Constructed values need to be descended into unless they can be 
+     * written in one go and contain no designated values */
+    private boolean isComposite(Asn1 asn) {
+        if (asn instanceof InfiniteLengthStreamingValue || !asn.getHeader().isConstructed())
+            return false;
+        if (asn instanceof RawEncoded)
+            return containsTarget((Constructed<?>)asn);
+        return true;
+    }
+    
+    private boolean containsTarget(Constructed<?> c) {
+        for (Asn1 nested : c.getContent()) {
+            if (targets.containsKey(nested))
+                return true;
+            if (nested.getHeader().isConstructed() && 
+                !(nested instanceof InfiniteLengthStreamingValue) &&
+                containsTarget((Constructed<?>)nested))
+                return true;
+        }
+        return false;
+    }
+    
+    private static class TeeOutputStream extends FilterOutputStream {
+        
+        private final List<MessageDigest[]> active = new ArrayList<MessageDigest[]>();
+        
+        TeeOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            for (MessageDigest[] digests : active) {
+                for (MessageDigest digest : digests) {
+                    digest.update((byte)b);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (MessageDigest[] digests : active) {
+                for (MessageDigest digest : digests) {
+                    digest.update(b, off, len);
+                }
+            }
+        }
+    }
+    
+}
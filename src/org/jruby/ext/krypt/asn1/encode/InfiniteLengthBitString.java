@@ -45,4 +45,8 @@ public class InfiniteLengthBitString extends InfiniteLengthStreamingValue {
         super(source, Tags.BIT_STRING, chunkSize);
     }
     
+    public InfiniteLengthBitString(InputStream source, int chunkSize, int numBuffers) {
+        super(source, Tags.BIT_STRING, chunkSize, numBuffers);
+    }
+    
 }
@@ -45,4 +45,8 @@ public class InfiniteLengthOctetString extends InfiniteLengthStreamingValue {
         super(source, Tags.OCTET_STRING, chunkSize);
     }
     
+    public InfiniteLengthOctetString(InputStream source, int chunkSize, int numBuffers) {
+        super(source, Tags.OCTET_STRING, chunkSize, numBuffers);
+    }
+    
 }
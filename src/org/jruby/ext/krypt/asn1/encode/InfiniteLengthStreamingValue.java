@@ -29,14 +29,24 @@ package org.jruby.ext.krypt.asn1.encode;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
+import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
 import org.jruby.ext.krypt.asn1.SerializationException;
+import org.jruby.ext.krypt.asn1.TagClass;
 import org.jruby.ext.krypt.asn1.Tags;
 
 
 /**
+ * Streams the source as chunks of chunkSize bytes, only the last chunk may
+ * be shorter. getContent() offers the chunks as PrimitiveValues, whereas
+ * Asn1Serializer writes them straight from a single shared read buffer.
+ * With numBuffers > 1, a background thread reads ahead into that many
+ * buffers while the current chunk is being written. The source can only be
+ * consumed once.
  * 
  * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
  */
@@ -44,31 +54,56 @@ public abstract class InfiniteLengthStreamingValue extends AbstractConstructed<I
     
     public static final int DEFAULT_CHUNK_SIZE = 8192;
     
+    private static final byte[] END_OF_CONTENTS = new byte[] { Tags.END_OF_CONTENTS, 0x00 };
+    
+    private final ChunkedStream stream;
+    
     private InfiniteLengthStreamingValue(int tag, ChunkedStream stream) {
         super(tag, stream);
+        this.stream = stream;
         setInfiniteLength(true);
     }
     
+    public InfiniteLengthStreamingValue(InputStream source, int tag, int chunkSize, int numBuffers) {
+        this(tag, new ChunkedStream(tag, source, chunkSize, numBuffers));
+    }
+    
     public InfiniteLengthStreamingValue(InputStream source, int tag, int chunkSize) {
-        this(tag, new ChunkedStream(tag, source, chunkSize));
+        this(tag, new ChunkedStream(tag, source, chunkSize, 1));
     }
     
     public InfiniteLengthStreamingValue(InputStream source, int tag) {
-        this(tag, new ChunkedStream(tag, source, DEFAULT_CHUNK_SIZE));
+        this(tag, new ChunkedStream(tag, source, DEFAULT_CHUNK_SIZE, 1));
+    }
+    
+    void encodeTo(OutputStream out) {
+        getHeader().encodeTo(out);
+        stream.encodeTo(out);
+    }
+    
+    int getChunkTag() {
+        return stream.tag;
+    }
+    
+    ChunkReader newChunkReader(int chunkSize) {
+        return ChunkReader.newInstance(stream.source, chunkSize, stream.numBuffers);
     }
 
     private static class ChunkedStream implements Iterable<Asn1> {
         
         private final int chunkSize;
+        private final int numBuffers;
         private final InputStream source;
         private final int tag;
 
-        public ChunkedStream(int tag, InputStream source, int chunkSize) {
+        public ChunkedStream(int tag, InputStream source, int chunkSize, int numBuffers) {
             if (source == null) throw new NullPointerException();
             if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be > 0");
+            if (numBuffers <= 0) throw new IllegalArgumentException("numBuffers must be > 0");
             this.tag = tag;
             this.source = source;
             this.chunkSize = chunkSize;
+            this.numBuffers = numBuffers;
         }
 
         @Override
@@ -76,7 +111,7 @@ public abstract class InfiniteLengthStreamingValue extends AbstractConstructed<I
             return new Iterator<Asn1>() {
 
                 private boolean eof = false;
-                private final byte[] buf = new byte[chunkSize];
+                private ChunkReader reader;
                 
                 @Override
                 public boolean hasNext() {
@@ -86,19 +121,18 @@ public abstract class InfiniteLengthStreamingValue extends AbstractConstructed<I
                 @Override
                 public Asn1 next() {
                     if (eof) throw new NoSuchElementException();
-                    try {
-                        int read = source.read(buf);
-                        if (read == -1) {
-                            eof = true;
-                            return new PrimitiveValue(Tags.END_OF_CONTENTS, null);
-                        }
-                        else {
-                            byte[] trimmed = trim(read, buf);
-                            return new PrimitiveValue(tag, trimmed);
-                        }
+                    if (reader == null)
+                        reader = ChunkReader.newInstance(source, chunkSize, numBuffers);
+                    ChunkReader.Chunk chunk = reader.next();
+                    if (chunk.length == 0) {
+                        eof = true;
+                        reader.close();
+                        return new PrimitiveValue(Tags.END_OF_CONTENTS, null);
                     }
-                    catch (IOException ex) {
-                        throw new SerializationException(ex);
+                    else {
+                        byte[] trimmed = trim(chunk.length, chunk.buf);
+                        reader.release(chunk);
+                        return new PrimitiveValue(tag, trimmed);
                     }
                 }
                 
@@ -119,6 +153,32 @@ public abstract class InfiniteLengthStreamingValue extends AbstractConstructed<I
             };
         }
         
+        void encodeTo(OutputStream out) {
+            ChunkReader reader = ChunkReader.newInstance(source, chunkSize, numBuffers);
+            Tag chunkTag = new Tag(tag, TagClass.UNIVERSAL, false);
+            Length chunkLength = new Length(chunkSize, false);
+            
+            try {
+                ChunkReader.Chunk chunk;
+                while ((chunk = reader.next()).length != 0) {
+                    chunkTag.encodeTo(out);
+                    if (chunk.length == chunkSize)
+                        chunkLength.encodeTo(out);
+                    else
+                        new Length(chunk.length, false).encodeTo(out); //last chunk only
+                    out.write(chunk.buf, 0, chunk.length);
+                    reader.release(chunk);
+                }
+                out.write(END_OF_CONTENTS);
+            }
+            catch (IOException ex) {
+                throw new SerializationException(ex);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        
     }
     
 }
@@ -0,0 +1,143 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Constructed;
+import org.jruby.ext.krypt.asn1.RawEncoded;
+import org.jruby.ext.krypt.asn1.SerializationException;
+
+
+/**
+ * Serializes large constructed values in parallel. The children of every
+ * constructed value with more than segmentSize children are split into
+ * segments of segmentSize children each. The segments are encoded into
+ * separate buffers on a ForkJoinPool and written out in order after the
+ * parent header, so the result is identical to that of Asn1Serializer.
+ * 
+ * At most two segments per worker thread are buffered at any time.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ParallelAsn1Serializer {
+    
+    public static final int DEFAULT_SEGMENT_SIZE = 1024;
+    
+    private final ForkJoinPool pool;
+    private final int segmentSize;
+    
+    public ParallelAsn1Serializer(ForkJoinPool pool) {
+        this(pool, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    public ParallelAsn1Serializer(ForkJoinPool pool, int segmentSize) {
+        if (pool == null) throw new NullPointerException();
+        if (segmentSize <= 0) throw new IllegalArgumentException("segmentSize must be > 0");
+        
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+    }
+    
+    public void serialize(Asn1 asn, OutputStream out) {
+        if (asn instanceof RawEncoded || 
+            asn instanceof InfiniteLengthStreamingValue || 
+            !asn.getHeader().isConstructed())
+            Asn1Serializer.serialize(asn, out);
+        else
+            serializeConstructed((Constructed<?>)asn, out);
+    }
+    
+    private void serializeConstructed(Constructed<?> c, OutputStream out) {
+        Iterable<Asn1> content = c.getContent();
+        if (content instanceof List && ((List<Asn1>)content).size() > segmentSize) {
+            serializeSegmented(c, (List<Asn1>)content, out);
+        }
+        else {
+            c.getHeader().encodeTo(out);
+            for (Asn1 asn : content) {
+                serialize(asn, out);
+            }
+        }
+    }
+    
+    private void serializeSegmented(Constructed<?> c, List<Asn1> content, OutputStream out) {
+        c.getHeader().encodeTo(out);
+        
+        int size = content.size();
+        int window = 2 * pool.getParallelism();
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<ForkJoinTask<byte[]>>(window);
+        
+        try {
+            for (int i = 0; i < size; i += segmentSize) {
+                if (pending.size() == window)
+                    out.write(pending.removeFirst().join());
+                List<Asn1> segment = content.subList(i, Math.min(size, i + segmentSize));
+                pending.addLast(pool.submit(new Segment(segment)));
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.removeFirst().join());
+            }
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+        finally {
+            for (ForkJoinTask<byte[]> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+    
+    private static class Segment implements Callable<byte[]> {
+        
+        private final List<Asn1> segment;
+        
+        Segment(List<Asn1> segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public byte[] call() {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (Asn1 asn : segment) {
+                Asn1Serializer.serialize(asn, baos);
+            }
+            return baos.toByteArray();
+        }
+    }
+    
+}
@@ -0,0 +1,320 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.SerializationException;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+
+
+/**
+ * Writes headers and the most common primitive values straight to an
+ * OutputStream, computing the minimal DER encoding on the fly instead of
+ * building a value byte[] and a Header object first. The *Length methods
+ * return the number of bytes the corresponding write will produce, so
+ * callers can compute the lengths of enclosing constructed values up
+ * front.
+ * 
+ * Asn1Serializer does not use these methods. It writes values that already
+ * carry their value bytes and cached header encodings, so computing those
+ * again here would gain nothing. PrimitiveWriter is meant for callers that
+ * produce encodings without building Asn1 values at all.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class PrimitiveWriter {
+    
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    
+    private PrimitiveWriter() {}
+    
+    public static void writeHeader(OutputStream out, int tag, TagClass tc, boolean constructed, int length) {
+        if (length < 0)
+            throw new IllegalArgumentException("Negative length: " + length);
+        try {
+            writeTag(out, tag, tc, constructed);
+            if (length <= 127) {
+                out.write(length);
+            } else {
+                int numBytes = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+                out.write(Header.INFINITE_LENGTH_MASK | numBytes);
+                for (int i = numBytes - 1; i >= 0; i--)
+                    out.write(length >>> (i * 8));
+            }
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    public static void writeInfiniteLengthHeader(OutputStream out, int tag, TagClass tc) {
+        try {
+            writeTag(out, tag, tc, true);
+            out.write(Header.INFINITE_LENGTH_MASK);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    public static int headerLength(int tag, int length) {
+        int tagLength = tag < 31 ? 1 : 1 + (Integer.SIZE - Integer.numberOfLeadingZeros(tag) + 6) / 7;
+        int lengthLength = length <= 127 ? 1 : 1 + (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+        return tagLength + lengthLength;
+    }
+    
+    public static void writeInteger(OutputStream out, long value) {
+        writeInteger(out, Tags.INTEGER, TagClass.UNIVERSAL, value);
+    }
+    
+    public static void writeInteger(OutputStream out, int tag, TagClass tc, long value) {
+        int len = integerValueLength(value);
+        writeHeader(out, tag, tc, false, len);
+        try {
+            for (int i = len - 1; i >= 0; i--)
+                out.write((int)(value >> (i * 8)));
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    public static void writeInteger(OutputStream out, BigInteger value) {
+        writeInteger(out, Tags.INTEGER, TagClass.UNIVERSAL, value);
+    }
+    
+    public static void writeInteger(OutputStream out, int tag, TagClass tc, BigInteger value) {
+        if (value == null) throw new NullPointerException();
+        if (value.bitLength() < 64) {
+            writeInteger(out, tag, tc, value.longValue());
+            return;
+        }
+        byte[] bytes = value.toByteArray();
+        writeHeader(out, tag, tc, false, bytes.length);
+        try {
+            out.write(bytes);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    public static int integerLength(long value) {
+        int len = integerValueLength(value);
+        return headerLength(Tags.INTEGER, len) + len;
+    }
+    
+    public static int integerLength(BigInteger value) {
+        int len = value.bitLength() / 8 + 1;
+        return headerLength(Tags.INTEGER, len) + len;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if arcs do not form a valid
+     * OBJECT IDENTIFIER
+     */
+    public static void writeObjectIdentifier(OutputStream out, long... arcs) {
+        int len = objectIdentifierValueLength(arcs);
+        writeHeader(out, Tags.OBJECT_IDENTIFIER, TagClass.UNIVERSAL, false, len);
+        try {
+            writeBase128(out, arcs[0] * 40 + arcs[1]);
+            for (int i = 2; i < arcs.length; i++)
+                writeBase128(out, arcs[i]);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    public static int objectIdentifierLength(long... arcs) {
+        int len = objectIdentifierValueLength(arcs);
+        return headerLength(Tags.OBJECT_IDENTIFIER, len) + len;
+    }
+    
+    /**
+     * Writes YYYYMMDDHHMMSS[.fff]Z, the fraction is omitted if zero and
+     * has no trailing zeros otherwise, as required by DER.
+     */
+    public static void writeGeneralizedTime(OutputStream out, long epochMillis) {
+        writeTime(out, Tags.GENERALIZED_TIME, epochMillis, true);
+    }
+    
+    public static int generalizedTimeLength(long epochMillis) {
+        return 2 + generalizedTimeValueLength(epochMillis);
+    }
+    
+    /**
+     * Writes YYMMDDHHMMSSZ, sub-second precision is truncated.
+     * 
+     * @throws IllegalArgumentException if the year is outside 1950-2049
+     */
+    public static void writeUtcTime(OutputStream out, long epochMillis) {
+        writeTime(out, Tags.UTC_TIME, epochMillis, false);
+    }
+    
+    public static int utcTimeLength() {
+        return 15;
+    }
+    
+    private static void writeTag(OutputStream out, int tag, TagClass tc, boolean constructed) throws IOException {
+        if (tc == null) throw new NullPointerException();
+        if (tag < 0)
+            throw new IllegalArgumentException("Negative tag: " + tag);
+        int tagByte = tc.getMask() & 0xff;
+        if (constructed)
+            tagByte |= Header.CONSTRUCTED_MASK;
+        if (tag < 31) {
+            out.write(tagByte | tag);
+        } else {
+            out.write(tagByte | Header.COMPLEX_TAG_MASK);
+            writeBase128(out, tag);
+        }
+    }
+    
+    private static void writeBase128(OutputStream out, long value) throws IOException {
+        int numBytes = base128Length(value);
+        for (int i = numBytes - 1; i > 0; i--)
+            out.write((int)((value >>> (i * 7)) & 0x7f) | 0x80);
+        out.write((int)(value & 0x7f));
+    }
+    
+    private static int base128Length(long value) {
+        return value == 0 ? 1 : (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7;
+    }
+    
+    private static int integerValueLength(long value) {
+        /* number of significant bits including the sign bit */
+        int bits = Long.SIZE - Long.numberOfLeadingZeros(value < 0 ? ~value : value) + 1;
+        return (bits + 7) / 8;
+    }
+    
+    private static int objectIdentifierValueLength(long[] arcs) {
+        if (arcs == null) throw new NullPointerException();
+        if (arcs.length < 2)
+            throw new IllegalArgumentException("OBJECT IDENTIFIER needs at least two arcs.");
+        if (arcs[0] < 0 || arcs[0] > 2 || arcs[1] < 0 || (arcs[0] < 2 && arcs[1] >= 40))
+            throw new IllegalArgumentException("Invalid first arcs: " + arcs[0] + "." + arcs[1]);
+        if (arcs[1] > Long.MAX_VALUE - 80)
+            throw new IllegalArgumentException("Second arc too large: " + arcs[1]);
+        int len = base128Length(arcs[0] * 40 + arcs[1]);
+        for (int i = 2; i < arcs.length; i++) {
+            if (arcs[i] < 0)
+                throw new IllegalArgumentException("Negative arc: " + arcs[i]);
+            len += base128Length(arcs[i]);
+        }
+        return len;
+    }
+    
+    private static int generalizedTimeValueLength(long epochMillis) {
+        int millis = (int)(epochMillis - floorDiv(epochMillis, 1000) * 1000);
+        if (millis == 0)
+            return 15;
+        if (millis % 100 == 0)
+            return 17;
+        if (millis % 10 == 0)
+            return 18;
+        return 19;
+    }
+    
+    /* the value is formatted completely before anything is written, so an
+     * out of range year leaves out untouched */
+    private static void writeTime(OutputStream out, int tag, long epochMillis, boolean generalized) {
+        byte[] value = new byte[19];
+        int len = formatTime(value, epochMillis, generalized);
+        writeHeader(out, tag, TagClass.UNIVERSAL, false, len);
+        try {
+            out.write(value, 0, len);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+    
+    private static int formatTime(byte[] b, long epochMillis, boolean generalized) {
+        long days = floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int)(epochMillis - days * MILLIS_PER_DAY);
+        
+        /* civil date from days since 1970-01-01, proleptic Gregorian */
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int)(z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        
+        if (generalized && (year < 0 || year > 9999))
+            throw new IllegalArgumentException("Year out of range for GeneralizedTime: " + year);
+        if (!generalized && (year < 1950 || year > 2049))
+            throw new IllegalArgumentException("Year out of range for UTCTime: " + year);
+        
+        int seconds = millisOfDay / 1000;
+        int millis = millisOfDay % 1000;
+        int pos = 0;
+        if (generalized)
+            pos = digits2(b, pos, (int)(year / 100));
+        pos = digits2(b, pos, (int)(year % 100));
+        pos = digits2(b, pos, month);
+        pos = digits2(b, pos, day);
+        pos = digits2(b, pos, seconds / 3600);
+        pos = digits2(b, pos, (seconds / 60) % 60);
+        pos = digits2(b, pos, seconds % 60);
+        if (generalized && millis != 0) {
+            b[pos++] = '.';
+            b[pos++] = (byte)('0' + millis / 100);
+            if (millis % 100 != 0) {
+                b[pos++] = (byte)('0' + (millis / 10) % 10);
+                if (millis % 10 != 0)
+                    b[pos++] = (byte)('0' + millis % 10);
+            }
+        }
+        b[pos++] = 'Z';
+        return pos;
+    }
+    
+    private static int digits2(byte[] b, int pos, int value) {
+        b[pos] = (byte)('0' + value / 10);
+        b[pos + 1] = (byte)('0' + value % 10);
+        return pos + 2;
+    }
+    
+    /* Math.floorDiv, which Java 7 lacks */
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+    
+}
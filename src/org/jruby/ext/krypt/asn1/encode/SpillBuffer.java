@@ -0,0 +1,117 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.encode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Buffers written bytes in memory up to a threshold, everything beyond is
+ * spilled to a temporary file. The content can be read back once via
+ * getInputStream(), dispose() deletes the temporary file.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+class SpillBuffer extends OutputStream {
+    
+    private final int threshold;
+    private final File directory;
+    private final Memory memory = new Memory();
+    
+    private File file;
+    private OutputStream fileOut;
+    
+    SpillBuffer(int threshold, File directory) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold must be positive");
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (fileOut == null && memory.size() + 1 > threshold)
+            spill();
+        if (fileOut == null)
+            memory.write(b);
+        else
+            fileOut.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && memory.size() + len > threshold)
+            spill();
+        if (fileOut == null)
+            memory.write(b, off, len);
+        else
+            fileOut.write(b, off, len);
+    }
+    
+    private void spill() throws IOException {
+        file = File.createTempFile("asn1spill", null, directory);
+        fileOut = new BufferedOutputStream(new FileOutputStream(file));
+        memory.writeTo(fileOut);
+        memory.reset();
+    }
+    
+    InputStream getInputStream() throws IOException {
+        if (fileOut == null)
+            return memory.getInputStream();
+        fileOut.close();
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+    
+    void dispose() {
+        try {
+            if (fileOut != null)
+                fileOut.close();
+        }
+        catch (IOException ex) {
+            //silent
+        }
+        if (file != null)
+            file.delete();
+    }
+    
+    private static class Memory extends ByteArrayOutputStream {
+        
+        InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+    
+}
@@ -0,0 +1,212 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
+import org.jruby.ext.krypt.asn1.Header;
+
+
+/**
+ * Thread-safe totals of everything reported to {@link Asn1Metrics}. One
+ * instance may be shared by any number of parsers and serializers.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class CountingMetrics implements Asn1Metrics {
+    
+    private final AtomicLong headers = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicLong bytesSkipped = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong elementsParsed = new AtomicLong();
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong elementsSerialized = new AtomicLong();
+    private final AtomicLong serializations = new AtomicLong();
+    private final AtomicLong bytesSerialized = new AtomicLong();
+    private final AtomicLong serializeNanos = new AtomicLong();
+
+    @Override
+    public void headerParsed(Header h) {
+        headers.incrementAndGet();
+    }
+
+    @Override
+    public void chunkParsed(Header h) {
+        chunks.incrementAndGet();
+    }
+
+    @Override
+    public void valueBytesRead(int n) {
+        bytesRead.addAndGet(n);
+    }
+
+    @Override
+    public void valueBytesCopied(int n) {
+        bytesCopied.addAndGet(n);
+    }
+
+    @Override
+    public void valueBytesSkipped(long n) {
+        bytesSkipped.addAndGet(n);
+    }
+
+    @Override
+    public void depthReached(int depth) {
+        int max;
+        while (depth > (max = maxDepth.get())) {
+            if (maxDepth.compareAndSet(max, depth))
+                return;
+        }
+    }
+
+    @Override
+    public void elementParsed(Header h, long nanos) {
+        elementsParsed.incrementAndGet();
+    }
+
+    @Override
+    public void parseStarted() {
+    }
+
+    @Override
+    public void parseCompleted(long nanos) {
+        parses.incrementAndGet();
+        parseNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public void elementSerialized(Header h, long nanos) {
+        elementsSerialized.incrementAndGet();
+    }
+
+    @Override
+    public void serializeStarted() {
+    }
+
+    @Override
+    public void serializeCompleted(long bytes, long nanos) {
+        serializations.incrementAndGet();
+        bytesSerialized.addAndGet(bytes);
+        serializeNanos.addAndGet(nanos);
+    }
+
+    public long getHeadersParsed() {
+        return headers.get();
+    }
+
+    public long getChunksParsed() {
+        return chunks.get();
+    }
+
+    public long getValueBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getValueBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    public long getValueBytesSkipped() {
+        return bytesSkipped.get();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getElementsParsed() {
+        return elementsParsed.get();
+    }
+
+    public long getParses() {
+        return parses.get();
+    }
+
+    public long getParseNanos() {
+        return parseNanos.get();
+    }
+
+    public long getElementsSerialized() {
+        return elementsSerialized.get();
+    }
+
+    public long getSerializations() {
+        return serializations.get();
+    }
+
+    public long getBytesSerialized() {
+        return bytesSerialized.get();
+    }
+
+    public long getSerializeNanos() {
+        return serializeNanos.get();
+    }
+    
+    /**
+     * Resets all counters. Updates happening concurrently may or may not
+     * be included afterwards.
+     */
+    public void reset() {
+        headers.set(0);
+        chunks.set(0);
+        bytesRead.set(0);
+        bytesCopied.set(0);
+        bytesSkipped.set(0);
+        maxDepth.set(0);
+        elementsParsed.set(0);
+        parses.set(0);
+        parseNanos.set(0);
+        elementsSerialized.set(0);
+        serializations.set(0);
+        bytesSerialized.set(0);
+        serializeNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "headers=" + headers + 
+               " chunks=" + chunks + 
+               " read=" + bytesRead + 
+               " copied=" + bytesCopied + 
+               " skipped=" + bytesSkipped + 
+               " maxDepth=" + maxDepth + 
+               " parsed=" + elementsParsed + 
+               " parses=" + parses + 
+               " parseNanos=" + parseNanos + 
+               " serialized=" + elementsSerialized + 
+               " serializations=" + serializations + 
+               " bytesSerialized=" + bytesSerialized + 
+               " serializeNanos=" + serializeNanos;
+    }
+    
+}
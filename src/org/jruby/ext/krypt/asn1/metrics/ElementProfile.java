@@ -0,0 +1,240 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.TagClass;
+
+
+/**
+ * Latency and size histograms per tag class and tag number. Like 
+ * LogHistogram, a profile may be read while it is written, but only by 
+ * a single writer.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ElementProfile {
+    
+    public enum Metric {
+        PARSE_NANOS("parse-ns"), 
+        PARSE_BYTES("parse-bytes"), 
+        ENCODE_NANOS("encode-ns"), 
+        ENCODE_BYTES("encode-bytes");
+        
+        private final String label;
+        
+        private Metric(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+    
+    private static final Metric[] METRICS = Metric.values();
+    private static final TagClass[] TAG_CLASSES = TagClass.values();
+    private static final int SIMPLE_TAGS = 31;
+    
+    /* single octet tags are looked up by index, so recording them allocates nothing */
+    private final AtomicReferenceArray<LogHistogram[]> simple = new AtomicReferenceArray<LogHistogram[]>(TAG_CLASSES.length * SIMPLE_TAGS);
+    private final ConcurrentMap<Long, LogHistogram[]> histograms = new ConcurrentHashMap<Long, LogHistogram[]>();
+    
+    public void record(Metric m, TagClass tc, int tag, long value) {
+        histogramsFor(tc, tag)[m.ordinal()].record(value);
+    }
+    
+    void record(Metric m, Header h, long value) {
+        record(m, h.getTagClass(), h.getTag(), value);
+    }
+    
+    /**
+     * @return the histogram, or null if nothing was recorded for tc and tag
+     */
+    public LogHistogram getHistogram(Metric m, TagClass tc, int tag) {
+        LogHistogram[] hs = isSimple(tag) ? simple.get(index(tc, tag)) : histograms.get(key(tc, tag));
+        return hs == null ? null : hs[m.ordinal()];
+    }
+    
+    /**
+     * Adds everything recorded in other to this profile, which must not 
+     * be written concurrently.
+     */
+    public void merge(ElementProfile other) {
+        if (other == null) throw new NullPointerException();
+        
+        for (Map.Entry<Long, LogHistogram[]> e : other.sorted().entrySet()) {
+            LogHistogram[] to = histogramsFor(tagClassOf(e.getKey()), tagOf(e.getKey()));
+            for (int i = 0; i < to.length; i++)
+                to[i].merge(e.getValue()[i]);
+        }
+    }
+    
+    /**
+     * Writes one line per tag and metric with count, mean, percentiles 
+     * and maximum, followed by the non-empty buckets as 
+     * upper bound:count.
+     */
+    public void writeText(Appendable out) throws IOException {
+        for (Map.Entry<Long, LogHistogram[]> e : sorted().entrySet()) {
+            for (Metric m : METRICS) {
+                LogHistogram h = e.getValue()[m.ordinal()];
+                if (h.getCount() == 0)
+                    continue;
+                out.append(String.format(Locale.ROOT, "%-16s %-12s count=%d mean=%.1f p50<=%d p90<=%d p99<=%d max=%d ",
+                                         tagName(e.getKey()), m, h.getCount(), h.getMean(), 
+                                         h.getPercentile(50), h.getPercentile(90), 
+                                         h.getPercentile(99), h.getMax()));
+                appendBuckets(h, out);
+                out.append('\n');
+            }
+        }
+    }
+    
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("tag_class,tag,metric,count,sum,mean,p50,p90,p99,max\n");
+        for (Map.Entry<Long, LogHistogram[]> e : sorted().entrySet()) {
+            for (Metric m : METRICS) {
+                LogHistogram h = e.getValue()[m.ordinal()];
+                if (h.getCount() == 0)
+                    continue;
+                out.append(tagClassOf(e.getKey()).name()).append(',')
+                   .append(String.valueOf(tagOf(e.getKey()))).append(',')
+                   .append(m.toString()).append(',')
+                   .append(String.valueOf(h.getCount())).append(',')
+                   .append(String.valueOf(h.getSum())).append(',')
+                   .append(String.format(Locale.ROOT, "%.1f", h.getMean())).append(',')
+                   .append(String.valueOf(h.getPercentile(50))).append(',')
+                   .append(String.valueOf(h.getPercentile(90))).append(',')
+                   .append(String.valueOf(h.getPercentile(99))).append(',')
+                   .append(String.valueOf(h.getMax())).append('\n');
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeText(sb);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return sb.toString();
+    }
+    
+    private LogHistogram[] histogramsFor(TagClass tc, int tag) {
+        if (isSimple(tag)) {
+            int index = index(tc, tag);
+            LogHistogram[] hs = simple.get(index);
+            if (hs == null) {
+                hs = newHistograms();
+                if (!simple.compareAndSet(index, null, hs))
+                    hs = simple.get(index);
+            }
+            return hs;
+        }
+        
+        Long key = key(tc, tag);
+        LogHistogram[] hs = histograms.get(key);
+        if (hs == null) {
+            hs = newHistograms();
+            LogHistogram[] existing = histograms.putIfAbsent(key, hs);
+            if (existing != null)
+                hs = existing;
+        }
+        return hs;
+    }
+    
+    private static LogHistogram[] newHistograms() {
+        LogHistogram[] hs = new LogHistogram[METRICS.length];
+        for (int i = 0; i < hs.length; i++)
+            hs[i] = new LogHistogram();
+        return hs;
+    }
+    
+    private Map<Long, LogHistogram[]> sorted() {
+        Map<Long, LogHistogram[]> ret = new TreeMap<Long, LogHistogram[]>(histograms);
+        for (int i = 0; i < simple.length(); i++) {
+            LogHistogram[] hs = simple.get(i);
+            if (hs != null)
+                ret.put(key(TAG_CLASSES[i / SIMPLE_TAGS], i % SIMPLE_TAGS), hs);
+        }
+        return ret;
+    }
+    
+    private static void appendBuckets(LogHistogram h, Appendable out) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (int i = 0; i < LogHistogram.BUCKETS; i++) {
+            long count = h.getBucketCount(i);
+            if (count == 0)
+                continue;
+            if (!first)
+                out.append(' ');
+            out.append(String.valueOf(LogHistogram.upperBound(i))).append(':').append(String.valueOf(count));
+            first = false;
+        }
+        out.append(']');
+    }
+    
+    private static boolean isSimple(int tag) {
+        return tag >= 0 && tag < SIMPLE_TAGS;
+    }
+    
+    private static int index(TagClass tc, int tag) {
+        return tc.ordinal() * SIMPLE_TAGS + tag;
+    }
+    
+    private static Long key(TagClass tc, int tag) {
+        if (tc == null) throw new NullPointerException();
+        return Long.valueOf(((long)tc.ordinal() << 32) | (tag & 0xffffffffL));
+    }
+    
+    private static TagClass tagClassOf(long key) {
+        return TAG_CLASSES[(int)(key >>> 32)];
+    }
+    
+    private static int tagOf(long key) {
+        return (int)key;
+    }
+    
+    private static String tagName(long key) {
+        return tagClassOf(key).name() + " " + tagOf(key);
+    }
+    
+}
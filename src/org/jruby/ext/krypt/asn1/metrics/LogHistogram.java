@@ -0,0 +1,135 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram with power of two buckets: bucket 0 holds values &lt;= 0,
+ * bucket i holds values in [2^(i-1), 2^i). Percentiles are therefore only
+ * accurate to a factor of two, which is enough to tell a 100 byte value 
+ * from a 100 kB one.
+ * 
+ * A histogram may be written by one thread while others read it; readers
+ * may see slightly outdated values. There must not be more than one 
+ * writer at a time.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class LogHistogram {
+    
+    public static final int BUCKETS = 64;
+    
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+    
+    /* single writer, so plain get/lazySet instead of CAS */
+    private final AtomicLongArray values = new AtomicLongArray(BUCKETS + 3);
+    
+    public void record(long value) {
+        int i = bucketOf(value);
+        values.lazySet(i, values.get(i) + 1);
+        values.lazySet(COUNT, values.get(COUNT) + 1);
+        values.lazySet(SUM, values.get(SUM) + value);
+        if (value > values.get(MAX))
+            values.lazySet(MAX, value);
+    }
+    
+    /**
+     * Adds the values of other to this histogram, which must not be 
+     * written concurrently.
+     */
+    public void merge(LogHistogram other) {
+        if (other == null) throw new NullPointerException();
+        
+        for (int i = 0; i < MAX; i++)
+            values.lazySet(i, values.get(i) + other.values.get(i));
+        long max = other.values.get(MAX);
+        if (max > values.get(MAX))
+            values.lazySet(MAX, max);
+    }
+    
+    public long getCount() {
+        return values.get(COUNT);
+    }
+    
+    public long getSum() {
+        return values.get(SUM);
+    }
+    
+    public long getMax() {
+        return values.get(MAX);
+    }
+    
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double)getSum() / count;
+    }
+    
+    public long getBucketCount(int bucket) {
+        return values.get(bucket);
+    }
+    
+    /**
+     * @return an upper bound for the value at percentile p (0 to 100), 
+     * never greater than the maximum
+     */
+    public long getPercentile(double p) {
+        if (p < 0 || p > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long rank = (long)Math.ceil(count * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += values.get(i);
+            if (seen >= rank && seen > 0)
+                return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+    
+    public static int bucketOf(long value) {
+        if (value <= 0)
+            return 0;
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+    }
+    
+    /** @return the largest value that falls into bucket */
+    public static long upperBound(int bucket) {
+        if (bucket <= 0)
+            return 0;
+        if (bucket >= BUCKETS - 1)
+            return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+    
+}
@@ -0,0 +1,162 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.metrics.ElementProfile.Metric;
+
+
+/**
+ * Records latency and size histograms per tag class and tag number for
+ * every element parsed by Asn1Parser or written by Asn1Serializer. Times
+ * include nested elements. Sizes are only recorded for definite lengths.
+ * 
+ * Each thread records into a profile of its own, so threads never
+ * contend. {@link #snapshot()} merges them. The profiles of terminated
+ * threads are merged into a shared one when the next thread starts 
+ * recording or on snapshot, so they do not pile up when threads come 
+ * and go.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ProfilingMetrics implements Asn1Metrics {
+    
+    private final List<Registration> profiles = new ArrayList<Registration>();
+    private final ElementProfile retired = new ElementProfile();
+    private final ThreadLocal<ElementProfile> local = new ThreadLocal<ElementProfile>() {
+        @Override
+        protected ElementProfile initialValue() {
+            ElementProfile p = new ElementProfile();
+            synchronized (profiles) {
+                retire();
+                profiles.add(new Registration(Thread.currentThread(), p));
+            }
+            return p;
+        }
+    };
+    
+    /**
+     * @return the merged profiles of all threads that recorded anything,
+     * including threads that terminated since
+     */
+    public ElementProfile snapshot() {
+        ElementProfile merged = new ElementProfile();
+        synchronized (profiles) {
+            retire();
+            merged.merge(retired);
+            for (Registration r : profiles)
+                merged.merge(r.profile);
+        }
+        return merged;
+    }
+    
+    /* must hold the lock on profiles */
+    private void retire() {
+        Iterator<Registration> it = profiles.iterator();
+        while (it.hasNext()) {
+            Registration r = it.next();
+            Thread t = r.get();
+            if (t == null || !t.isAlive()) {
+                retired.merge(r.profile);
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void elementParsed(Header h, long nanos) {
+        ElementProfile p = local.get();
+        p.record(Metric.PARSE_NANOS, h, nanos);
+        if (!h.isInfiniteLength())
+            p.record(Metric.PARSE_BYTES, h, (long)h.getHeaderLength() + h.getLength());
+    }
+
+    @Override
+    public void elementSerialized(Header h, long nanos) {
+        ElementProfile p = local.get();
+        p.record(Metric.ENCODE_NANOS, h, nanos);
+        if (!h.isInfiniteLength())
+            p.record(Metric.ENCODE_BYTES, h, (long)h.getHeaderLength() + h.getLength());
+    }
+
+    @Override
+    public void headerParsed(Header h) {
+    }
+
+    @Override
+    public void chunkParsed(Header h) {
+    }
+
+    @Override
+    public void valueBytesRead(int n) {
+    }
+
+    @Override
+    public void valueBytesCopied(int n) {
+    }
+
+    @Override
+    public void valueBytesSkipped(long n) {
+    }
+
+    @Override
+    public void depthReached(int depth) {
+    }
+
+    @Override
+    public void parseStarted() {
+    }
+
+    @Override
+    public void parseCompleted(long nanos) {
+    }
+
+    @Override
+    public void serializeStarted() {
+    }
+
+    @Override
+    public void serializeCompleted(long bytes, long nanos) {
+    }
+    
+    private static class Registration extends WeakReference<Thread> {
+        
+        private final ElementProfile profile;
+        
+        Registration(Thread thread, ElementProfile profile) {
+            super(thread);
+            this.profile = profile;
+        }
+    }
+    
+}
@@ -32,12 +32,14 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
 import org.jruby.ext.krypt.asn1.GenericAsn1;
 import org.jruby.ext.krypt.asn1.Header;
 import org.jruby.ext.krypt.asn1.ParsedHeader;
 import org.jruby.ext.krypt.asn1.Parser;
 import org.jruby.ext.krypt.asn1.ParserFactory;
 import org.jruby.ext.krypt.asn1.Primitive;
+import org.jruby.ext.krypt.asn1.TagClass;
 import org.jruby.ext.krypt.asn1.Tags;
 
 
@@ -48,48 +50,96 @@ import org.jruby.ext.krypt.asn1.Tags;
 public class Asn1Parser {
     
     private final ParserFactory parserFactory;
+    private final boolean captureEncoding;
     
     public Asn1Parser(ParserFactory parser) {
+        this(parser, false);
+    }
+    
+    /**
+     * @param captureEncoding if true, parsed values keep their exact encoding
+     * and implement RawEncoded. The encoding of the whole top-level value is
+     * held in memory in addition to the parsed values.
+     */
+    public Asn1Parser(ParserFactory parser, boolean captureEncoding) {
 	if (parser == null) throw new NullPointerException();
 	
         this.parserFactory = parser;
+        this.captureEncoding = captureEncoding;
     }
     
     public Asn1 parse(InputStream in) {
 	if (in == null) throw new NullPointerException();
 	
+        Asn1Metrics metrics = parserFactory.getMetrics();
+        long t0 = 0;
+        if (metrics != null) {
+            metrics.parseStarted();
+            t0 = System.nanoTime();
+        }
         Parser hp = parserFactory.newHeaderParser();
+        if (captureEncoding)
+            in = new RecordingInputStream(in);
         ParsedHeader h = hp.next(in);
         if (h == null)
             return null;
-        return parse(hp, h, in);
+        Asn1 asn = parse(hp, h, in, 0, 0);
+        if (metrics != null)
+            metrics.parseCompleted(System.nanoTime() - t0);
+        return asn;
+    }
+    
+    private Asn1 parse(Parser hp, ParsedHeader h, InputStream in, int start, int depth) {
+        Asn1Metrics metrics = parserFactory.getMetrics();
+        if (metrics == null)
+            return parseElement(hp, h, in, start, depth);
+        
+        long t0 = System.nanoTime();
+        metrics.depthReached(depth);
+        Asn1 asn = parseElement(hp, h, in, start, depth);
+        metrics.elementParsed(h, System.nanoTime() - t0);
+        return asn;
     }
     
-    private Asn1 parse(Parser hp, ParsedHeader h, InputStream in) {
+    private Asn1 parseElement(Parser hp, ParsedHeader h, InputStream in, int start, int depth) {
         if (h.isConstructed())
-            return parseConstructed(hp, h, in);
+            return parseConstructed(hp, h, in, start, depth);
         else
-            return parsePrimitive(h);
+            return parsePrimitive(h, in, start);
     }
     
-    private Primitive parsePrimitive(ParsedHeader h) {
+    private Primitive parsePrimitive(ParsedHeader h, InputStream in, int start) {
         Header impl = GenericAsn1.headerFor(h.getParsedTag(), h.getParsedLength());
-        return new ParsedPrimitive(impl, h.getValue());
+        byte[] value = h.getValue();
+        if (in instanceof RecordingInputStream) {
+            RecordingInputStream rec = (RecordingInputStream)in;
+            return new CapturedPrimitive(impl, value, rec, start, rec.position() - start);
+        }
+        return new ParsedPrimitive(impl, value);
     }
     
-    private ParsedConstructed parseConstructed(Parser hp, ParsedHeader h, InputStream in) {
+    private ParsedConstructed parseConstructed(Parser hp, ParsedHeader h, InputStream in, int start, int depth) {
+        List<Asn1> contents;
         if (h.isInfiniteLength())
-            return parseInfiniteConstructed(hp, h, in);
+            contents = parseInfiniteConstructed(hp, h, in, depth + 1);
 	else
-	    return parseDefiniteConstructed(hp, h, in);
+	    contents = parseDefiniteConstructed(hp, h, in, depth + 1);
+        
+        Header impl = GenericAsn1.headerFor(h.getParsedTag(), h.getParsedLength());
+        if (in instanceof RecordingInputStream) {
+            RecordingInputStream rec = (RecordingInputStream)in;
+            return new CapturedConstructed(impl, contents, rec, start, rec.position() - start);
+        }
+        return new ParsedConstructed(impl, contents);
     }
 
-    private ParsedConstructed parseDefiniteConstructed(Parser hp, ParsedHeader h, InputStream in) {
+    private List<Asn1> parseDefiniteConstructed(Parser hp, ParsedHeader h, InputStream in, int depth) {
 	List<Asn1> contents = new ArrayList<Asn1>();
-	int len = h.getLength(), curLen = 0;
+	int len = h.getLength(), curLen = 0, start;
         ParsedHeader nested;
 
         while (curLen != len) {
+            start = position(in);
 	    nested = hp.next(in);
             if (Integer.MAX_VALUE - nested.getHeaderLength() - curLen < nested.getLength())
                 throw new ParseException("Constructed sequence is too long.");
@@ -97,29 +147,36 @@ public class Asn1Parser {
             if (curLen > len)
                 throw new ParseException("Malformed encoding. Single lengths of "+
                                          "constructed value do not add up to total value");
-            contents.add(parse(hp, nested, in));
+            contents.add(parse(hp, nested, in, start, depth));
         }
-
-        Header impl = GenericAsn1.headerFor(h.getParsedTag(), h.getParsedLength());
-        return new ParsedConstructed(impl, contents);
+        return contents;
     }
 
-    private ParsedConstructed parseInfiniteConstructed(Parser hp, ParsedHeader h, InputStream in) {
+    private List<Asn1> parseInfiniteConstructed(Parser hp, ParsedHeader h, InputStream in, int depth) {
         List<Asn1> contents = new ArrayList<Asn1>();
 	boolean parsedEof = false;
+        int start;
         ParsedHeader nested;
 
         while (!parsedEof) {
+            start = position(in);
 	    nested = hp.next(in);
-            contents.add(parse(hp, nested, in));
-            if (nested.getTag() == Tags.END_OF_CONTENTS) {
+            contents.add(parse(hp, nested, in, start, depth));
+            if (nested.getTag() == Tags.END_OF_CONTENTS && 
+                nested.getTagClass() == TagClass.UNIVERSAL &&
+                !nested.isConstructed()) {
                 if (nested.getLength() != 0)
                     throw new ParseException("EOF tag with length > 0 found.");
                 parsedEof = true;
             }
         }
-        Header impl = GenericAsn1.headerFor(h.getParsedTag(), h.getParsedLength());
-        return new ParsedConstructed(impl, contents);
+        return contents;
+    }
+    
+    private static int position(InputStream in) {
+        if (in instanceof RecordingInputStream)
+            return ((RecordingInputStream)in).position();
+        return 0;
     }
 
 }
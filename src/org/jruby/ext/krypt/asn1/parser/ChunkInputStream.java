@@ -31,6 +31,7 @@ import org.jruby.ext.krypt.asn1.ParseException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
 import org.jruby.ext.krypt.asn1.ParsedHeader;
 import org.jruby.ext.krypt.asn1.Parser;
 import org.jruby.ext.krypt.asn1.Tags;
@@ -42,6 +43,8 @@ import org.jruby.ext.krypt.asn1.Tags;
  */
 class ChunkInputStream extends FilterInputStream {
 
+    private static final int SKIP_BUFFER_SIZE = 8192;
+    
     private static enum State {
         NEW_HEADER,
         PROCESS_TAG,
@@ -52,17 +55,26 @@ class ChunkInputStream extends FilterInputStream {
     
     private final Parser parser;
     private final boolean valuesOnly;
+    private final Asn1Metrics metrics;
     
     private ParsedHeader currentHeader;
+    private byte[] tagEncoding;
+    private byte[] lengthEncoding;
     private int headerOffset;
     private State state;
+    private byte[] skipBuffer;
     
     ChunkInputStream(InputStream in, Parser parser, boolean valuesOnly) {
+        this(in, parser, valuesOnly, null);
+    }
+    
+    ChunkInputStream(InputStream in, Parser parser, boolean valuesOnly, Asn1Metrics metrics) {
         super(in);
         if (parser == null) throw new NullPointerException();
         
         this.parser = parser;
         this.valuesOnly = valuesOnly;
+        this.metrics = metrics;
         this.headerOffset = 0;
         this.state = State.NEW_HEADER;
     }
@@ -81,18 +93,36 @@ class ChunkInputStream extends FilterInputStream {
         return readMultipleBytes(b, off, len);
     }
     
+    /* the chunks have to be parsed, so skipping means reading */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || State.DONE == state)
+            return 0;
+        if (skipBuffer == null)
+            skipBuffer = new byte[SKIP_BUFFER_SIZE];
+        int read = readMultipleBytes(skipBuffer, 0, (int)Math.min(n, skipBuffer.length));
+        return read == -1 ? 0 : read;
+    }
+    
+    /* chunk values are counted by the stream wrapping this one already */
+    private InputStream chunkValue() {
+        if (currentHeader instanceof ParsedHeaderImpl)
+            return ((ParsedHeaderImpl)currentHeader).rawValueStream(valuesOnly);
+        return currentHeader.getValueStream(valuesOnly);
+    }
+    
     private int readSingleByte() throws IOException {
         switch (state) {
             case NEW_HEADER: 
                 readNewHeader(); //fallthrough
             case PROCESS_TAG: {
-                int b = readSingleHeaderByte(currentHeader.getParsedTag().getEncoding(),
+                int b = readSingleHeaderByte(tagEncoding,
                                             State.PROCESS_LENGTH);
                 if (!valuesOnly)
                     return b;
             }
             case PROCESS_LENGTH: {
-                int b = readSingleHeaderByte(currentHeader.getParsedLength().getEncoding(),
+                int b = readSingleHeaderByte(lengthEncoding,
                                               State.PROCESS_VALUE);
                 checkDone();
                 if (!valuesOnly)
@@ -126,7 +156,7 @@ class ChunkInputStream extends FilterInputStream {
     }
     
     private int readSingleValueByte() throws IOException {
-        int b = currentHeader.getValueStream(valuesOnly).read();
+        int b = chunkValue().read();
         if (b == -1) {
             state = State.NEW_HEADER;
             b = readSingleByte();
@@ -137,11 +167,11 @@ class ChunkInputStream extends FilterInputStream {
     private int readMultipleBytes(byte[] b, int off, int len) throws IOException {
         int read, totalRead = 0;
         while (totalRead != len && state != State.DONE) {
-            read = readMultipleBytesSingleElement(b, off, len);
+            read = readMultipleBytesSingleElement(b, off, len - totalRead);
             totalRead += read;
             off += read;
         }
-        return totalRead;
+        return totalRead == 0 && len != 0 ? -1 : totalRead;
     }
     
     private int readMultipleBytesSingleElement(byte[] b, int off, int len) throws IOException {
@@ -151,30 +181,36 @@ class ChunkInputStream extends FilterInputStream {
             case NEW_HEADER: 
                 readNewHeader(); //fallthrough
             case PROCESS_TAG: {
-                read = readHeaderBytes(currentHeader.getParsedTag().getEncoding(),
+                read = readHeaderBytes(tagEncoding,
                                        State.PROCESS_LENGTH, b, off, len);
                 if (!valuesOnly) {
                     totalRead += read;
-                    if (totalRead == len)
+                    if (totalRead == len || state == State.PROCESS_TAG)
                         return totalRead;
                     off += read;
                 }
+                else if (state == State.PROCESS_TAG) {
+                    return 0;
+                }
             } //fallthrough
             case PROCESS_LENGTH: {
-                read = readHeaderBytes(currentHeader.getParsedLength().getEncoding(),
-                                           State.PROCESS_VALUE, b, off, len);
+                read = readHeaderBytes(lengthEncoding,
+                                           State.PROCESS_VALUE, b, off, len - totalRead);
                 
                 checkDone();
                 
                 if (!valuesOnly) {
                     totalRead += read;
-                    if (totalRead == len || state == State.DONE)
+                    if (totalRead == len || state != State.PROCESS_VALUE)
                         return totalRead;
                     off += read;
                 }
+                else if (state != State.PROCESS_VALUE) {
+                    return 0;
+                }
             } //fallthrough
             case PROCESS_VALUE:
-                totalRead += readValueBytes(b, off, len);
+                totalRead += readValueBytes(b, off, len - totalRead);
                 return totalRead;
             default:
                 throw new UnsupportedOperationException(state.name());
@@ -189,22 +225,22 @@ class ChunkInputStream extends FilterInputStream {
         int toRead;
         int available = headerPart.length - headerOffset;
         
-        if (len < available) {
-            headerOffset += len;
-            toRead = len;
+        toRead = len < available ? len : available;
+        if (!valuesOnly)
+            System.arraycopy(headerPart, headerOffset, b, off, toRead);
+        
+        if (toRead < available) {
+            headerOffset += toRead;
         }
         else {
             state = nextState;
             headerOffset = 0;
-            toRead = available;
         }
-        
-        System.arraycopy(headerPart, headerOffset, b, off, toRead);
         return toRead;
     }
     
     private int readValueBytes(byte[] b, int off, int len) throws IOException {
-        int read = currentHeader.getValueStream(valuesOnly).read(b, off, len);
+        int read = chunkValue().read(b, off, len);
         if (read == -1) {
             if (state != State.DONE)
                 state = State.NEW_HEADER;
@@ -217,6 +253,10 @@ class ChunkInputStream extends FilterInputStream {
         currentHeader = parser.next(in);
         if (currentHeader == null)
             throw new ParseException("Premature EOF detected.");
+        if (metrics != null)
+            metrics.chunkParsed(currentHeader);
+        tagEncoding = currentHeader.getParsedTag().getEncoding();
+        lengthEncoding = currentHeader.getParsedLength().getEncoding();
         state = State.PROCESS_TAG;
         headerOffset = 0;
     }
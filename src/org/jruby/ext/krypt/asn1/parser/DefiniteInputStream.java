@@ -57,12 +57,27 @@ class DefiniteInputStream extends FilterInputStream {
         return b;
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || read == length)
+            return 0;
+        
+        long toSkip = Math.min(n, length - read);
+        //streams like FileInputStream happily skip past the end, so leave
+        //the last byte to a read that proves the skipped range existed
+        long skipped = toSkip > 1 ? Math.max(super.skip(toSkip - 1), 0) : 0;
+        if (super.read() == -1)
+            throw new ParseException("Premature end of value detected.");
+        skipped++;
+        read += skipped;
+        return skipped;
+    }
+
     @Override
     public void close() throws IOException {
         //do nothing
     }
     
-    
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
@@ -0,0 +1,281 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.ParsedHeader;
+import org.jruby.ext.krypt.asn1.Parser;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+
+
+/**
+ * Feeds the raw encoding (tag, length and value bytes) of selected values
+ * into MessageDigests while they are being parsed, so no second pass over
+ * the data is needed to hash them. Values are selected either by their
+ * path, the indices of the value and its ancestors starting at the top
+ * level (e.g. { 0, 0 } for the TBSCertificate of a certificate), or by
+ * depth, in which case all values at that depth are fed into the same
+ * digests in order.
+ * 
+ * Unlike PullHeaderParser, a DigestingParser keeps track of the structure
+ * of the input and can therefore only be used for a single InputStream.
+ * Its values must be consumed through this parser, in particular the 
+ * value stream of an infinite length constructed value must not be read
+ * or skipped as a whole.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class DigestingParser implements Parser {
+    
+    private final Parser parser;
+    private final List<Target> targets = new ArrayList<Target>();
+    private final List<Frame> frames = new ArrayList<Frame>();
+    
+    private InputStream source;
+    private TeeInputStream tee;
+    private int[] path = new int[8];
+    private int numTopLevel = 0;
+    
+    public DigestingParser() {
+        this(new PullHeaderParser());
+    }
+    
+    public DigestingParser(Parser parser) {
+        if (parser == null) throw new NullPointerException();
+        this.parser = parser;
+    }
+    
+    public void digestPath(int[] path, MessageDigest... digests) {
+        if (path == null) throw new NullPointerException();
+        if (path.length == 0) throw new IllegalArgumentException("Path must not be empty");
+        targets.add(new Target(path.clone(), -1, digests));
+    }
+    
+    public void digestDepth(int depth, MessageDigest... digests) {
+        if (depth < 0) throw new IllegalArgumentException("Depth must be positive");
+        targets.add(new Target(null, depth, digests));
+    }
+
+    @Override
+    public ParsedHeader next(InputStream in) {
+        if (in == null) throw new NullPointerException();
+        if (source == null) {
+            source = in;
+            tee = new TeeInputStream(in);
+        }
+        else if (in != source) {
+            throw new IllegalArgumentException("DigestingParser is bound to a single stream");
+        }
+        
+        closeFinishedFrames();
+        ParsedHeader h = parser.next(tee);
+        if (h == null) {
+            if (!frames.isEmpty())
+                throw new ParseException("Premature EOF detected.");
+            return null;
+        }
+        
+        if (isEndOfContents(h) && !frames.isEmpty() && frames.get(frames.size() - 1).end == -1) {
+            closeFrame();
+            return h;
+        }
+        
+        int depth = frames.size();
+        int index = depth == 0 ? numTopLevel++ : frames.get(depth - 1).numChildren++;
+        if (depth == path.length)
+            path = Arrays.copyOf(path, path.length * 2);
+        path[depth] = index;
+        
+        Frame frame = null;
+        if (h.isConstructed()) {
+            frame = new Frame(h.isInfiniteLength() ? -1 : tee.position + h.getLength());
+            frames.add(frame);
+        }
+        
+        for (Target target : targets) {
+            if (target.matches(path, depth))
+                activate(target, h, frame);
+        }
+        return h;
+    }
+    
+    private void activate(Target target, ParsedHeader h, Frame frame) {
+        byte[] tag = h.getParsedTag().getEncoding();
+        byte[] length = h.getParsedLength().getEncoding();
+        for (MessageDigest digest : target.digests) {
+            digest.update(tag);
+            digest.update(length);
+        }
+        
+        Active active = new Active(target.digests, h.isInfiniteLength() ? Long.MAX_VALUE : tee.position + h.getLength());
+        tee.active.add(active);
+        if (h.isInfiniteLength())
+            frame.actives.add(active);
+    }
+    
+    private void closeFinishedFrames() {
+        Frame top;
+        while (!frames.isEmpty() && 
+               (top = frames.get(frames.size() - 1)).end != -1 && 
+               tee.position >= top.end) {
+            closeFrame();
+        }
+    }
+    
+    private void closeFrame() {
+        Frame frame = frames.remove(frames.size() - 1);
+        tee.active.removeAll(frame.actives);
+    }
+    
+    private static boolean isEndOfContents(ParsedHeader h) {
+        return h.getTag() == Tags.END_OF_CONTENTS && 
+               h.getTagClass() == TagClass.UNIVERSAL && 
+               !h.isConstructed();
+    }
+    
+    private static class Target {
+        final int[] path;
+        final int depth;
+        final MessageDigest[] digests;
+        
+        Target(int[] path, int depth, MessageDigest[] digests) {
+            if (digests == null) throw new NullPointerException();
+            this.path = path;
+            this.depth = depth;
+            this.digests = digests;
+        }
+        
+        boolean matches(int[] current, int currentDepth) {
+            if (path == null)
+                return depth == currentDepth;
+            if (path.length != currentDepth + 1)
+                return false;
+            for (int i = 0; i <= currentDepth; i++) {
+                if (path[i] != current[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+    
+    private static class Frame {
+        final long end; //-1 for infinite length
+        final List<Active> actives = new ArrayList<Active>(1);
+        int numChildren = 0;
+        
+        Frame(long end) {
+            this.end = end;
+        }
+    }
+    
+    private static class Active {
+        final MessageDigest[] digests;
+        final long end;
+        
+        Active(MessageDigest[] digests, long end) {
+            this.digests = digests;
+            this.end = end;
+        }
+    }
+    
+    private static class TeeInputStream extends FilterInputStream {
+        
+        private final List<Active> active = new ArrayList<Active>();
+        private long position = 0;
+        
+        TeeInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                for (Iterator<Active> iter = active.iterator(); iter.hasNext(); ) {
+                    Active a = iter.next();
+                    if (position < a.end) {
+                        for (MessageDigest digest : a.digests) {
+                            digest.update((byte)b);
+                        }
+                    }
+                    if (position + 1 >= a.end)
+                        iter.remove();
+                }
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                for (Iterator<Active> iter = active.iterator(); iter.hasNext(); ) {
+                    Active a = iter.next();
+                    int toDigest = (int)Math.min(read, a.end - position);
+                    if (toDigest > 0) {
+                        for (MessageDigest digest : a.digests) {
+                            digest.update(b, off, toDigest);
+                        }
+                    }
+                    if (position + read >= a.end)
+                        iter.remove();
+                }
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //skipped bytes must be digested, too
+            byte[] tmp = new byte[(int)Math.min(n, 8192)];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(tmp, 0, (int)Math.min(n - skipped, tmp.length))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+    
+}
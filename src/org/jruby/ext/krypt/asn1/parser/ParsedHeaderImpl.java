@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
 import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
 import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
 import org.jruby.ext.krypt.asn1.ParsedHeader;
@@ -51,6 +52,7 @@ class ParsedHeaderImpl implements ParsedHeader {
     private final PullHeaderParser parser;
     
     private InputStream valueStream;
+    private InputStream countingStream;
 
     ParsedHeaderImpl(Tag tag, 
                      Length length, 
@@ -69,20 +71,44 @@ class ParsedHeaderImpl implements ParsedHeader {
 
     @Override
     public void skipValue() {
-	getValue();
+        InputStream stream = rawValueStream(false);
+        long skipped = 0, n;
+        try {
+            while ((n = stream.skip(Long.MAX_VALUE)) > 0)
+                skipped += n;
+        }
+        catch (IOException ex) {
+            throw new ParseException(ex);
+        }
+        Asn1Metrics metrics = parser.getMetrics();
+        if (metrics != null)
+            metrics.valueBytesSkipped(skipped);
     }
 
     @Override
     public byte[] getValue() {
-	byte[] ret = consume(getValueStream(false));
+	byte[] ret = consume(rawValueStream(false));
+        Asn1Metrics metrics = parser.getMetrics();
+        if (metrics != null)
+            metrics.valueBytesCopied(ret.length);
         return ret.length == 0 ? null : ret;
     }
 
     @Override
     public InputStream getValueStream(boolean valuesOnly) {
+        InputStream stream = rawValueStream(valuesOnly);
+        Asn1Metrics metrics = parser.getMetrics();
+        if (metrics == null)
+            return stream;
+        if (countingStream == null)
+            countingStream = new CountingInputStream(stream, metrics);
+        return countingStream;
+    }
+    
+    InputStream rawValueStream(boolean valuesOnly) {
         if (valueStream == null) {
             if (length.isInfiniteLength())
-                valueStream = new ChunkInputStream(in, parser, valuesOnly);
+                valueStream = new ChunkInputStream(in, parser, valuesOnly, parser.getMetrics());
             else
                 valueStream = new DefiniteInputStream(in, length.getLength());
         }
@@ -134,18 +160,13 @@ class ParsedHeaderImpl implements ParsedHeader {
 
     @Override
     public int getHeaderLength() {
-	return tag.getEncoding().length + length.getEncoding().length;
+	return tag.getEncodingLength() + length.getEncodingLength();
     }
 
     @Override
     public void encodeTo(OutputStream out) {
-	try {
-            out.write(tag.getEncoding());
-            out.write(length.getEncoding());
-        }
-        catch (IOException ex) {
-            throw new SerializationException(ex);
-        }
+        tag.encodeTo(out);
+        length.encodeTo(out);
     }
 
     @Override
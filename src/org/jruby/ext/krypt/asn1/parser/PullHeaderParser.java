@@ -31,6 +31,7 @@ import org.jruby.ext.krypt.asn1.ParseException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import org.jruby.ext.krypt.asn1.Asn1Metrics;
 import org.jruby.ext.krypt.asn1.GenericAsn1.Length;
 import org.jruby.ext.krypt.asn1.GenericAsn1.Tag;
 import org.jruby.ext.krypt.asn1.Header;
@@ -47,7 +48,19 @@ public class PullHeaderParser implements Parser {
 
     private static final int INT_BYTE_LEN = Integer.SIZE / 8;
     
-    public PullHeaderParser() { }
+    private final Asn1Metrics metrics;
+    
+    public PullHeaderParser() { 
+        this(null);
+    }
+    
+    public PullHeaderParser(Asn1Metrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    Asn1Metrics getMetrics() {
+        return metrics;
+    }
     
     @Override
     public ParsedHeader next(InputStream in) {
@@ -59,7 +72,10 @@ public class PullHeaderParser implements Parser {
         byte b = (byte)read;
         Tag tag = parseTag(b, in);
 	Length length = parseLength(in);
-	return new ParsedHeaderImpl(tag, length, in, this);
+        ParsedHeader h = new ParsedHeaderImpl(tag, length, in, this);
+        if (metrics != null)
+            metrics.headerParsed(h);
+	return h;
     }
     
     private byte nextByte(InputStream in) {
@@ -93,7 +109,7 @@ public class PullHeaderParser implements Parser {
         int tag = b & Header.COMPLEX_TAG_MASK;
         boolean isConstructed = matchMask(b, Header.CONSTRUCTED_MASK);
         TagClass tc = TagClass.of((byte)(b & TagClass.PRIVATE.getMask()));
-        return new Tag(tag, tc, isConstructed, new byte[] { b });
+        return new Tag(tag, tc, isConstructed);
     }
     
     private Tag parseComplexTag(byte b, InputStream in) {
@@ -126,11 +142,11 @@ public class PullHeaderParser implements Parser {
 	byte b = nextByte(in);
 	
         if (b == Header.INFINITE_LENGTH_MASK)
-            return new Length(-1, true, new byte[] { b });
+            return new Length(-1, true);
         else if (matchMask(b, Header.INFINITE_LENGTH_MASK))
             return parseComplexDefiniteLength(b, in);
         else
-            return new Length(b & 0xff, false, new byte[] { b });
+            return new Length(b & 0xff, false);
     }
     
     private Length parseComplexDefiniteLength(byte b, InputStream in) {
@@ -0,0 +1,115 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.SerializationException;
+
+
+/**
+ * Keeps a copy of every byte read from the underlying stream, so that
+ * ranges of it can be written again later on.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+class RecordingInputStream extends FilterInputStream {
+    
+    private byte[] buf = new byte[8192];
+    private int count = 0;
+    
+    RecordingInputStream(InputStream in) {
+        super(in);
+    }
+    
+    int position() {
+        return count;
+    }
+    
+    void writeTo(OutputStream out, int off, int len) {
+        try {
+            out.write(buf, off, len);
+        }
+        catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            ensureCapacity(1);
+            buf[count++] = (byte)b;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            ensureCapacity(read);
+            System.arraycopy(b, off, buf, count, read);
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //skipped bytes must be recorded, too
+        byte[] tmp = new byte[(int)Math.min(n, 8192)];
+        long skipped = 0;
+        int read;
+        while (skipped < n && (read = read(tmp, 0, (int)Math.min(n - skipped, tmp.length))) != -1) {
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    private void ensureCapacity(int additional) {
+        if (Integer.MAX_VALUE - count < additional)
+            throw new ParseException("Encoding too long to be captured.");
+        int needed = count + additional;
+        if (needed > buf.length) {
+            int newLength = Math.max(needed, buf.length > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : buf.length * 2);
+            buf = Arrays.copyOf(buf, newLength);
+        }
+    }
+    
+}
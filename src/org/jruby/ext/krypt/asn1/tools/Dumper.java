@@ -0,0 +1,344 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.tools;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.ParsedHeader;
+import org.jruby.ext.krypt.asn1.Parser;
+import org.jruby.ext.krypt.asn1.ParserFactory;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.jruby.ext.krypt.asn1.decode.Asn1String;
+import org.jruby.ext.krypt.asn1.decode.ObjectIdentifier;
+
+
+/**
+ * Prints one line per element in the style of OpenSSL's asn1parse:
+ * 
+ * <pre>
+ *        0:d=0  hl=4  l=   829 cons: SEQUENCE
+ *        4:d=1  hl=4  l=   549 cons:  SEQUENCE
+ *        8:d=2  hl=2  l=     3 cons:   cont [ 0 ]
+ *       10:d=3  hl=2  l=     1 prim:    INTEGER           :02
+ * </pre>
+ * 
+ * The input is read with the pull parser, so memory use only depends on
+ * the nesting depth and the preview size, not on the size of values or
+ * of the whole input. Values that are not printed are skipped, which 
+ * seeks if the underlying stream supports it. Output can be restricted 
+ * to a maximum depth and to an offset range; elements that end before 
+ * the range are skipped entirely.
+ * 
+ * Command line usage:
+ * 
+ * <pre>
+ * java -cp asn1pull-java.jar org.jruby.ext.krypt.asn1.tools.Dumper \
+ *      [-d depth] [-s start] [-e end] [-w preview] [file|-]
+ * </pre>
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class Dumper {
+    
+    public static final int DEFAULT_PREVIEW = 32;
+    
+    private static final String USAGE =
+        "Usage: Dumper [options] [file|-]\n" +
+        "  -d, --depth N          do not print elements nested deeper than N\n" +
+        "  -s, --start OFFSET     only print elements starting at or after OFFSET\n" +
+        "  -e, --end OFFSET       stop at the first element starting at or after OFFSET\n" +
+        "  -w, --preview N        print at most N bytes of each value, default " + DEFAULT_PREVIEW + "\n" +
+        "Reads stdin if no file or - is given.\n";
+    
+    private static final long INFINITE = -1;
+    
+    private final Appendable out;
+    private final Parser parser = new ParserFactory().newHeaderParser();
+    private int maxDepth = Integer.MAX_VALUE;
+    private long start = 0, end = Long.MAX_VALUE;
+    private byte[] preview = new byte[DEFAULT_PREVIEW];
+    
+    public Dumper(Appendable out) {
+        if (out == null) throw new NullPointerException();
+        
+        this.out = out;
+    }
+    
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) throw new IllegalArgumentException("Depth must not be negative");
+        this.maxDepth = maxDepth;
+    }
+    
+    /**
+     * @param start offset of the first element to print
+     * @param end elements starting at or after end are not read at all
+     */
+    public void setRange(long start, long end) {
+        if (start < 0 || end < start) throw new IllegalArgumentException("Invalid range " + start + "-" + end);
+        this.start = start;
+        this.end = end;
+    }
+    
+    public void setPreview(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Preview must not be negative");
+        this.preview = new byte[bytes];
+    }
+    
+    /**
+     * Dumps all top-level values in the stream.
+     * 
+     * @return the number of elements printed
+     * @throws ParseException if the input is malformed. The message 
+     * contains the offset of the offending element.
+     */
+    public long dump(InputStream in) throws IOException {
+        if (in == null) throw new NullPointerException();
+        
+        PositionInputStream pin = new PositionInputStream(in);
+        long[] ends = new long[16];
+        int depth = 0;
+        long printed = 0, offset = 0;
+        
+        try {
+            while (true) {
+                offset = pin.position();
+                while (depth > 0 && ends[depth - 1] != INFINITE && offset >= ends[depth - 1])
+                    depth--;
+                if (offset >= end)
+                    break;
+                
+                ParsedHeader h = parser.next(pin);
+                if (h == null)
+                    break;
+                boolean visible = offset >= start;
+                
+                if (depth > 0 && ends[depth - 1] == INFINITE && TagNames.isEndOfContents(h)) {
+                    if (visible) {
+                        printLine(offset, depth, h, null);
+                        printed++;
+                    }
+                    depth--;
+                    continue;
+                }
+                
+                long elementEnd = h.isInfiniteLength() ? INFINITE : offset + h.getHeaderLength() + h.getLength();
+                if (!visible && elementEnd != INFINITE && elementEnd <= start) {
+                    h.skipValue();
+                    continue;
+                }
+                
+                if (visible) {
+                    printLine(offset, depth, h, h.isConstructed() ? null : preview(h));
+                    printed++;
+                }
+                
+                if (!h.isConstructed() || depth >= maxDepth) {
+                    h.skipValue();
+                }
+                else {
+                    if (depth == ends.length)
+                        ends = Arrays.copyOf(ends, depth * 2);
+                    ends[depth++] = elementEnd;
+                }
+            }
+        }
+        catch (ParseException ex) {
+            throw new ParseException("Offset " + offset + ": " + ex.getMessage(), ex);
+        }
+        return printed;
+    }
+    
+    private void printLine(long offset, int depth, ParsedHeader h, String value) throws IOException {
+        String length = h.isInfiniteLength() ? "inf" : String.valueOf(h.getLength());
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%8d:d=%-2d hl=%-2d l=%6s %s: ", 
+                                offset, depth, h.getHeaderLength(), length, 
+                                h.isConstructed() ? "cons" : "prim"));
+        for (int i = 0; i < depth; i++)
+            sb.append(' ');
+        String name = TagNames.name(h.getTagClass(), h.getTag());
+        if (value != null && value.length() > 0)
+            sb.append(String.format(Locale.ROOT, "%-18s", name)).append(':').append(value);
+        else
+            sb.append(name);
+        out.append(sb).append('\n');
+    }
+    
+    /* reads at most preview.length bytes, the rest is skipped by the caller */
+    private String preview(ParsedHeader h) throws IOException {
+        if (preview.length == 0 || h.isInfiniteLength() || h.getLength() == 0)
+            return null;
+        
+        int len = Math.min(h.getLength(), preview.length);
+        InputStream value = h.getValueStream(false);
+        int read = 0, n;
+        while (read < len && (n = value.read(preview, read, len - read)) != -1)
+            read += n;
+        boolean complete = read == h.getLength();
+        
+        String s = null;
+        if (h.getTagClass() == TagClass.UNIVERSAL)
+            s = format(h.getTag(), read, complete);
+        if (s == null)
+            s = hex(read);
+        return complete ? s : s + "...";
+    }
+    
+    private String format(int tag, int len, boolean complete) {
+        try {
+            switch (tag) {
+                case Tags.OBJECT_IDENTIFIER:
+                    return complete ? ObjectIdentifier.decodeUncached(preview, 0, len).toString() : null;
+                case Tags.UTF8_STRING:
+                case Tags.BMP_STRING:
+                    return complete ? Asn1String.view(tag, preview, 0, len).toString() : null;
+                case Tags.NUMERIC_STRING:
+                case Tags.PRINTABLE_STRING:
+                case Tags.T61_STRING:
+                case Tags.IA5_STRING:
+                case Tags.UTC_TIME:
+                case Tags.GENERALIZED_TIME:
+                case Tags.ISO64_STRING:
+                case Tags.GENERAL_STRING:
+                    return ascii(len);
+                default:
+                    return null;
+            }
+        }
+        catch (ParseException ex) {
+            return null;
+        }
+    }
+    
+    private String ascii(int len) {
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            int b = preview[i] & 0xff;
+            chars[i] = b >= 0x20 && b < 0x7f ? (char)b : '.';
+        }
+        return new String(chars);
+    }
+    
+    private String hex(int len) {
+        char[] chars = new char[len * 2];
+        for (int i = 0; i < len; i++) {
+            chars[2 * i] = HEX[(preview[i] >> 4) & 0x0f];
+            chars[2 * i + 1] = HEX[preview[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+    
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+    
+    /**
+     * @return the exit code, 0 on success, 1 on malformed input or I/O
+     * errors and 2 on usage errors
+     */
+    public static int run(String[] args, InputStream stdin, PrintStream out, PrintStream err) {
+        Dumper dumper = new Dumper(out);
+        long start = 0, end = Long.MAX_VALUE;
+        String path = null;
+        
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-d".equals(arg) || "--depth".equals(arg))
+                    dumper.setMaxDepth(Integer.parseInt(value(args, ++i)));
+                else if ("-s".equals(arg) || "--start".equals(arg))
+                    start = Long.parseLong(value(args, ++i));
+                else if ("-e".equals(arg) || "--end".equals(arg))
+                    end = Long.parseLong(value(args, ++i));
+                else if ("-w".equals(arg) || "--preview".equals(arg))
+                    dumper.setPreview(Integer.parseInt(value(args, ++i)));
+                else if ("-h".equals(arg) || "--help".equals(arg)) {
+                    out.print(USAGE);
+                    return 0;
+                }
+                else if (arg.startsWith("-") && arg.length() > 1)
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                else if (path != null)
+                    throw new IllegalArgumentException("Only one input is supported");
+                else
+                    path = arg;
+            }
+            dumper.setRange(start, end);
+        }
+        catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.print(USAGE);
+            return 2;
+        }
+        
+        InputStream in = null;
+        try {
+            if (path == null || "-".equals(path))
+                in = new BufferedInputStream(stdin);
+            else
+                in = new BufferedInputStream(new FileInputStream(path), 64 * 1024);
+            dumper.dump(in);
+            return 0;
+        }
+        catch (IOException ex) {
+            err.println(ex.getMessage());
+            return 1;
+        }
+        catch (ParseException ex) {
+            err.println(ex.getMessage());
+            return 1;
+        }
+        finally {
+            out.flush();
+            if (in != null && in != stdin) {
+                try {
+                    in.close();
+                }
+                catch (IOException ex) {
+                    //ignore
+                }
+            }
+        }
+    }
+    
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+    
+}
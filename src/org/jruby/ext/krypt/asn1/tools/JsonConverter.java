@@ -0,0 +1,463 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.ParsedHeader;
+import org.jruby.ext.krypt.asn1.Parser;
+import org.jruby.ext.krypt.asn1.ParserFactory;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.jruby.ext.krypt.asn1.decode.Asn1String;
+import org.jruby.ext.krypt.asn1.decode.ObjectIdentifier;
+import org.jruby.ext.krypt.asn1.decode.PrimitiveDecoder;
+import org.jruby.ext.krypt.asn1.decode.TimeDecoder;
+
+
+/**
+ * Converts ASN.1 to JSON while pulling headers, without building a tree.
+ * Every element becomes an object
+ * 
+ * <pre>
+ * {"tag":16,"class":"UNIVERSAL","constructed":true,"length":5,"children":[
+ *   {"tag":2,"class":"UNIVERSAL","constructed":false,"length":1,"hex":"05"}, ...]}
+ * </pre>
+ * 
+ * where length is null for indefinite lengths. End-of-contents markers
+ * are not written. Primitive values are written as "hex" or "base64", 
+ * or, in TYPED format, as "value": INTEGER and ENUMERATED as numbers, 
+ * BOOLEAN as true/false, NULL as null, OBJECT IDENTIFIER in dotted 
+ * notation, UTCTime and GeneralizedTime in ISO 8601 and the supported 
+ * string types as strings. Values of other types, values that fail to 
+ * decode and values larger than {@link #TYPED_LIMIT} fall back to "hex".
+ * 
+ * Hex and base64 values are streamed, so memory does not depend on the
+ * size of values or of the document, only on the nesting depth. Top-level
+ * values are written as elements of a JSON array, or one per line in
+ * JSON lines mode.
+ * 
+ * Command line usage:
+ * 
+ * <pre>
+ * java -cp asn1pull-java.jar org.jruby.ext.krypt.asn1.tools.JsonConverter \
+ *      [-f hex|base64|typed] [-l] [file|-]
+ * </pre>
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class JsonConverter {
+    
+    public enum ValueFormat { HEX, BASE64, TYPED }
+    
+    /** Largest value that is decoded in TYPED format */
+    public static final int TYPED_LIMIT = 64 * 1024;
+    
+    private static final String USAGE =
+        "Usage: JsonConverter [options] [file|-]\n" +
+        "  -f, --format FORMAT    value format: hex (default), base64 or typed\n" +
+        "  -l, --lines            write one JSON document per top-level value\n" +
+        "Reads stdin if no file or - is given.\n";
+    
+    private static final long INFINITE = -1;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    
+    private final Writer out;
+    private final Parser parser = new ParserFactory().newHeaderParser();
+    private final byte[] buf = new byte[8190];
+    private final char[] chars = new char[2 * buf.length];
+    private ValueFormat format = ValueFormat.HEX;
+    private boolean jsonLines = false;
+    private byte[] typed;
+    private SimpleDateFormat iso;
+    
+    public JsonConverter(Writer out) {
+        if (out == null) throw new NullPointerException();
+        
+        this.out = out;
+    }
+    
+    public void setValueFormat(ValueFormat format) {
+        if (format == null) throw new NullPointerException();
+        this.format = format;
+    }
+    
+    /**
+     * @param jsonLines if true, each top-level value is written on a line
+     * of its own instead of as an element of a JSON array
+     */
+    public void setJsonLines(boolean jsonLines) {
+        this.jsonLines = jsonLines;
+    }
+    
+    /**
+     * Converts all top-level values in the stream. The writer is flushed
+     * but not closed.
+     * 
+     * @return the number of top-level values
+     * @throws ParseException if the input is malformed. The message 
+     * contains the offset of the offending element.
+     */
+    public long convert(InputStream in) throws IOException {
+        if (in == null) throw new NullPointerException();
+        
+        PositionInputStream pin = new PositionInputStream(in);
+        long[] ends = new long[16];
+        int depth = 0;
+        boolean first = true;
+        long values = 0, offset = 0;
+        
+        if (!jsonLines)
+            out.write('[');
+        try {
+            while (true) {
+                offset = pin.position();
+                while (depth > 0 && ends[depth - 1] != INFINITE && offset >= ends[depth - 1]) {
+                    depth--;
+                    close();
+                    first = false;
+                }
+                
+                ParsedHeader h = parser.next(pin);
+                if (h == null)
+                    break;
+                
+                if (depth > 0 && ends[depth - 1] == INFINITE && TagNames.isEndOfContents(h)) {
+                    depth--;
+                    close();
+                    first = false;
+                    continue;
+                }
+                
+                if (depth == 0)
+                    values++;
+                if (!first)
+                    out.write(depth == 0 && jsonLines ? '\n' : ',');
+                
+                writeHeader(h);
+                if (h.isConstructed()) {
+                    out.write(",\"children\":[");
+                    if (depth == ends.length)
+                        ends = Arrays.copyOf(ends, depth * 2);
+                    ends[depth++] = h.isInfiniteLength() ? INFINITE : offset + h.getHeaderLength() + h.getLength();
+                    first = true;
+                }
+                else {
+                    writeValue(h);
+                    out.write('}');
+                    first = false;
+                }
+            }
+        }
+        catch (ParseException ex) {
+            throw new ParseException("Offset " + offset + ": " + ex.getMessage(), ex);
+        }
+        
+        if (depth > 0)
+            throw new ParseException("Offset " + offset + ": Premature end of input.");
+        if (!jsonLines)
+            out.write(']');
+        if (!jsonLines || values > 0)
+            out.write('\n');
+        out.flush();
+        return values;
+    }
+    
+    private void close() throws IOException {
+        out.write("]}");
+    }
+    
+    private void writeHeader(ParsedHeader h) throws IOException {
+        out.write("{\"tag\":");
+        out.write(String.valueOf(h.getTag()));
+        out.write(",\"class\":\"");
+        out.write(h.getTagClass().name());
+        out.write("\",\"constructed\":");
+        out.write(h.isConstructed() ? "true" : "false");
+        out.write(",\"length\":");
+        out.write(h.isInfiniteLength() ? "null" : String.valueOf(h.getLength()));
+    }
+    
+    private void writeValue(ParsedHeader h) throws IOException {
+        InputStream value = h.getValueStream(true);
+        switch (format) {
+            case BASE64:
+                out.write(",\"base64\":\"");
+                writeBase64(value);
+                out.write('"');
+                break;
+            case TYPED:
+                if (h.getTagClass() == TagClass.UNIVERSAL && 
+                    !h.isInfiniteLength() && h.getLength() <= TYPED_LIMIT)
+                    writeTyped(h.getTag(), value, h.getLength());
+                else
+                    writeHexValue(value);
+                break;
+            default:
+                writeHexValue(value);
+        }
+    }
+    
+    private void writeHexValue(InputStream value) throws IOException {
+        out.write(",\"hex\":\"");
+        writeHex(value);
+        out.write('"');
+    }
+    
+    private void writeHex(InputStream value) throws IOException {
+        int n;
+        while ((n = value.read(buf)) != -1)
+            writeHex(buf, 0, n);
+    }
+    
+    private void writeHex(byte[] b, int off, int len) throws IOException {
+        int c = 0;
+        for (int i = off; i < off + len; i++) {
+            chars[c++] = HEX[(b[i] >> 4) & 0x0f];
+            chars[c++] = HEX[b[i] & 0x0f];
+            if (c == chars.length) {
+                out.write(chars, 0, c);
+                c = 0;
+            }
+        }
+        out.write(chars, 0, c);
+    }
+    
+    private void writeBase64(InputStream value) throws IOException {
+        int carry = 0, n;
+        while ((n = value.read(buf, carry, buf.length - carry)) != -1) {
+            int total = carry + n;
+            int full = total - total % 3;
+            int c = 0;
+            for (int i = 0; i < full; i += 3) {
+                int bits = (buf[i] & 0xff) << 16 | (buf[i + 1] & 0xff) << 8 | (buf[i + 2] & 0xff);
+                chars[c++] = BASE64[bits >>> 18];
+                chars[c++] = BASE64[(bits >>> 12) & 0x3f];
+                chars[c++] = BASE64[(bits >>> 6) & 0x3f];
+                chars[c++] = BASE64[bits & 0x3f];
+            }
+            out.write(chars, 0, c);
+            carry = total - full;
+            System.arraycopy(buf, full, buf, 0, carry);
+        }
+        if (carry > 0) {
+            int bits = (buf[0] & 0xff) << 16 | (carry == 2 ? (buf[1] & 0xff) << 8 : 0);
+            out.write(BASE64[bits >>> 18]);
+            out.write(BASE64[(bits >>> 12) & 0x3f]);
+            out.write(carry == 2 ? BASE64[(bits >>> 6) & 0x3f] : '=');
+            out.write('=');
+        }
+    }
+    
+    /* values that cannot be decoded are written as hex */
+    private void writeTyped(int tag, InputStream value, int len) throws IOException {
+        if (typed == null || typed.length < len)
+            typed = new byte[Math.max(len, 256)];
+        int read = 0, n;
+        while (read < len && (n = value.read(typed, read, len - read)) != -1)
+            read += n;
+        
+        String json = null;
+        try {
+            json = typedJson(tag, typed, len);
+        }
+        catch (ParseException ex) {
+            //not valid for its type
+        }
+        catch (ArithmeticException ex) {
+            //does not fit
+        }
+        if (json == null) {
+            out.write(",\"hex\":\"");
+            writeHex(typed, 0, len);
+            out.write('"');
+        }
+        else {
+            out.write(",\"value\":");
+            out.write(json);
+        }
+    }
+    
+    private String typedJson(int tag, byte[] b, int len) {
+        switch (tag) {
+            case Tags.BOOLEAN:
+                return PrimitiveDecoder.decodeBoolean(b, 0, len).toString();
+            case Tags.INTEGER:
+                return PrimitiveDecoder.decodeInteger(b, 0, len).toString();
+            case Tags.ENUMERATED:
+                return String.valueOf(PrimitiveDecoder.decodeEnumerated(b, 0, len));
+            case Tags.NULL:
+                PrimitiveDecoder.decodeNull(b, 0, len);
+                return "null";
+            case Tags.OBJECT_IDENTIFIER:
+                return quote(ObjectIdentifier.decodeUncached(b, 0, len).toString());
+            case Tags.UTC_TIME:
+                return quote(isoTime(TimeDecoder.decodeUtcTimeMillis(b, 0, len, false)));
+            case Tags.GENERALIZED_TIME:
+                return quote(isoTime(TimeDecoder.decodeGeneralizedTimeMillis(b, 0, len, false)));
+            case Tags.NUMERIC_STRING:
+            case Tags.PRINTABLE_STRING:
+            case Tags.IA5_STRING:
+            case Tags.ISO64_STRING:
+            case Tags.UTF8_STRING:
+            case Tags.BMP_STRING:
+                return quote(Asn1String.view(tag, b, 0, len));
+            default:
+                return null;
+        }
+    }
+    
+    private String isoTime(long millis) {
+        if (iso == null) {
+            iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+            iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+        return iso.format(new Date(millis));
+    }
+    
+    static String quote(CharSequence s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029')
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+    
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+    
+    /**
+     * @return the exit code, 0 on success, 1 on malformed input or I/O
+     * errors and 2 on usage errors
+     */
+    public static int run(String[] args, InputStream stdin, PrintStream out, PrintStream err) {
+        ValueFormat format = ValueFormat.HEX;
+        boolean lines = false;
+        String path = null;
+        
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-f".equals(arg) || "--format".equals(arg)) {
+                    if (++i >= args.length)
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    format = ValueFormat.valueOf(args[i].toUpperCase(Locale.ROOT));
+                }
+                else if ("-l".equals(arg) || "--lines".equals(arg))
+                    lines = true;
+                else if ("-h".equals(arg) || "--help".equals(arg)) {
+                    out.print(USAGE);
+                    return 0;
+                }
+                else if (arg.startsWith("-") && arg.length() > 1)
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                else if (path != null)
+                    throw new IllegalArgumentException("Only one input is supported");
+                else
+                    path = arg;
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.print(USAGE);
+            return 2;
+        }
+        
+        InputStream in = null;
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+            JsonConverter converter = new JsonConverter(writer);
+            converter.setValueFormat(format);
+            converter.setJsonLines(lines);
+            if (path == null || "-".equals(path))
+                in = new BufferedInputStream(stdin);
+            else
+                in = new BufferedInputStream(new FileInputStream(path), 64 * 1024);
+            converter.convert(in);
+            return 0;
+        }
+        catch (IOException ex) {
+            err.println(ex.getMessage());
+            return 1;
+        }
+        catch (ParseException ex) {
+            err.println(ex.getMessage());
+            return 1;
+        }
+        finally {
+            try {
+                if (writer != null)
+                    writer.flush();
+                if (in != null && path != null && !"-".equals(path))
+                    in.close();
+            }
+            catch (IOException ex) {
+                //ignore
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,90 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.tools;
+
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+
+
+/**
+ * Names of the universal tags as printed by the tools, following the
+ * spelling of OpenSSL's asn1parse.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+class TagNames {
+    
+    private static final String[] UNIVERSAL = {
+        "EOC", "BOOLEAN", "INTEGER", "BIT STRING", "OCTET STRING", "NULL", 
+        "OBJECT", "OBJECT DESCRIPTOR", "EXTERNAL", "REAL", "ENUMERATED", 
+        "EMBEDDED PDV", "UTF8STRING", "RELATIVE OID", null, null,
+        "SEQUENCE", "SET", "NUMERICSTRING", "PRINTABLESTRING", "T61STRING", 
+        "VIDEOTEXSTRING", "IA5STRING", "UTCTIME", "GENERALIZEDTIME", 
+        "GRAPHICSTRING", "VISIBLESTRING", "GENERALSTRING", "UNIVERSALSTRING", 
+        null, "BMPSTRING"
+    };
+    
+    private TagNames() {}
+    
+    /**
+     * @return the name of a universal tag, or null if tc is not UNIVERSAL
+     * or the tag is unknown
+     */
+    static String universal(TagClass tc, int tag) {
+        if (tc != TagClass.UNIVERSAL || tag < 0 || tag >= UNIVERSAL.length)
+            return null;
+        return UNIVERSAL[tag];
+    }
+    
+    /**
+     * @return the universal name or e.g. "cont [ 3 ]" for other classes
+     */
+    static String name(TagClass tc, int tag) {
+        String name = universal(tc, tag);
+        if (name != null)
+            return name;
+        switch (tc) {
+            case APPLICATION:
+                return "appl [ " + tag + " ]";
+            case CONTEXT_SPECIFIC:
+                return "cont [ " + tag + " ]";
+            case PRIVATE:
+                return "priv [ " + tag + " ]";
+            default:
+                return "univ [ " + tag + " ]";
+        }
+    }
+    
+    static boolean isEndOfContents(Header h) {
+        return h.getTag() == Tags.END_OF_CONTENTS && 
+               h.getTagClass() == TagClass.UNIVERSAL && 
+               !h.isConstructed();
+    }
+    
+}
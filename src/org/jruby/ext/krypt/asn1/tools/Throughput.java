@@ -0,0 +1,474 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.tools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Constructed;
+import org.jruby.ext.krypt.asn1.ParseException;
+import org.jruby.ext.krypt.asn1.ParsedHeader;
+import org.jruby.ext.krypt.asn1.Parser;
+import org.jruby.ext.krypt.asn1.ParserFactory;
+import org.jruby.ext.krypt.asn1.SerializationException;
+import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
+import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
+
+
+/**
+ * Measures parsing throughput on files, directory trees or stdin:
+ * 
+ * <pre>
+ * java -cp asn1pull-java.jar org.jruby.ext.krypt.asn1.tools.Throughput \
+ *      [-m tree|scan|stream|skip|serialize] [-t threads] [-i iterations] 
+ *      [-p] [file|dir|-]...
+ * </pre>
+ * 
+ * Inputs are distributed over the threads file by file, so a single file
+ * is always processed by a single thread. Each file may contain any number
+ * of concatenated top-level values. Errors are counted for every
+ * iteration but only reported once per input.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class Throughput {
+    
+    public enum Mode {
+        /** Build the complete tree with Asn1Parser */
+        TREE,
+        /** Read every header, skip primitive values */
+        SCAN,
+        /** Read every header, read primitive values through their stream */
+        STREAM,
+        /** Read top-level headers only and skip their values */
+        SKIP,
+        /** Build the tree and serialize it again, discarding the output */
+        SERIALIZE
+    }
+    
+    private static final String USAGE = 
+        "Usage: Throughput [options] [file|dir|-]...\n" +
+        "  -m, --mode MODE        tree (default), scan, stream, skip or serialize\n" +
+        "  -t, --threads N        number of threads, default 1\n" +
+        "  -i, --iterations N     process every input N times, default 1\n" +
+        "  -p, --preload          read files into memory first to exclude I/O\n" +
+        "Reads stdin if no input or - is given. Directories are read recursively.\n";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private Throughput() {}
+    
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+    
+    /**
+     * @return the exit code, 0 on success, 1 if any input failed to parse
+     * and 2 on usage errors
+     */
+    public static int run(String[] args, InputStream stdin, PrintStream out, PrintStream err) {
+        Mode mode = Mode.TREE;
+        int threads = 1, iterations = 1;
+        boolean preload = false;
+        List<String> paths = new ArrayList<String>();
+        
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-m".equals(arg) || "--mode".equals(arg))
+                    mode = Mode.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                else if ("-t".equals(arg) || "--threads".equals(arg))
+                    threads = positive(value(args, ++i));
+                else if ("-i".equals(arg) || "--iterations".equals(arg))
+                    iterations = positive(value(args, ++i));
+                else if ("-p".equals(arg) || "--preload".equals(arg))
+                    preload = true;
+                else if ("-h".equals(arg) || "--help".equals(arg)) {
+                    out.print(USAGE);
+                    return 0;
+                }
+                else if (arg.startsWith("-") && arg.length() > 1)
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                else
+                    paths.add(arg);
+            }
+            if (paths.isEmpty())
+                paths.add("-");
+        }
+        catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.print(USAGE);
+            return 2;
+        }
+        
+        List<Input> inputs = new ArrayList<Input>();
+        try {
+            for (String path : paths)
+                collect(path, stdin, preload, inputs);
+        }
+        catch (IOException ex) {
+            err.println(ex.getMessage());
+            return 2;
+        }
+        
+        Report report = process(mode, threads, iterations, inputs, err);
+        report.print(out);
+        return report.errors == 0 ? 0 : 1;
+    }
+    
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+    
+    private static int positive(String s) {
+        int n = Integer.parseInt(s);
+        if (n < 1)
+            throw new IllegalArgumentException("Expected a positive number: " + s);
+        return n;
+    }
+    
+    private static void collect(String path, InputStream stdin, boolean preload, List<Input> inputs) throws IOException {
+        if ("-".equals(path)) {
+            inputs.add(new Input("<stdin>", null, readFully(stdin)));
+            return;
+        }
+        File f = new File(path);
+        if (!f.exists())
+            throw new IOException("No such file or directory: " + path);
+        collect(f, preload, inputs);
+    }
+    
+    private static void collect(File f, boolean preload, List<Input> inputs) throws IOException {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children == null)
+                throw new IOException("Cannot list " + f);
+            Arrays.sort(children);
+            for (File child : children)
+                collect(child, preload, inputs);
+        }
+        else if (f.isFile()) {
+            byte[] content = null;
+            if (preload) {
+                InputStream in = new FileInputStream(f);
+                try {
+                    content = readFully(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            inputs.add(new Input(f.getPath(), f, content));
+        }
+    }
+    
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buf)) != -1)
+            baos.write(buf, 0, read);
+        return baos.toByteArray();
+    }
+    
+    private static Report process(final Mode mode, int threads, int iterations, 
+                                  final List<Input> inputs, final PrintStream err) {
+        final int tasks = inputs.size() * iterations;
+        final AtomicInteger next = new AtomicInteger();
+        List<Callable<Report>> workers = new ArrayList<Callable<Report>>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Callable<Report>() {
+                @Override
+                public Report call() {
+                    Worker w = new Worker(mode);
+                    long allocated = allocatedBytes();
+                    int task;
+                    while ((task = next.getAndIncrement()) < tasks)
+                        w.process(inputs.get(task % inputs.size()), err);
+                    long after = allocatedBytes();
+                    w.report.allocated = allocated < 0 || after < 0 ? -1 : after - allocated;
+                    return w.report;
+                }
+            });
+        }
+        
+        resetPeakHeap();
+        Report total = new Report(mode, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            for (Future<Report> f : executor.invokeAll(workers))
+                total.add(f.get());
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+        finally {
+            executor.shutdown();
+        }
+        total.nanos = System.nanoTime() - start;
+        total.inputs = inputs.size();
+        total.iterations = iterations;
+        total.peakHeap = peakHeap();
+        return total;
+    }
+    
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean)threads;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled())
+                return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+    
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+    
+    /* sum of the peaks of all pools, may be higher than the actual peak */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+    
+    private static class Input {
+        
+        private final String name;
+        private final File file;
+        private final byte[] content;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        
+        Input(String name, File file, byte[] content) {
+            this.name = name;
+            this.file = file;
+            this.content = content;
+        }
+        
+        long size() {
+            return content != null ? content.length : file.length();
+        }
+        
+        InputStream open() throws IOException {
+            if (content != null)
+                return new ByteArrayInputStream(content);
+            return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        }
+    }
+    
+    private static class Worker {
+        
+        private final Mode mode;
+        private final Parser headers = new ParserFactory().newHeaderParser();
+        private final Asn1Parser parser = new Asn1Parser(new ParserFactory());
+        private final byte[] buf = new byte[BUFFER_SIZE];
+        private final Report report;
+        
+        Worker(Mode mode) {
+            this.mode = mode;
+            this.report = new Report(mode, 1);
+        }
+        
+        void process(Input input, PrintStream err) {
+            InputStream in = null;
+            try {
+                in = input.open();
+                switch (mode) {
+                    case TREE:
+                    case SERIALIZE:
+                        parseTree(in);
+                        break;
+                    case SCAN:
+                    case STREAM:
+                        scan(in);
+                        break;
+                    case SKIP:
+                        skipTopLevel(in);
+                        break;
+                }
+            }
+            catch (IOException ex) {
+                failed(input, ex, err);
+            }
+            catch (ParseException ex) {
+                failed(input, ex, err);
+            }
+            catch (SerializationException ex) {
+                failed(input, ex, err);
+            }
+            finally {
+                report.bytes += input.size();
+                if (in != null) {
+                    try {
+                        in.close();
+                    }
+                    catch (IOException ex) {
+                        //ignore
+                    }
+                }
+            }
+        }
+        
+        private void failed(Input input, Exception ex, PrintStream err) {
+            report.errors++;
+            if (input.failed.compareAndSet(false, true)) {
+                synchronized (err) {
+                    err.println(input.name + ": " + ex.getMessage());
+                }
+            }
+        }
+        
+        private void parseTree(InputStream in) {
+            Asn1 asn;
+            while ((asn = parser.parse(in)) != null) {
+                report.values++;
+                report.elements += count(asn);
+                if (mode == Mode.SERIALIZE)
+                    Asn1Serializer.serialize(asn, NULL_OUTPUT);
+            }
+        }
+        
+        private void scan(InputStream in) throws IOException {
+            ParsedHeader h;
+            while ((h = headers.next(in)) != null) {
+                report.elements++;
+                if (h.isConstructed())
+                    continue;
+                if (mode == Mode.STREAM) {
+                    InputStream value = h.getValueStream(false);
+                    while (value.read(buf) != -1);
+                }
+                else {
+                    h.skipValue();
+                }
+            }
+        }
+        
+        private void skipTopLevel(InputStream in) {
+            ParsedHeader h;
+            while ((h = headers.next(in)) != null) {
+                report.values++;
+                report.elements++;
+                h.skipValue();
+            }
+        }
+        
+        private static long count(Asn1 asn) {
+            long n = 1;
+            if (asn instanceof Constructed) {
+                for (Asn1 child : ((Constructed<?>)asn).getContent())
+                    n += count(child);
+            }
+            return n;
+        }
+    }
+    
+    private static class Report {
+        
+        private final Mode mode;
+        private final int threads;
+        private int inputs, iterations;
+        private long bytes, elements, values, errors, nanos, allocated, peakHeap;
+        
+        Report(Mode mode, int threads) {
+            this.mode = mode;
+            this.threads = threads;
+        }
+        
+        void add(Report r) {
+            bytes += r.bytes;
+            elements += r.elements;
+            values += r.values;
+            errors += r.errors;
+            if (allocated >= 0)
+                allocated = r.allocated < 0 ? -1 : allocated + r.allocated;
+        }
+        
+        void print(PrintStream out) {
+            double seconds = nanos / 1e9;
+            out.printf(Locale.ROOT, "mode        %s%n", mode.name().toLowerCase(Locale.ROOT));
+            out.printf(Locale.ROOT, "threads     %d%n", threads);
+            out.printf(Locale.ROOT, "inputs      %d x %d iterations%n", inputs, iterations);
+            out.printf(Locale.ROOT, "bytes       %d%n", bytes);
+            out.printf(Locale.ROOT, "elapsed     %.3f s%n", seconds);
+            out.printf(Locale.ROOT, "throughput  %.2f MB/s%n", bytes / 1e6 / seconds);
+            out.printf(Locale.ROOT, "elements    %d (%.0f/s)%n", elements, elements / seconds);
+            if (mode != Mode.SCAN && mode != Mode.STREAM)
+                out.printf(Locale.ROOT, "values      %d (%.0f/s)%n", values, values / seconds);
+            if (allocated < 0)
+                out.printf(Locale.ROOT, "allocated   n/a%n");
+            else
+                out.printf(Locale.ROOT, "allocated   %.2f MB (%.2f bytes/input byte)%n", 
+                           allocated / 1e6, bytes == 0 ? 0.0 : (double)allocated / bytes);
+            out.printf(Locale.ROOT, "peak heap   %.2f MB%n", peakHeap / 1e6);
+            out.printf(Locale.ROOT, "errors      %d%n", errors);
+        }
+    }
+    
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    
+}
@@ -31,6 +31,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.List;
 import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
 import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
 import org.jruby.ext.krypt.asn1.resources.Resources;
@@ -223,4 +224,50 @@ public class Asn1ParserTest {
         assertArrayEquals(raw, result);
     }
 
+    @Test
+    public void captureEncoding() {
+        byte[] raw = Resources.read(Resources.certificate());
+        Asn1Parser p = new Asn1Parser(new ParserFactory(), true);
+        Asn1 asn = p.parse(new ByteArrayInputStream(raw));
+        
+        assertTrue(asn instanceof RawEncoded);
+        assertEquals(raw.length, ((RawEncoded)asn).getEncodingLength());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(asn, baos);
+        assertArrayEquals(raw, baos.toByteArray());
+        
+        Asn1 tbs = ((Constructed<?>)asn).getContent().iterator().next();
+        assertTrue(tbs instanceof RawEncoded);
+        baos = new ByteArrayOutputStream();
+        ((RawEncoded)tbs).encodeTo(baos);
+        byte[] tbsEncoding = baos.toByteArray();
+        assertEquals(tbs.getHeader().getHeaderLength() + tbs.getHeader().getLength(), tbsEncoding.length);
+        for (int i = 0; i < tbsEncoding.length; i++) {
+            assertEquals(raw[4 + i], tbsEncoding[i]);
+        }
+    }
+    
+    @Test
+    public void captureEncodingKeepsNonDer() {
+        byte[] raw = bytesOf(0x30,0x80,0x04,0x82,0x00,0x01,0x07,0x00,0x00);
+        Asn1 asn = new Asn1Parser(new ParserFactory(), true).parse(new ByteArrayInputStream(raw));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(asn, baos);
+        assertArrayEquals(raw, baos.toByteArray());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void captureEncodingContentIsUnmodifiable() {
+        byte[] raw = bytesOf(0x30,0x03,0x02,0x01,0x01);
+        Constructed<?> asn = (Constructed<?>)new Asn1Parser(new ParserFactory(), true).parse(new ByteArrayInputStream(raw));
+        ((List<Asn1>)asn.getContent()).clear();
+    }
+    
+    @Test
+    public void noCaptureByDefault() {
+        byte[] raw = bytesOf(0x30,0x03,0x02,0x01,0x01);
+        Asn1 asn = new Asn1Parser(new ParserFactory()).parse(new ByteArrayInputStream(raw));
+        assertFalse(asn instanceof RawEncoded);
+    }
+
 }
@@ -31,16 +31,28 @@ import org.jruby.ext.krypt.asn1.encode.InfiniteLengthBitString;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
 import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
+import org.jruby.ext.krypt.asn1.encode.DefiniteLengthStreamingValue;
+import org.jruby.ext.krypt.asn1.encode.DigestingSerializer;
 import org.jruby.ext.krypt.asn1.encode.InfiniteLengthOctetString;
 import org.jruby.ext.krypt.asn1.encode.InfiniteLengthStreamingValue;
 import org.jruby.ext.krypt.asn1.encode.InfiniteLengthListValue;
+import org.jruby.ext.krypt.asn1.encode.ParallelAsn1Serializer;
 import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
 import org.jruby.ext.krypt.asn1.encode.Sequence;
+import org.jruby.ext.krypt.asn1.metrics.CountingMetrics;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -161,6 +173,43 @@ public class Asn1SerializerTest {
         assertArrayEquals(expected, result);
     }
     
+    @Test
+    public void complexLengthOctetBoundaries() {
+        int[] lengths = { 0xff, 0x100, 0xffff, 0x10000, 0xffffff, 0x1000000, Integer.MAX_VALUE };
+        int[] numOctets = { 1, 2, 2, 3, 3, 4, 4 };
+        for (int i = 0; i < lengths.length; i++) {
+            byte[] enc = new GenericAsn1.Length(lengths[i], false).getEncoding();
+            assertEquals(numOctets[i] + 1, enc.length);
+            assertEquals(0x80 | numOctets[i], enc[0] & 0xff);
+            int decoded = 0;
+            for (int j = 1; j < enc.length; j++) {
+                decoded = (decoded << 8) | (enc[j] & 0xff);
+            }
+            assertEquals(lengths[i], decoded);
+        }
+    }
+    
+    @Test
+    public void simpleTagEncodings() {
+        assertArrayEquals(bytesOf(0x30), new GenericAsn1.Tag(Tags.SEQUENCE, TagClass.UNIVERSAL, true).getEncoding());
+        assertArrayEquals(bytesOf(0x02), new GenericAsn1.Tag(Tags.INTEGER, TagClass.UNIVERSAL, false).getEncoding());
+        assertArrayEquals(bytesOf(0xa3), new GenericAsn1.Tag(3, TagClass.CONTEXT_SPECIFIC, true).getEncoding());
+        assertArrayEquals(bytesOf(0x9e), new GenericAsn1.Tag(30, TagClass.CONTEXT_SPECIFIC, false).getEncoding());
+        assertArrayEquals(bytesOf(0x7e), new GenericAsn1.Tag(30, TagClass.APPLICATION, true).getEncoding());
+        assertArrayEquals(bytesOf(0x80), new GenericAsn1.Length(0, true).getEncoding());
+        assertArrayEquals(bytesOf(0x7f), new GenericAsn1.Length(127, false).getEncoding());
+    }
+    
+    @Test
+    public void sharedEncodingsCannotBeModified() {
+        new GenericAsn1.Tag(Tags.INTEGER, TagClass.UNIVERSAL, false).getEncoding()[0] = 0x05;
+        new GenericAsn1.Length(1, false).getEncoding()[0] = 0x00;
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)), baos);
+        assertArrayEquals(bytesOf(0x02,0x01,0x01), baos.toByteArray());
+    }
+    
     @Test
     public void complexTagSingleOctet() {
         PrimitiveValue val = new PrimitiveValue(42, TagClass.PRIVATE, bytesOf(0x00));
@@ -269,6 +318,318 @@ public class Asn1SerializerTest {
         streamingExplicitChunkSize(InfiniteLengthBitString.class, Tags.BIT_STRING, 42);
     }
     
+    @Test
+    public void streamingIterableViewEqualsSerialization() throws Exception {
+        byte[] value = byteTimes(0x01, 100);
+        
+        InfiniteLengthOctetString serialized = new InfiniteLengthOctetString(new ByteArrayInputStream(value), 42);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(serialized, baos);
+        
+        InfiniteLengthOctetString iterated = new InfiniteLengthOctetString(new ByteArrayInputStream(value), 42);
+        ByteArrayOutputStream viaIterable = new ByteArrayOutputStream();
+        iterated.getHeader().encodeTo(viaIterable);
+        int numChunks = 0;
+        for (Asn1 chunk : iterated.getContent()) {
+            Asn1Serializer.serialize(chunk, viaIterable);
+            numChunks++;
+        }
+        
+        assertEquals(4, numChunks); //42, 42, 16, EOC
+        assertArrayEquals(viaIterable.toByteArray(), baos.toByteArray());
+    }
+    
+    @Test
+    public void streamingShortReadsFillChunks() throws Exception {
+        byte[] value = byteTimes(0x01, 42 * 2 + 1);
+        InputStream source = new ByteArrayInputStream(value) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 5));
+            }
+        };
+        
+        InfiniteLengthOctetString val = new InfiniteLengthOctetString(source, 42);
+        streamingChunked(val, Tags.OCTET_STRING, 42, bytesOf(0x2a));
+    }
+    
+    @Test
+    public void streamingReadAhead() throws Exception {
+        byte[] value = byteTimes(0x01, 42 * 2 + 1);
+        
+        InfiniteLengthOctetString val = new InfiniteLengthOctetString(new ByteArrayInputStream(value), 42, 3);
+        streamingChunked(val, Tags.OCTET_STRING, 42, bytesOf(0x2a));
+    }
+    
+    @Test
+    public void streamingReadAheadIterableView() throws Exception {
+        byte[] value = byteTimes(0x01, 1000);
+        
+        InfiniteLengthOctetString val = new InfiniteLengthOctetString(new ByteArrayInputStream(value), 42, 2);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (Asn1 chunk : val.getContent()) {
+            baos.write(((Primitive)chunk).getValue() == null ? new byte[0] : ((Primitive)chunk).getValue());
+        }
+        assertArrayEquals(value, baos.toByteArray());
+    }
+    
+    @Test(expected=SerializationException.class)
+    public void streamingReadAheadPropagatesErrors() throws Exception {
+        InputStream source = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken source");
+            }
+        };
+        
+        InfiniteLengthOctetString val = new InfiniteLengthOctetString(source, 42, 2);
+        Asn1Serializer.serialize(val, new ByteArrayOutputStream());
+    }
+    
+    @Test(expected=OutOfMemoryError.class)
+    public void streamingReadAheadPropagatesThrowables() throws Exception {
+        InputStream source = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new OutOfMemoryError("broken source");
+            }
+        };
+        
+        InfiniteLengthOctetString val = new InfiniteLengthOctetString(source, 42, 2);
+        Asn1Serializer.serialize(val, new ByteArrayOutputStream());
+    }
+    
+    @Test
+    public void definiteStreamingFromInputStream() throws Exception {
+        byte[] value = byteTimes(0x01, 1000);
+        DefiniteLengthStreamingValue val = new DefiniteLengthStreamingValue(Tags.OCTET_STRING, new ByteArrayInputStream(value), 1000);
+        Header h = val.getHeader();
+        assertFalse(h.isConstructed());
+        assertFalse(h.isInfiniteLength());
+        assertEquals(1000, h.getLength());
+        assertEquals(4, h.getHeaderLength());
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(val, baos);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bytesOf(0x04,0x82,0x03,0xe8));
+        expected.write(value);
+        assertArrayEquals(expected.toByteArray(), baos.toByteArray());
+    }
+    
+    @Test(expected=SerializationException.class)
+    public void definiteStreamingPrematureEnd() throws Exception {
+        DefiniteLengthStreamingValue val = new DefiniteLengthStreamingValue(Tags.OCTET_STRING, new ByteArrayInputStream(byteTimes(0x01, 10)), 11);
+        Asn1Serializer.serialize(val, new ByteArrayOutputStream());
+    }
+    
+    @Test
+    public void definiteStreamingFileToFile() throws Exception {
+        byte[] value = byteTimes(0x01, 20000);
+        File source = File.createTempFile("asn1source", null);
+        File target = File.createTempFile("asn1target", null);
+        
+        try {
+            FileOutputStream fos = new FileOutputStream(source);
+            fos.write(value);
+            fos.close();
+            
+            FileInputStream in = new FileInputStream(source);
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                Sequence seq = new Sequence();
+                seq.add(new DefiniteLengthStreamingValue(Tags.OCTET_STRING, in.getChannel()));
+                Asn1Serializer.serialize(seq, out);
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(bytesOf(0x30,0x82,0x4e,0x24,0x04,0x82,0x4e,0x20));
+            expected.write(value);
+            assertArrayEquals(expected.toByteArray(), consume(new FileInputStream(target)));
+        }
+        finally {
+            source.delete();
+            target.delete();
+        }
+    }
+    
+    @Test
+    public void definiteStreamingFileToChannel() throws Exception {
+        byte[] value = byteTimes(0x01, 20000);
+        File source = File.createTempFile("asn1source", null);
+        
+        try {
+            FileOutputStream fos = new FileOutputStream(source);
+            fos.write(value);
+            fos.close();
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            FileInputStream in = new FileInputStream(source);
+            try {
+                new DefiniteLengthStreamingValue(Tags.OCTET_STRING, in.getChannel()).writeTo(Channels.newChannel(baos));
+            }
+            finally {
+                in.close();
+            }
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(bytesOf(0x04,0x82,0x4e,0x20));
+            expected.write(value);
+            assertArrayEquals(expected.toByteArray(), baos.toByteArray());
+        }
+        finally {
+            source.delete();
+        }
+    }
+    
+    @Test
+    public void definiteStreamingToNonBlockingChannel() throws Exception {
+        byte[] value = byteTimes(0x01, 20000);
+        File source = File.createTempFile("asn1source", null);
+        
+        try {
+            FileOutputStream fos = new FileOutputStream(source);
+            fos.write(value);
+            fos.close();
+            
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            WritableByteChannel target = new WritableByteChannel() {
+                private int calls;
+                
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+                    if (calls++ % 2 == 1)
+                        return 0;
+                    int n = Math.min(src.remaining(), 1000);
+                    byte[] b = new byte[n];
+                    src.get(b);
+                    baos.write(b);
+                    return n;
+                }
+                
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+                
+                @Override
+                public void close() {
+                }
+            };
+            FileInputStream in = new FileInputStream(source);
+            try {
+                new DefiniteLengthStreamingValue(Tags.OCTET_STRING, in.getChannel()).writeTo(target);
+            }
+            finally {
+                in.close();
+            }
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(bytesOf(0x04,0x82,0x4e,0x20));
+            expected.write(value);
+            assertArrayEquals(expected.toByteArray(), baos.toByteArray());
+        }
+        finally {
+            source.delete();
+        }
+    }
+    
+    @Test
+    public void definiteStreamingFileToFileWithMetrics() throws Exception {
+        byte[] value = byteTimes(0x01, 20000);
+        File source = File.createTempFile("asn1source", null);
+        File target = File.createTempFile("asn1target", null);
+        
+        try {
+            FileOutputStream fos = new FileOutputStream(source);
+            fos.write(value);
+            fos.close();
+            
+            CountingMetrics metrics = new CountingMetrics();
+            FileInputStream in = new FileInputStream(source);
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                Sequence seq = new Sequence();
+                seq.add(new DefiniteLengthStreamingValue(Tags.OCTET_STRING, in.getChannel()));
+                Asn1Serializer.serialize(seq, out, metrics);
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+            
+            assertEquals(20008, metrics.getBytesSerialized());
+            assertEquals(20008, target.length());
+        }
+        finally {
+            source.delete();
+            target.delete();
+        }
+    }
+    
+    @Test
+    public void parallelEncodeEqualsSequential() throws Exception {
+        Sequence revoked = new Sequence();
+        for (int i = 0; i < 5000; i++) {
+            Sequence entry = new Sequence();
+            entry.add(new PrimitiveValue(Tags.INTEGER, bytesOf(i & 0x7f, i >> 8 & 0xff)));
+            entry.add(new PrimitiveValue(Tags.UTC_TIME, byteTimes(0x30, 13)));
+            revoked.add(entry);
+        }
+        Sequence outer = new Sequence();
+        outer.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)));
+        outer.add(revoked);
+        
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(outer, sequential);
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+            new ParallelAsn1Serializer(pool, 100).serialize(outer, parallel);
+            assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void digestWhileSerializing() throws Exception {
+        Sequence tbs = new Sequence();
+        tbs.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)));
+        InfiniteLengthOctetString payload = new InfiniteLengthOctetString(new ByteArrayInputStream(byteTimes(0x01, 100)), 42);
+        tbs.add(payload);
+        tbs.add(new PrimitiveValue(Tags.END_OF_CONTENTS, null));
+        Sequence signed = new Sequence();
+        signed.add(tbs);
+        signed.add(new PrimitiveValue(Tags.BIT_STRING, bytesOf(0x00, 0xff)));
+        signed.add(new PrimitiveValue(Tags.END_OF_CONTENTS, null));
+        
+        MessageDigest tbsDigest = MessageDigest.getInstance("SHA-256");
+        MessageDigest payloadDigest = MessageDigest.getInstance("SHA-256");
+        DigestingSerializer serializer = new DigestingSerializer();
+        serializer.digest(tbs, tbsDigest);
+        serializer.digest(payload, payloadDigest);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        serializer.serialize(signed, baos);
+        byte[] result = baos.toByteArray();
+        
+        //30 80 | 30 80 | 02 01 01 | payload | 00 00 | 03 02 00 ff | 00 00
+        int payloadLength = 2 + 2 * (2 + 42) + (2 + 16) + 2;
+        MessageDigest expected = MessageDigest.getInstance("SHA-256");
+        expected.update(result, 2, 2 + 3 + payloadLength + 2);
+        assertArrayEquals(expected.digest(), tbsDigest.digest());
+        expected.update(result, 7, payloadLength);
+        assertArrayEquals(expected.digest(), payloadDigest.digest());
+        assertEquals(2 + 2 + 3 + payloadLength + 2 + 4 + 2, result.length);
+    }
+    
     private void streamingDefaultChunkSize(Class<? extends InfiniteLengthStreamingValue> clazz, int tag) throws Exception {
         byte[] value = byteTimes(0x01, InfiniteLengthStreamingValue.DEFAULT_CHUNK_SIZE * 2 + 1);
         
@@ -0,0 +1,124 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import org.jruby.ext.krypt.asn1.decode.Asn1String;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class Asn1StringTest {
+    
+    private static byte[] bytes(String s, String charset) {
+        try {
+            return s.getBytes(charset);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    private static Asn1String view(int tag, String s, String charset) {
+        byte[] b = bytes(s, charset);
+        return Asn1String.view(tag, b, 0, b.length);
+    }
+    
+    @Test
+    public void asciiView() {
+        Asn1String s = Asn1String.view(new PrimitiveValue(Tags.PRINTABLE_STRING, bytes("Krypt CA", "US-ASCII")));
+        assertEquals(8, s.length());
+        assertEquals('K', s.charAt(0));
+        assertEquals("Krypt CA", s.toString());
+        assertEquals("Krypt CA".hashCode(), s.hashCode());
+        assertEquals("CA", s.subSequence(6, 8).toString());
+    }
+    
+    @Test
+    public void sliceView() {
+        byte[] b = bytes("xxexamplexx", "US-ASCII");
+        Asn1String s = Asn1String.view(Tags.IA5_STRING, b, 2, 7);
+        assertEquals("example", s.toString());
+        assertTrue(s.contentEquals("example"));
+    }
+    
+    @Test
+    public void utf8View() {
+        String str = "Gr\u00fc\u00dfe \u20ac \ud83d\ude00";
+        Asn1String s = view(Tags.UTF8_STRING, str, "UTF-8");
+        assertEquals(str.length(), s.length());
+        assertEquals(str, s.toString());
+        assertEquals(str.hashCode(), s.hashCode());
+        assertTrue(s.contentEquals(str));
+    }
+    
+    @Test
+    public void bmpView() {
+        String str = "Gr\u00fc\u00dfe";
+        Asn1String s = view(Tags.BMP_STRING, str, "UTF-16BE");
+        assertEquals(str.length(), s.length());
+        assertEquals('\u00fc', s.charAt(2));
+        assertEquals(str.hashCode(), s.hashCode());
+    }
+    
+    @Test
+    public void equalityAcrossTypes() {
+        Asn1String printable = view(Tags.PRINTABLE_STRING, "Example", "US-ASCII");
+        Asn1String utf8 = view(Tags.UTF8_STRING, "Example", "UTF-8");
+        Asn1String bmp = view(Tags.BMP_STRING, "Example", "UTF-16BE");
+        assertEquals(printable, utf8);
+        assertEquals(utf8, bmp);
+        assertEquals(bmp, printable);
+        assertEquals(printable.hashCode(), bmp.hashCode());
+        assertFalse(printable.equals(view(Tags.PRINTABLE_STRING, "Exampl", "US-ASCII")));
+        assertFalse(bmp.equals(view(Tags.UTF8_STRING, "Ex\u00e4mple", "UTF-8")));
+        assertEquals(view(Tags.UTF8_STRING, "\u00e4", "UTF-8"), view(Tags.BMP_STRING, "\u00e4", "UTF-16BE"));
+    }
+    
+    @Test(expected=ParseException.class)
+    public void malformedUtf8() {
+        Asn1String.view(Tags.UTF8_STRING, Utils.bytesOf(0x41, 0xc3), 0, 2).length();
+    }
+    
+    @Test(expected=ParseException.class)
+    public void overlongUtf8() {
+        Asn1String.view(Tags.UTF8_STRING, Utils.bytesOf(0xc0, 0xaf), 0, 2).length();
+    }
+    
+    @Test(expected=ParseException.class)
+    public void oddBmp() {
+        Asn1String.view(Tags.BMP_STRING, Utils.bytesOf(0x00, 0x41, 0x00), 0, 3);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void unsupportedType() {
+        Asn1String.view(Tags.OCTET_STRING, new byte[0], 0, 0);
+    }
+}
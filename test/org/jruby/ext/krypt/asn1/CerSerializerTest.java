@@ -0,0 +1,225 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.encode.CerSerializer;
+import org.jruby.ext.krypt.asn1.encode.DefiniteLengthStreamingValue;
+import org.jruby.ext.krypt.asn1.encode.InfiniteLengthBitString;
+import org.jruby.ext.krypt.asn1.encode.InfiniteLengthListValue;
+import org.jruby.ext.krypt.asn1.encode.InfiniteLengthOctetString;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.jruby.ext.krypt.asn1.encode.Sequence;
+import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
+import org.jruby.ext.krypt.asn1.resources.Resources;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class CerSerializerTest {
+    
+    @Test
+    public void constructedIsInfinite() {
+        Sequence seq = new Sequence();
+        seq.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)));
+        Sequence inner = new Sequence();
+        inner.add(new PrimitiveValue(Tags.NULL, null));
+        seq.add(inner);
+        
+        byte[] expected = bytesOf(0x30,0x80,0x02,0x01,0x01,0x30,0x80,0x05,0x00,0x00,0x00,0x00,0x00);
+        assertArrayEquals(expected, serialize(seq));
+    }
+    
+    @Test
+    public void explicitEndOfContentsIsNotDuplicated() {
+        List<Asn1> content = new ArrayList<Asn1>();
+        content.add(new PrimitiveValue(Tags.OCTET_STRING, bytesOf(0x01)));
+        content.add(new PrimitiveValue(Tags.END_OF_CONTENTS, null));
+        InfiniteLengthListValue val = new InfiniteLengthListValue(Tags.OCTET_STRING, content);
+        
+        byte[] expected = bytesOf(0x04,0x01,0x01);
+        assertArrayEquals(expected, serialize(val));
+    }
+    
+    @Test
+    public void constructedStringsAreMerged() {
+        List<Asn1> content = new ArrayList<Asn1>();
+        content.add(new PrimitiveValue(Tags.OCTET_STRING, bytesOf(0x01,0x02)));
+        content.add(new PrimitiveValue(Tags.OCTET_STRING, bytesOf(0x03)));
+        assertArrayEquals(bytesOf(0x04,0x03,0x01,0x02,0x03), 
+                          serialize(new InfiniteLengthListValue(Tags.OCTET_STRING, content)));
+        
+        byte[] ber = bytesOf(0x30,0x80,0x24,0x80,0x04,0x01,0x01,0x24,0x04,0x04,0x02,0x02,0x03,0x00,0x00,
+                             0x23,0x80,0x03,0x02,0x00,0xff,0x03,0x02,0x04,0xf0,0x00,0x00,0x00,0x00);
+        Asn1 asn = new Asn1Parser(new ParserFactory()).parse(new ByteArrayInputStream(ber));
+        byte[] expected = bytesOf(0x30,0x80,0x04,0x03,0x01,0x02,0x03,0x03,0x03,0x04,0xff,0xf0,0x00,0x00);
+        assertArrayEquals(expected, serialize(asn));
+    }
+    
+    @Test
+    public void mergedStringsAreSegmented() throws Exception {
+        List<Asn1> content = new ArrayList<Asn1>();
+        content.add(new PrimitiveValue(Tags.BIT_STRING, byteTimes(0x00, 700)));
+        byte[] last = byteTimes(0xff, 801);
+        last[0] = 0x02;
+        content.add(new PrimitiveValue(Tags.BIT_STRING, last));
+        
+        byte[] merged = byteTimes(0x00, 1500);
+        System.arraycopy(last, 1, merged, 700, 800);
+        merged[0] = 0x02;
+        assertArrayEquals(serialize(new PrimitiveValue(Tags.BIT_STRING, merged)), 
+                          serialize(new InfiniteLengthListValue(Tags.BIT_STRING, content)));
+    }
+    
+    @Test(expected=SerializationException.class)
+    public void unusedBitsOnlyInLastSegment() {
+        List<Asn1> content = new ArrayList<Asn1>();
+        content.add(new PrimitiveValue(Tags.BIT_STRING, bytesOf(0x04,0xf0)));
+        content.add(new PrimitiveValue(Tags.BIT_STRING, bytesOf(0x00,0xff)));
+        serialize(new InfiniteLengthListValue(Tags.BIT_STRING, content));
+    }
+    
+    @Test
+    public void segmentOctetString() throws Exception {
+        byte[] value = byteTimes(0x01, 2500);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bytesOf(0x24,0x80));
+        expected.write(bytesOf(0x04,0x82,0x03,0xe8));
+        expected.write(byteTimes(0x01, 1000));
+        expected.write(bytesOf(0x04,0x82,0x03,0xe8));
+        expected.write(byteTimes(0x01, 1000));
+        expected.write(bytesOf(0x04,0x82,0x01,0xf4));
+        expected.write(byteTimes(0x01, 500));
+        expected.write(bytesOf(0x00,0x00));
+        
+        assertArrayEquals(expected.toByteArray(), serialize(new PrimitiveValue(Tags.OCTET_STRING, value)));
+        assertArrayEquals(expected.toByteArray(), serialize(new DefiniteLengthStreamingValue(Tags.OCTET_STRING, new ByteArrayInputStream(value), 2500)));
+        assertArrayEquals(expected.toByteArray(), serialize(new InfiniteLengthOctetString(new ByteArrayInputStream(value))));
+    }
+    
+    @Test
+    public void segmentSizeIsPrimitive() throws Exception {
+        byte[] value = byteTimes(0x01, 1000);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bytesOf(0x04,0x82,0x03,0xe8));
+        expected.write(value);
+        
+        assertArrayEquals(expected.toByteArray(), serialize(new PrimitiveValue(Tags.OCTET_STRING, value)));
+        assertArrayEquals(expected.toByteArray(), serialize(new InfiniteLengthOctetString(new ByteArrayInputStream(value), 42)));
+    }
+    
+    @Test
+    public void segmentBitString() throws Exception {
+        byte[] value = byteTimes(0xff, 1001);
+        value[0] = 0x04;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bytesOf(0x23,0x80));
+        expected.write(bytesOf(0x03,0x82,0x03,0xe8,0x00));
+        expected.write(byteTimes(0xff, 999));
+        expected.write(bytesOf(0x03,0x02,0x04,0xff));
+        expected.write(bytesOf(0x00,0x00));
+        
+        assertArrayEquals(expected.toByteArray(), serialize(new PrimitiveValue(Tags.BIT_STRING, value)));
+    }
+    
+    @Test
+    public void streamingEqualsPrimitive() throws Exception {
+        int[] lengths = new int[] { 0, 1, 999, 1000, 1001, 1501, 1999, 2000, 2001, 3500 };
+        for (int length : lengths) {
+            byte[] value = new byte[length];
+            for (int i = 0; i < length; i++)
+                value[i] = (byte)i;
+            if (length > 0)
+                value[0] = 0x03;
+            
+            for (int tag : new int[] { Tags.OCTET_STRING, Tags.BIT_STRING }) {
+                byte[] expected = serialize(new PrimitiveValue(tag, length == 0 ? null : value));
+                assertArrayEquals(tag + "/" + length, expected, 
+                                  serialize(new DefiniteLengthStreamingValue(tag, new ByteArrayInputStream(value), length)));
+            }
+            assertArrayEquals(String.valueOf(length), serialize(new PrimitiveValue(Tags.OCTET_STRING, length == 0 ? null : value)), 
+                              serialize(new InfiniteLengthOctetString(new ByteArrayInputStream(value), 42)));
+            assertArrayEquals(String.valueOf(length), serialize(new PrimitiveValue(Tags.BIT_STRING, length == 0 ? null : value)), 
+                              serialize(new InfiniteLengthBitString(new ByteArrayInputStream(value), 300, 2)));
+        }
+    }
+    
+    @Test
+    public void streamingBitStringSegmentsHaveUnusedBitsOctet() throws Exception {
+        byte[] value = byteTimes(0xff, 1501);
+        value[0] = 0x04;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bytesOf(0x23,0x80));
+        expected.write(bytesOf(0x03,0x82,0x03,0xe8,0x00));
+        expected.write(byteTimes(0xff, 999));
+        expected.write(bytesOf(0x03,0x82,0x01,0xf6,0x04));
+        expected.write(byteTimes(0xff, 501));
+        expected.write(bytesOf(0x00,0x00));
+        
+        assertArrayEquals(expected.toByteArray(), serialize(new PrimitiveValue(Tags.BIT_STRING, value)));
+        assertArrayEquals(expected.toByteArray(), serialize(new DefiniteLengthStreamingValue(Tags.BIT_STRING, new ByteArrayInputStream(value), 1501)));
+        assertArrayEquals(expected.toByteArray(), serialize(new InfiniteLengthBitString(new ByteArrayInputStream(value))));
+    }
+    
+    @Test
+    public void setComponentsAreSorted() {
+        List<Asn1> content = new ArrayList<Asn1>();
+        content.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x03)));
+        content.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)));
+        content.add(new PrimitiveValue(Tags.BOOLEAN, bytesOf(0xff)));
+        Sequence set = new Sequence(content);
+        set.setTagAndClass(Tags.SET, TagClass.UNIVERSAL);
+        
+        byte[] expected = bytesOf(0x31,0x80,0x01,0x01,0xff,0x02,0x01,0x01,0x02,0x01,0x03,0x00,0x00);
+        assertArrayEquals(expected, serialize(set));
+    }
+    
+    @Test
+    public void certificateRoundTrip() {
+        byte[] raw = Resources.read(Resources.certificate());
+        Asn1 asn = new Asn1Parser(new ParserFactory()).parse(new ByteArrayInputStream(raw));
+        byte[] cer = serialize(asn);
+        
+        Asn1 reparsed = new Asn1Parser(new ParserFactory()).parse(new ByteArrayInputStream(cer));
+        assertTrue(reparsed.getHeader().isInfiniteLength());
+        assertArrayEquals(cer, serialize(reparsed));
+    }
+    
+    private static byte[] serialize(Asn1 asn) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CerSerializer.serialize(asn, baos);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,145 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.jruby.ext.krypt.asn1.corpus.CorpusGenerator;
+import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class CorpusGeneratorTest {
+    
+    private static Asn1 parse(byte[] encoding) {
+        return new Asn1Parser(new ParserFactory()).parse(new ByteArrayInputStream(encoding));
+    }
+    
+    private static byte[] reencode(byte[] encoding) {
+        return CorpusGenerator.encode(parse(encoding));
+    }
+    
+    @Test
+    public void deterministic() {
+        assertArrayEquals(CorpusGenerator.encode(new CorpusGenerator(7).certificateChain(3)),
+                          CorpusGenerator.encode(new CorpusGenerator(7).certificateChain(3)));
+        assertFalse(Arrays.equals(CorpusGenerator.encode(new CorpusGenerator(7).crl(10)),
+                                  CorpusGenerator.encode(new CorpusGenerator(8).crl(10))));
+    }
+    
+    @Test
+    public void streamedCrlMatchesTree() {
+        for (int entries : new int[] { 0, 1, 1000 }) {
+            CorpusGenerator gen = new CorpusGenerator(entries);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            gen.writeCrl(baos, entries);
+            byte[] tree = CorpusGenerator.encode(gen.crl(entries));
+            assertArrayEquals(tree, baos.toByteArray());
+            assertArrayEquals(tree, reencode(tree));
+        }
+    }
+    
+    @Test
+    public void streamedWideSetOfMatchesTree() {
+        CorpusGenerator gen = new CorpusGenerator(1);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        gen.writeWideSetOf(baos, 5000);
+        byte[] tree = CorpusGenerator.encode(gen.wideSetOf(5000));
+        assertArrayEquals(tree, baos.toByteArray());
+        assertEquals(0x31, tree[0] & 0xff);
+        Constructed<?> set = (Constructed<?>) parse(tree);
+        int count = 0;
+        for (Asn1 element : set.getContent())
+            count++;
+        assertEquals(5000, count);
+    }
+    
+    @Test
+    public void streamedDeepNestingMatchesTree() {
+        for (int depth : new int[] { 0, 1, 2, 100 }) {
+            CorpusGenerator gen = new CorpusGenerator(depth);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            gen.writeDeepNesting(baos, depth);
+            byte[] tree = CorpusGenerator.encode(gen.deepNesting(depth));
+            assertArrayEquals(tree, baos.toByteArray());
+            assertArrayEquals(tree, reencode(tree));
+        }
+    }
+    
+    @Test
+    public void highTags() {
+        byte[] encoding = CorpusGenerator.encode(new CorpusGenerator(3).highTags(200));
+        assertArrayEquals(encoding, reencode(encoding));
+        Constructed<?> seq = (Constructed<?>) parse(encoding);
+        for (Asn1 element : seq.getContent()) {
+            assertTrue(element.getHeader().getTag() >= 31);
+            assertTrue(element.getHeader().getTagClass() != TagClass.UNIVERSAL);
+        }
+    }
+    
+    @Test
+    public void ber() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new CorpusGenerator(4).writeBer(baos, 100000, 333);
+        InputStream in = new ByteArrayInputStream(baos.toByteArray());
+        Parser p = new ParserFactory().newHeaderParser();
+        ParsedHeader h = p.next(in);
+        assertTrue(h.isInfiniteLength());
+        p.next(in).skipValue();
+        h = p.next(in);
+        assertEquals(Tags.OCTET_STRING, h.getTag());
+        assertTrue(h.isInfiniteLength());
+        assertEquals(100000, Utils.consume(h.getValueStream(true)).length);
+        Asn1 tree = parse(baos.toByteArray());
+        assertTrue(tree.getHeader().isInfiniteLength());
+    }
+    
+    @Test
+    public void corpus() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        long written = new CorpusGenerator(5).writeCorpus(baos, 1 << 20);
+        assertEquals(written, baos.size());
+        assertTrue(written >= 1 << 20);
+        
+        InputStream in = new ByteArrayInputStream(baos.toByteArray());
+        Parser p = new ParserFactory().newHeaderParser();
+        ParsedHeader h;
+        int values = 0;
+        while ((h = p.next(in)) != null) {
+            h.skipValue();
+            values++;
+        }
+        assertTrue(values > 1);
+    }
+}
@@ -0,0 +1,231 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import org.jruby.ext.krypt.asn1.encode.DerTranscoder;
+import org.jruby.ext.krypt.asn1.resources.Resources;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class DerTranscoderTest {
+    
+    @Test
+    public void derIsUnchanged() {
+        byte[] raw = Resources.read(Resources.certificate());
+        assertArrayEquals(raw, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void nestedInfiniteLength() {
+        byte[] raw = bytesOf(0x30,0x80,0x30,0x80,0x02,0x01,0x01,0x00,0x00,0x04,0x01,0x02,0x00,0x00);
+        byte[] expected = bytesOf(0x30,0x08,0x30,0x03,0x02,0x01,0x01,0x04,0x01,0x02);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void infiniteInsideDefinite() {
+        byte[] raw = bytesOf(0x30,0x08,0x30,0x80,0x05,0x00,0x00,0x00,0x05,0x00);
+        byte[] expected = bytesOf(0x30,0x06,0x30,0x02,0x05,0x00,0x05,0x00);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void mergeChunkedOctetString() {
+        byte[] raw = bytesOf(0x24,0x80,0x04,0x01,0x01,0x24,0x80,0x04,0x02,0x02,0x03,0x00,0x00,0x04,0x01,0x04,0x00,0x00);
+        byte[] expected = bytesOf(0x04,0x04,0x01,0x02,0x03,0x04);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void mergeChunkedBitString() {
+        byte[] raw = bytesOf(0x23,0x09,0x03,0x02,0x00,0xff,0x03,0x03,0x04,0xff,0xf0);
+        byte[] expected = bytesOf(0x03,0x04,0x04,0xff,0xff,0xf0);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void nonMinimalLengths() {
+        byte[] raw = bytesOf(0x30,0x81,0x05,0x04,0x82,0x00,0x01,0x07);
+        byte[] expected = bytesOf(0x30,0x03,0x04,0x01,0x07);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void spillToDisk() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(bytesOf(0x30,0x80,0x24,0x80));
+        for (int i = 0; i < 100; i++) {
+            baos.write(bytesOf(0x04,0x64));
+            baos.write(byteTimes(i, 100));
+        }
+        baos.write(bytesOf(0x00,0x00,0x00,0x00));
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bytesOf(0x30,0x82,0x27,0x14,0x04,0x82,0x27,0x10));
+        for (int i = 0; i < 100; i++) {
+            expected.write(byteTimes(i, 100));
+        }
+        
+        assertArrayEquals(expected.toByteArray(), transcode(baos.toByteArray(), 16));
+        assertArrayEquals(expected.toByteArray(), transcode(baos.toByteArray(), DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void sortSetComponents() {
+        byte[] raw = bytesOf(0x31,0x80,0x04,0x01,0x02,0x30,0x80,0x05,0x00,0x00,0x00,0x02,0x01,0x07,0x04,0x01,0x01,0x00,0x00);
+        byte[] expected = bytesOf(0x31,0x0d,0x02,0x01,0x07,0x04,0x01,0x01,0x04,0x01,0x02,0x30,0x02,0x05,0x00);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+        assertArrayEquals(expected, transcode(raw, 4));
+    }
+    
+    @Test
+    public void sortNestedSet() {
+        byte[] raw = bytesOf(0x30,0x0c,0x31,0x0a,0x31,0x06,0x02,0x01,0x09,0x02,0x01,0x03,0x05,0x00);
+        byte[] expected = bytesOf(0x30,0x0c,0x31,0x0a,0x05,0x00,0x31,0x06,0x02,0x01,0x03,0x02,0x01,0x09);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void concatenatedValues() {
+        byte[] raw = bytesOf(0x02,0x01,0x01,0x30,0x80,0x05,0x00,0x00,0x00);
+        byte[] expected = bytesOf(0x02,0x01,0x01,0x30,0x02,0x05,0x00);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void maxHeaders() {
+        byte[] raw = bytesOf(0x30,0x80,0x30,0x80,0x24,0x80,0x04,0x01,0x01,0x00,0x00,0x00,0x00,0x00,0x00,0x30,0x00);
+        byte[] expected = bytesOf(0x30,0x05,0x30,0x03,0x04,0x01,0x01,0x30,0x00);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new DerTranscoder(new ParserFactory(), 0, null, 3).transcode(new ByteArrayInputStream(raw), baos);
+        assertArrayEquals(expected, baos.toByteArray());
+        
+        try {
+            new DerTranscoder(new ParserFactory(), 0, null, 2).transcode(new ByteArrayInputStream(raw), new ByteArrayOutputStream());
+            fail("SerializationException expected");
+        }
+        catch (SerializationException ex) {
+            //expected
+        }
+    }
+    
+    @Test
+    public void normalizeBoolean() {
+        byte[] raw = bytesOf(0x30,0x80,0x01,0x01,0x01,0x01,0x01,0x00,0x00,0x00);
+        byte[] expected = bytesOf(0x30,0x06,0x01,0x01,0xff,0x01,0x01,0x00);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+        assertArrayEquals(bytesOf(0x01,0x01,0xff), transcode(bytesOf(0x01,0x01,0x80), DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test
+    public void zeroUnusedBits() {
+        byte[] raw = bytesOf(0x30,0x80,0x03,0x02,0x03,0xff,0x00,0x00);
+        byte[] expected = bytesOf(0x30,0x04,0x03,0x02,0x03,0xf8);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+        
+        raw = bytesOf(0x23,0x80,0x03,0x02,0x00,0xff,0x03,0x03,0x04,0xff,0xff,0x00,0x00);
+        expected = bytesOf(0x03,0x04,0x04,0xff,0xff,0xf0);
+        assertArrayEquals(expected, transcode(raw, DerTranscoder.DEFAULT_THRESHOLD));
+        assertArrayEquals(expected, transcode(raw, 2));
+    }
+    
+    @Test
+    public void zeroUnusedBitsOfLargeBitString() throws Exception {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        raw.write(bytesOf(0x03,0x82,0x27,0x11,0x01));
+        raw.write(byteTimes(0xff, 10000));
+        byte[] result = transcode(raw.toByteArray(), DerTranscoder.DEFAULT_THRESHOLD);
+        assertEquals(10005, result.length);
+        assertEquals((byte)0xff, result[10003]);
+        assertEquals((byte)0xfe, result[10004]);
+    }
+    
+    @Test
+    public void rejectNonDerPrimitives() {
+        byte[][] invalid = new byte[][] {
+            bytesOf(0x01,0x02,0x00,0x00),
+            bytesOf(0x05,0x01,0x00),
+            bytesOf(0x02,0x00),
+            bytesOf(0x02,0x02,0x00,0x7f),
+            bytesOf(0x0a,0x02,0xff,0x80),
+            bytesOf(0x03,0x00),
+            bytesOf(0x03,0x02,0x08,0x00),
+            bytesOf(0x03,0x01,0x01),
+            bytesOf(0x23,0x80,0x03,0x01,0x02,0x00,0x00),
+            time(0x17, "1010070800Z"),
+            time(0x18, "20101007080000+01")
+        };
+        for (byte[] raw : invalid) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                new DerTranscoder(DerTranscoder.DEFAULT_THRESHOLD).transcode(new ByteArrayInputStream(raw), baos);
+                fail("ParseException expected");
+            }
+            catch (ParseException ex) {
+                assertEquals(0, baos.size());
+            }
+        }
+    }
+    
+    @Test
+    public void acceptDerPrimitives() {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        raw.write(bytesOf(0x30,0x1f,0x02,0x02,0x00,0x80,0x02,0x02,0xff,0x7f,0x02,0x01,0x00), 0, 13);
+        raw.write(time(0x17, "101007080000Z"), 0, 15);
+        raw.write(bytesOf(0x05,0x00,0x03,0x01,0x00), 0, 5);
+        assertArrayEquals(raw.toByteArray(), transcode(raw.toByteArray(), DerTranscoder.DEFAULT_THRESHOLD));
+    }
+    
+    @Test(expected=ParseException.class)
+    public void prematureEof() {
+        transcode(bytesOf(0x30,0x80,0x05,0x00), DerTranscoder.DEFAULT_THRESHOLD);
+    }
+    
+    private static byte[] time(int tag, String value) {
+        byte[] ret = new byte[value.length() + 2];
+        ret[0] = (byte)tag;
+        ret[1] = (byte)value.length();
+        for (int i = 0; i < value.length(); i++) {
+            ret[i + 2] = (byte)value.charAt(i);
+        }
+        return ret;
+    }
+    
+    private static byte[] transcode(byte[] raw, int threshold) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new DerTranscoder(threshold).transcode(new ByteArrayInputStream(raw), baos);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,178 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import org.jruby.ext.krypt.asn1.resources.Resources;
+import org.jruby.ext.krypt.asn1.tools.Dumper;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class DumperTest {
+    
+    /* SEQUENCE(inf) { OCTET STRING(inf) { 01 02, 03 }, INTEGER 5 }, NULL */
+    private static final byte[] NESTED = bytesOf(0x30,0x80,
+                                                   0x24,0x80,
+                                                     0x04,0x02,0x01,0x02,
+                                                     0x04,0x01,0x03,
+                                                   0x00,0x00,
+                                                   0x02,0x01,0x05,
+                                                 0x00,0x00,
+                                                 0x05,0x00);
+    
+    @Test
+    public void dumpCertificate() throws Exception {
+        String[] lines = dump(Resources.read(Resources.certificate())).split("\n");
+        assertEquals("       0:d=0  hl=4  l=   829 cons: SEQUENCE", lines[0]);
+        assertEquals("      10:d=3  hl=2  l=     1 prim:    INTEGER           :02", lines[3]);
+        assertEquals("      18:d=3  hl=2  l=     9 prim:    OBJECT            :1.2.840.113549.1.1.4", lines[6]);
+        assertEquals("      29:d=3  hl=2  l=     0 prim:    NULL", lines[7]);
+        assertEquals("      49:d=5  hl=2  l=     3 prim:      IA5STRING         :org", lines[12]);
+    }
+    
+    @Test
+    public void dumpInfiniteLength() throws Exception {
+        String[] lines = dump(NESTED).split("\n");
+        assertEquals(8, lines.length);
+        assertEquals("       0:d=0  hl=2  l=   inf cons: SEQUENCE", lines[0]);
+        assertEquals("       2:d=1  hl=2  l=   inf cons:  OCTET STRING", lines[1]);
+        assertEquals("       4:d=2  hl=2  l=     2 prim:   OCTET STRING      :0102", lines[2]);
+        assertEquals("      11:d=2  hl=2  l=     0 prim:   EOC", lines[4]);
+        assertEquals("      13:d=1  hl=2  l=     1 prim:  INTEGER           :05", lines[5]);
+        assertEquals("      16:d=1  hl=2  l=     0 prim:  EOC", lines[6]);
+        assertEquals("      18:d=0  hl=2  l=     0 prim: NULL", lines[7]);
+    }
+    
+    @Test
+    public void limitDepth() throws Exception {
+        String[] lines = dump(NESTED, 1, 0, Dumper.DEFAULT_PREVIEW).split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[1], lines[1].endsWith("OCTET STRING"));
+        assertTrue(lines[2], lines[2].endsWith("INTEGER           :05"));
+        assertTrue(lines[4], lines[4].endsWith("NULL"));
+        
+        assertEquals(2, dump(NESTED, 0, 0, Dumper.DEFAULT_PREVIEW).split("\n").length);
+    }
+    
+    @Test
+    public void limitRange() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        Dumper dumper = new Dumper(sb);
+        dumper.setRange(94, 126);
+        dumper.dump(Resources.certificate());
+        String[] lines = sb.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("      94:d=2 "));
+        assertTrue(lines[2], lines[2].endsWith(":111029160632Z"));
+    }
+    
+    @Test
+    public void rangeSkipsValuesWithoutReading() throws Exception {
+        byte[] big = bytesOf(0x04,0x82,0x40,0x00);
+        byte[] input = new byte[big.length + 0x4000 + 2];
+        System.arraycopy(big, 0, input, 0, big.length);
+        input[input.length - 2] = 0x05;
+        
+        ReadCountingStream in = new ReadCountingStream(input);
+        StringBuilder sb = new StringBuilder();
+        Dumper dumper = new Dumper(sb);
+        dumper.setRange(1, Long.MAX_VALUE);
+        assertEquals(1, dumper.dump(in));
+        assertEquals("   16388:d=0  hl=2  l=     0 prim: NULL\n", sb.toString());
+        assertTrue(String.valueOf(in.read), in.read < 16);
+    }
+    
+    @Test
+    public void truncatePreview() throws Exception {
+        String s = dump(bytesOf(0x04,0x04,0x0a,0x0b,0x0c,0x0d,0x13,0x03,0x61,0x62,0x01), Integer.MAX_VALUE, 0, 2);
+        assertTrue(s, s.contains("OCTET STRING      :0A0B...\n"));
+        assertTrue(s, s.contains("PRINTABLESTRING   :ab...\n"));
+        
+        assertTrue(dump(bytesOf(0x04,0x01,0x0a), Integer.MAX_VALUE, 0, 0).endsWith("prim: OCTET STRING\n"));
+    }
+    
+    @Test
+    public void malformedInputReportsOffset() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exit = Dumper.run(new String[0], new ByteArrayInputStream(bytesOf(0x05,0x00,0x30,0x05,0x02)), 
+                              new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+        assertEquals(1, exit);
+        assertTrue(out.toString("UTF-8").contains("NULL"));
+        assertTrue(err.toString("UTF-8"), err.toString("UTF-8").startsWith("Offset 4:"));
+        
+        assertEquals(2, Dumper.run(new String[] { "-s", "10", "-e", "5" }, new ByteArrayInputStream(new byte[0]), 
+                                   new PrintStream(out), new PrintStream(err)));
+    }
+    
+    private static String dump(byte[] input) throws IOException {
+        return dump(input, Integer.MAX_VALUE, 0, Dumper.DEFAULT_PREVIEW);
+    }
+    
+    private static String dump(byte[] input, int maxDepth, long start, int preview) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Dumper dumper = new Dumper(sb);
+        dumper.setMaxDepth(maxDepth);
+        dumper.setRange(start, Long.MAX_VALUE);
+        dumper.setPreview(preview);
+        dumper.dump(new ByteArrayInputStream(input));
+        return sb.toString();
+    }
+    
+    private static class ReadCountingStream extends ByteArrayInputStream {
+        
+        private int read;
+        
+        ReadCountingStream(byte[] b) {
+            super(b);
+        }
+
+        @Override
+        public synchronized int read() {
+            read++;
+            return super.read();
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                read += n;
+            return n;
+        }
+    }
+    
+}
@@ -0,0 +1,179 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import org.jruby.ext.krypt.asn1.resources.Resources;
+import org.jruby.ext.krypt.asn1.tools.JsonConverter;
+import org.jruby.ext.krypt.asn1.tools.JsonConverter.ValueFormat;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class JsonConverterTest {
+    
+    private static String convert(byte[] input, ValueFormat format, boolean lines) throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonConverter converter = new JsonConverter(sw);
+        converter.setValueFormat(format);
+        converter.setJsonLines(lines);
+        converter.convert(new ByteArrayInputStream(input));
+        return sw.toString();
+    }
+    
+    @Test
+    public void convertHex() throws Exception {
+        String json = convert(bytesOf(0x30,0x06,0x02,0x01,0x05,0x01,0x01,0xff), ValueFormat.HEX, false);
+        assertEquals("[{\"tag\":16,\"class\":\"UNIVERSAL\",\"constructed\":true,\"length\":6,\"children\":[" +
+                     "{\"tag\":2,\"class\":\"UNIVERSAL\",\"constructed\":false,\"length\":1,\"hex\":\"05\"}," +
+                     "{\"tag\":1,\"class\":\"UNIVERSAL\",\"constructed\":false,\"length\":1,\"hex\":\"ff\"}]}]\n", json);
+    }
+    
+    @Test
+    public void convertInfiniteLength() throws Exception {
+        byte[] ber = bytesOf(0xa1,0x80,0x24,0x80,0x04,0x02,0x01,0x02,0x04,0x00,0x00,0x00,0x05,0x00,0x00,0x00);
+        String json = convert(ber, ValueFormat.HEX, false);
+        assertEquals("[{\"tag\":1,\"class\":\"CONTEXT_SPECIFIC\",\"constructed\":true,\"length\":null,\"children\":[" +
+                     "{\"tag\":4,\"class\":\"UNIVERSAL\",\"constructed\":true,\"length\":null,\"children\":[" +
+                     "{\"tag\":4,\"class\":\"UNIVERSAL\",\"constructed\":false,\"length\":2,\"hex\":\"0102\"}," +
+                     "{\"tag\":4,\"class\":\"UNIVERSAL\",\"constructed\":false,\"length\":0,\"hex\":\"\"}]}," +
+                     "{\"tag\":5,\"class\":\"UNIVERSAL\",\"constructed\":false,\"length\":0,\"hex\":\"\"}]}]\n", json);
+    }
+    
+    @Test
+    public void convertEmptyConstructed() throws Exception {
+        String seq = "{\"tag\":16,\"class\":\"UNIVERSAL\",\"constructed\":true,";
+        String five = "{\"tag\":2,\"class\":\"UNIVERSAL\",\"constructed\":false,\"length\":1,\"hex\":\"05\"}";
+        
+        assertEquals("[" + seq + "\"length\":0,\"children\":[]}," + five + "]\n",
+                     convert(bytesOf(0x30,0x00,0x02,0x01,0x05), ValueFormat.HEX, false));
+        assertEquals("[" + seq + "\"length\":5,\"children\":[" + 
+                     seq + "\"length\":0,\"children\":[]}," + five + "]}]\n",
+                     convert(bytesOf(0x30,0x05,0x30,0x00,0x02,0x01,0x05), ValueFormat.HEX, false));
+        assertEquals("[" + seq + "\"length\":null,\"children\":[" + 
+                     seq + "\"length\":null,\"children\":[]}," + five + "]}," + 
+                     seq + "\"length\":0,\"children\":[]}]\n",
+                     convert(bytesOf(0x30,0x80,0x30,0x80,0x00,0x00,0x02,0x01,0x05,0x00,0x00,0x30,0x00), ValueFormat.HEX, false));
+    }
+    
+    @Test
+    public void convertTyped() throws Exception {
+        byte[] input = bytesOf(0x02,0x01,0xfb,
+                               0x02,0x09,0x01,0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
+                               0x01,0x01,0xff,
+                               0x05,0x00,
+                               0x06,0x03,0x55,0x04,0x03,
+                               0x17,0x0d,0x31,0x31,0x31,0x30,0x32,0x39,0x31,0x35,0x33,0x36,0x33,0x32,0x5a,
+                               0x13,0x03,0x61,0x22,0x62,
+                               0x0c,0x02,0xc3,0xa4,
+                               0x01,0x02,0x00,0x00,
+                               0x03,0x02,0x00,0xf0);
+        String[] lines = convert(input, ValueFormat.TYPED, true).split("\n");
+        assertEquals(10, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("\"value\":-5}"));
+        assertTrue(lines[1], lines[1].endsWith("\"value\":18446744073709551616}"));
+        assertTrue(lines[2], lines[2].endsWith("\"value\":true}"));
+        assertTrue(lines[3], lines[3].endsWith("\"value\":null}"));
+        assertTrue(lines[4], lines[4].endsWith("\"value\":\"2.5.4.3\"}"));
+        assertTrue(lines[5], lines[5].endsWith("\"value\":\"2011-10-29T15:36:32.000Z\"}"));
+        assertTrue(lines[6], lines[6].endsWith("\"value\":\"a\\\"b\"}"));
+        assertTrue(lines[7], lines[7].endsWith("\"value\":\"\u00e4\"}"));
+        assertTrue(lines[8], lines[8].endsWith("\"hex\":\"0000\"}"));
+        assertTrue(lines[9], lines[9].endsWith("\"hex\":\"00f0\"}"));
+    }
+    
+    @Test
+    public void convertTypedCertificate() throws Exception {
+        String json = convert(Resources.read(Resources.certificate()), ValueFormat.TYPED, false);
+        assertTrue(json.startsWith("[{\"tag\":16,\"class\":\"UNIVERSAL\",\"constructed\":true,\"length\":829,"));
+        assertTrue(json.contains("\"value\":\"1.2.840.113549.1.1.4\""));
+        assertTrue(json.contains("\"value\":\"ruby-lang\""));
+        assertTrue(json.endsWith("]}]\n"));
+    }
+    
+    @Test
+    public void convertBase64() throws Exception {
+        assertTrue(convert(bytesOf(0x04,0x00), ValueFormat.BASE64, true).endsWith("\"base64\":\"\"}\n"));
+        assertTrue(convert(bytesOf(0x04,0x01,0x66), ValueFormat.BASE64, true).endsWith("\"base64\":\"Zg==\"}\n"));
+        assertTrue(convert(bytesOf(0x04,0x02,0x66,0x6f), ValueFormat.BASE64, true).endsWith("\"base64\":\"Zm8=\"}\n"));
+        assertTrue(convert(bytesOf(0x04,0x03,0x66,0x6f,0x6f), ValueFormat.BASE64, true).endsWith("\"base64\":\"Zm9v\"}\n"));
+        assertTrue(convert(bytesOf(0x04,0x06,0x66,0x6f,0x6f,0x62,0x61,0x72), ValueFormat.BASE64, true).endsWith("\"base64\":\"Zm9vYmFy\"}\n"));
+        
+        byte[] large = new byte[4 + 20000];
+        large[0] = 0x04;
+        large[1] = (byte)0x82;
+        large[2] = 0x4e;
+        large[3] = 0x20;
+        large[large.length - 1] = (byte)0xff;
+        String json = convert(large, ValueFormat.BASE64, true);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 6666; i++)
+            expected.append("AAAA");
+        expected.append("AP8=");
+        assertTrue(json.endsWith("\"base64\":\"" + expected + "\"}\n"));
+    }
+    
+    @Test
+    public void jsonLinesPerTopLevelValue() throws Exception {
+        byte[] input = bytesOf(0x30,0x03,0x02,0x01,0x01,0x30,0x80,0x05,0x00,0x00,0x00);
+        String json = convert(input, ValueFormat.HEX, true);
+        String[] lines = json.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("{\"tag\":16") && lines[0].endsWith("]}"));
+        assertTrue(lines[1], lines[1].contains("\"length\":null,\"children\":[{\"tag\":5,"));
+        assertEquals("", convert(new byte[0], ValueFormat.HEX, true));
+        assertEquals("[]\n", convert(new byte[0], ValueFormat.HEX, false));
+    }
+    
+    @Test
+    public void truncatedInputFails() throws Exception {
+        try {
+            convert(bytesOf(0x30,0x80,0x05,0x00), ValueFormat.HEX, false);
+            fail("ParseException expected");
+        }
+        catch (ParseException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Offset 4:"));
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(new ByteArrayOutputStream());
+        assertEquals(1, JsonConverter.run(new String[0], new ByteArrayInputStream(bytesOf(0x30,0x05,0x02)), new PrintStream(out), err));
+        assertEquals(2, JsonConverter.run(new String[] { "-f", "xml" }, new ByteArrayInputStream(new byte[0]), new PrintStream(out), err));
+        assertEquals(0, JsonConverter.run(new String[] { "-l", "-f", "typed" }, new ByteArrayInputStream(bytesOf(0x02,0x01,0x07)), new PrintStream(out), err));
+        assertTrue(out.toString("UTF-8").endsWith("\"value\":7}\n"));
+    }
+    
+}
@@ -0,0 +1,170 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.jruby.ext.krypt.asn1.encode.Sequence;
+import org.jruby.ext.krypt.asn1.metrics.CountingMetrics;
+import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
+import org.jruby.ext.krypt.asn1.resources.Resources;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class MetricsTest {
+    
+    private static final byte[] CHUNKED = bytesOf(0x24,0x80,0x04,0x03,0x01,0x02,0x03,0x04,0x02,0x04,0x05,0x00,0x00);
+    
+    @Test
+    public void countHeadersAndSkippedBytes() throws Exception {
+        byte[] raw = bytesOf(0x30,0x06,0x02,0x01,0x01,0x04,0x01,0x41,0x05,0x00);
+        CountingMetrics metrics = new CountingMetrics();
+        Parser p = new ParserFactory(metrics).newHeaderParser();
+        InputStream in = new ByteArrayInputStream(raw);
+        ParsedHeader h;
+        while ((h = p.next(in)) != null) {
+            if (!h.isConstructed())
+                h.skipValue();
+        }
+        assertEquals(4, metrics.getHeadersParsed());
+        assertEquals(2, metrics.getValueBytesSkipped());
+        assertEquals(0, metrics.getValueBytesCopied());
+    }
+    
+    @Test
+    public void skipValueSkipsWholeDefiniteValue() throws Exception {
+        byte[] raw = bytesOf(0x04,0x03,0x01,0x02,0x03,0x05,0x00);
+        Parser p = new ParserFactory().newHeaderParser();
+        InputStream in = new ByteArrayInputStream(raw);
+        p.next(in).skipValue();
+        ParsedHeader h = p.next(in);
+        assertEquals(Tags.NULL, h.getTag());
+        assertNull(p.next(in));
+    }
+    
+    @Test(expected=ParseException.class)
+    public void skipValueDetectsTruncatedFileInput() throws Exception {
+        File file = File.createTempFile("asn1truncated", null);
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytesOf(0x04,0x82,0x10,0x00,0x61,0x62,0x63));
+        }
+        finally {
+            out.close();
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            new ParserFactory(new CountingMetrics()).newHeaderParser().next(in).skipValue();
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    @Test
+    public void skipValueSkipsChunks() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        Parser p = new ParserFactory(metrics).newHeaderParser();
+        InputStream in = new ByteArrayInputStream(CHUNKED);
+        p.next(in).skipValue();
+        assertNull(p.next(in));
+        assertEquals(CHUNKED.length - 2, metrics.getValueBytesSkipped());
+        assertEquals(3, metrics.getChunksParsed());
+        assertEquals(4, metrics.getHeadersParsed());
+    }
+    
+    @Test
+    public void countCopiedAndReadBytes() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        Parser p = new ParserFactory(metrics).newHeaderParser();
+        assertArrayEquals(bytesOf(0x01,0x02,0x03), 
+                          p.next(new ByteArrayInputStream(bytesOf(0x04,0x03,0x01,0x02,0x03))).getValue());
+        assertEquals(3, metrics.getValueBytesCopied());
+        
+        InputStream value = p.next(new ByteArrayInputStream(CHUNKED)).getValueStream(true);
+        assertEquals(5, consume(value).length);
+        assertEquals(5, metrics.getValueBytesRead());
+    }
+    
+    @Test
+    public void countParsedElementsAndDepth() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        InputStream in = Resources.certificate();
+        try {
+            assertNotNull(new Asn1Parser(new ParserFactory(metrics)).parse(in));
+        }
+        finally {
+            in.close();
+        }
+        assertEquals(1, metrics.getParses());
+        assertEquals(metrics.getHeadersParsed(), metrics.getElementsParsed());
+        assertTrue(metrics.getMaxDepth() > 2);
+        assertTrue(metrics.getParseNanos() > 0);
+    }
+    
+    @Test
+    public void countSerializedElementsAndBytes() throws Exception {
+        List<Asn1> contents = new ArrayList<Asn1>();
+        contents.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)));
+        contents.add(new PrimitiveValue(Tags.OCTET_STRING, bytesOf(0x41, 0x42)));
+        CountingMetrics metrics = new CountingMetrics();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(new Sequence(contents), baos, metrics);
+        
+        assertEquals(3, metrics.getElementsSerialized());
+        assertEquals(1, metrics.getSerializations());
+        assertEquals(baos.size(), metrics.getBytesSerialized());
+        
+        metrics.reset();
+        assertEquals(0, metrics.getElementsSerialized());
+        assertEquals(0, metrics.getBytesSerialized());
+    }
+    
+    @Test
+    public void noMetricsByDefault() throws Exception {
+        assertNull(new ParserFactory().getMetrics());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(new PrimitiveValue(Tags.NULL, null), baos, null);
+        assertArrayEquals(bytesOf(0x05,0x00), baos.toByteArray());
+    }
+    
+}
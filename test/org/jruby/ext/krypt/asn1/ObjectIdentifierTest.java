@@ -0,0 +1,116 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.math.BigInteger;
+import org.jruby.ext.krypt.asn1.decode.ObjectIdentifier;
+import org.jruby.ext.krypt.asn1.decode.ObjectIdentifierCache;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ObjectIdentifierTest {
+    
+    private static final byte[] SHA256_WITH_RSA = bytesOf(0x2a,0x86,0x48,0x86,0xf7,0x0d,0x01,0x01,0x0b);
+    
+    @Test
+    public void decode() {
+        ObjectIdentifier oid = ObjectIdentifier.decode(new PrimitiveValue(Tags.OBJECT_IDENTIFIER, SHA256_WITH_RSA));
+        assertEquals("1.2.840.113549.1.1.11", oid.toString());
+        assertArrayEquals(new long[] { 1, 2, 840, 113549, 1, 1, 11 }, oid.getArcs());
+        assertEquals(7, oid.getArcCount());
+        assertArrayEquals(SHA256_WITH_RSA, oid.getEncoding());
+    }
+    
+    @Test
+    public void decodeJointIsoItuT() {
+        assertEquals("2.999.3", ObjectIdentifier.decodeUncached(bytesOf(0x88,0x37,0x03), 0, 3).toString());
+        assertEquals("0.9.2342", ObjectIdentifier.decodeUncached(bytesOf(0x09,0x92,0x26), 0, 3).toString());
+    }
+    
+    @Test
+    public void decodeArcLargerThanLong() {
+        BigInteger uuid = new BigInteger("329800735698586629295641978511506172918");
+        byte[] enc = new byte[20];
+        int pos = enc.length;
+        enc[--pos] = (byte) (uuid.intValue() & 0x7f);
+        for (BigInteger v = uuid.shiftRight(7); v.signum() > 0; v = v.shiftRight(7))
+            enc[--pos] = (byte) (0x80 | (v.intValue() & 0x7f));
+        enc[--pos] = 0x69; //2.25
+        ObjectIdentifier oid = ObjectIdentifier.decodeUncached(enc, pos, enc.length - pos);
+        assertEquals("2.25." + uuid, oid.toString());
+        assertEquals(3, oid.getArcCount());
+        assertEquals(25, oid.getArc(1));
+        try {
+            oid.getArcs();
+            fail();
+        } catch (ArithmeticException ex) {
+            //expected
+        }
+    }
+    
+    @Test
+    public void interned() {
+        byte[] buf = new byte[SHA256_WITH_RSA.length + 3];
+        System.arraycopy(SHA256_WITH_RSA, 0, buf, 3, SHA256_WITH_RSA.length);
+        ObjectIdentifierCache cache = new ObjectIdentifierCache();
+        ObjectIdentifier first = cache.get(SHA256_WITH_RSA, 0, SHA256_WITH_RSA.length);
+        assertSame(first, cache.get(buf, 3, SHA256_WITH_RSA.length));
+        assertEquals(first, ObjectIdentifier.decodeUncached(SHA256_WITH_RSA, 0, SHA256_WITH_RSA.length));
+    }
+    
+    @Test
+    public void cacheIsBounded() {
+        ObjectIdentifierCache cache = new ObjectIdentifierCache(4);
+        assertEquals(4, cache.capacity());
+        for (int i = 0; i < 100; i++) {
+            byte[] enc = bytesOf(0x2a, 0x81, i & 0x7f);
+            assertEquals("1.2." + (128 + (i & 0x7f)), cache.get(enc, 0, enc.length).toString());
+        }
+    }
+    
+    @Test(expected=ParseException.class)
+    public void truncatedArc() {
+        ObjectIdentifier.decodeUncached(bytesOf(0x2a,0x86), 0, 2);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void nonMinimalArc() {
+        ObjectIdentifier.decodeUncached(bytesOf(0x2a,0x80,0x01), 0, 3);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void empty() {
+        ObjectIdentifier.decode(new byte[0], 0, 0);
+    }
+}
@@ -32,6 +32,9 @@ import java.io.ByteArrayOutputStream;
 import org.jruby.ext.krypt.asn1.resources.Resources;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.jruby.ext.krypt.asn1.parser.DigestingParser;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import static org.jruby.ext.krypt.asn1.Utils.*;
@@ -195,4 +198,78 @@ public class ParserTest {
         baos.write(result);
         assertArrayEquals(bytesOf(0x01,0x02), baos.toByteArray());
     }
+    
+    @Test
+    public void digestTbsCertificate() throws Exception {
+        byte[] raw = Resources.read(Resources.certificate());
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        DigestingParser p = new DigestingParser();
+        p.digestPath(new int[] { 0, 0 }, digest);
+        
+        InputStream in = new ByteArrayInputStream(raw);
+        ParsedHeader token;
+        ParsedHeader tbs = null;
+        int numTokens = 0;
+        while ((token = p.next(in)) != null) {
+            if (numTokens++ == 1)
+                tbs = token;
+            if (!token.isConstructed())
+                token.skipValue();
+        }
+        
+        int tbsLength = tbs.getHeaderLength() + tbs.getLength();
+        MessageDigest expected = MessageDigest.getInstance("SHA-256");
+        expected.update(raw, 4, tbsLength);
+        assertArrayEquals(expected.digest(), digest.digest());
+    }
+    
+    @Test
+    public void digestInfiniteLengthByDepthAndPath() throws Exception {
+        byte[] raw = bytesOf(0x30,0x80,0x02,0x01,0x01,0x30,0x80,0x05,0x00,0x00,0x00,0x00,0x00,0x05,0x00);
+        MessageDigest depth = MessageDigest.getInstance("SHA-1");
+        MessageDigest path = MessageDigest.getInstance("SHA-1");
+        MessageDigest topLevel = MessageDigest.getInstance("SHA-1");
+        DigestingParser p = new DigestingParser();
+        p.digestDepth(1, depth);
+        p.digestPath(new int[] { 0, 1 }, path);
+        p.digestPath(new int[] { 1 }, topLevel);
+        
+        InputStream in = new ByteArrayInputStream(raw);
+        ParsedHeader token;
+        while ((token = p.next(in)) != null) {
+            if (!token.isConstructed())
+                consume(token.getValueStream(false));
+        }
+        
+        assertArrayEquals(sha1(bytesOf(0x02,0x01,0x01,0x30,0x80,0x05,0x00,0x00,0x00)), depth.digest());
+        assertArrayEquals(sha1(bytesOf(0x30,0x80,0x05,0x00,0x00,0x00)), path.digest());
+        assertArrayEquals(sha1(bytesOf(0x05,0x00)), topLevel.digest());
+    }
+    
+    @Test
+    public void readChunkedValueStreamAcrossChunks() throws Exception {
+        byte[] raw = bytesOf(0x24,0x80,0x04,0x03,0x01,0x02,0x03,0x04,0x02,0x04,0x05,0x00,0x00);
+        byte[] buf = new byte[16];
+        
+        Parser p = new ParserFactory().newHeaderParser();
+        InputStream value = p.next(new ByteArrayInputStream(raw)).getValueStream(true);
+        assertEquals(4, value.read(buf, 12, 4));
+        assertArrayEquals(bytesOf(0x01,0x02,0x03,0x04), Arrays.copyOfRange(buf, 12, 16));
+        assertEquals(1, value.read(buf, 0, 16));
+        assertEquals(0x05, buf[0]);
+        assertEquals(-1, value.read(buf, 0, 16));
+        
+        p = new ParserFactory().newHeaderParser();
+        value = p.next(new ByteArrayInputStream(raw)).getValueStream(false);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int read;
+        while ((read = value.read(buf, 0, 3)) != -1)
+            baos.write(buf, 0, read);
+        assertArrayEquals(Arrays.copyOfRange(raw, 2, raw.length), baos.toByteArray());
+    }
+    
+    private static byte[] sha1(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-1").digest(data);
+    }
+
 }
@@ -0,0 +1,121 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.math.BigInteger;
+import org.jruby.ext.krypt.asn1.decode.PrimitiveDecoder;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class PrimitiveDecoderTest {
+    
+    @Test
+    public void decodeInt() {
+        assertEquals(0, PrimitiveDecoder.decodeInt(bytesOf(0x00), 0, 1));
+        assertEquals(127, PrimitiveDecoder.decodeInt(bytesOf(0x7f), 0, 1));
+        assertEquals(128, PrimitiveDecoder.decodeInt(bytesOf(0x00,0x80), 0, 2));
+        assertEquals(-128, PrimitiveDecoder.decodeInt(bytesOf(0x80), 0, 1));
+        assertEquals(-129, PrimitiveDecoder.decodeInt(bytesOf(0xff,0x7f), 0, 2));
+        assertEquals(Integer.MAX_VALUE, PrimitiveDecoder.decodeInt(bytesOf(0x7f,0xff,0xff,0xff), 0, 4));
+        assertEquals(Integer.MIN_VALUE, PrimitiveDecoder.decodeInt(bytesOf(0x80,0x00,0x00,0x00), 0, 4));
+        assertEquals(256, PrimitiveDecoder.decodeInt(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01,0x00))));
+    }
+    
+    @Test
+    public void decodeRedundantLeadingOctets() {
+        assertEquals(1, PrimitiveDecoder.decodeInt(bytesOf(0x00,0x00,0x00,0x00,0x00,0x01), 0, 6));
+        assertEquals(-1, PrimitiveDecoder.decodeInt(bytesOf(0xff,0xff,0xff,0xff,0xff,0xff), 0, 6));
+    }
+    
+    @Test
+    public void decodeSlice() {
+        byte[] buf = bytesOf(0x02,0x02,0x01,0x00,0x05,0x00);
+        assertEquals(256, PrimitiveDecoder.decodeInt(buf, 2, 2));
+        assertEquals(256L, PrimitiveDecoder.decodeLong(buf, 2, 2));
+        assertEquals(BigInteger.valueOf(256), PrimitiveDecoder.decodeBigInteger(buf, 2, 2));
+        assertSame(PrimitiveDecoder.Null.INSTANCE, PrimitiveDecoder.decodeNull(buf, 6, 0));
+    }
+    
+    @Test
+    public void decodeLongBoundaries() {
+        assertEquals(Long.MAX_VALUE, PrimitiveDecoder.decodeLong(bytesOf(0x7f,0xff,0xff,0xff,0xff,0xff,0xff,0xff), 0, 8));
+        assertEquals(Long.MIN_VALUE, PrimitiveDecoder.decodeLong(bytesOf(0x80,0x00,0x00,0x00,0x00,0x00,0x00,0x00), 0, 8));
+        assertTrue(PrimitiveDecoder.isLong(bytesOf(0x00,0x80,0x00,0x00,0x00,0x00,0x00,0x00,0x00), 0, 8));
+        assertFalse(PrimitiveDecoder.isLong(bytesOf(0x00,0x80,0x00,0x00,0x00,0x00,0x00,0x00,0x00), 0, 9));
+    }
+    
+    @Test(expected=ArithmeticException.class)
+    public void intOverflow() {
+        PrimitiveDecoder.decodeInt(bytesOf(0x00,0x80,0x00,0x00,0x00), 0, 5);
+    }
+    
+    @Test(expected=ArithmeticException.class)
+    public void longOverflow() {
+        PrimitiveDecoder.decodeLong(bytesOf(0x00,0x80,0x00,0x00,0x00,0x00,0x00,0x00,0x00), 0, 9);
+    }
+    
+    @Test
+    public void decodeIntegerFallsBackToBigInteger() {
+        byte[] big = bytesOf(0x00,0x80,0x00,0x00,0x00,0x00,0x00,0x00,0x00);
+        assertEquals(Long.valueOf(1), PrimitiveDecoder.decodeInteger(bytesOf(0x01), 0, 1));
+        assertEquals(new BigInteger(big), PrimitiveDecoder.decodeInteger(big, 0, big.length));
+    }
+    
+    @Test(expected=ParseException.class)
+    public void emptyInteger() {
+        PrimitiveDecoder.decodeInt(new byte[0], 0, 0);
+    }
+    
+    @Test
+    public void decodeBoolean() {
+        assertSame(Boolean.TRUE, PrimitiveDecoder.decodeBoolean(bytesOf(0xff), 0, 1));
+        assertSame(Boolean.TRUE, PrimitiveDecoder.decodeBoolean(bytesOf(0x01), 0, 1));
+        assertSame(Boolean.FALSE, PrimitiveDecoder.decodeBoolean(bytesOf(0x00), 0, 1));
+    }
+    
+    @Test
+    public void decodeNull() {
+        assertSame(PrimitiveDecoder.Null.INSTANCE, PrimitiveDecoder.decodeNull(new PrimitiveValue(Tags.NULL, null)));
+    }
+    
+    @Test(expected=ParseException.class)
+    public void nullWithContent() {
+        PrimitiveDecoder.decodeNull(bytesOf(0x00), 0, 1);
+    }
+    
+    @Test
+    public void decodeEnumerated() {
+        assertEquals(3, PrimitiveDecoder.decodeEnumerated(new PrimitiveValue(Tags.ENUMERATED, bytesOf(0x03))));
+    }
+}
@@ -0,0 +1,166 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import org.jruby.ext.krypt.asn1.decode.ObjectIdentifier;
+import org.jruby.ext.krypt.asn1.decode.PrimitiveDecoder;
+import org.jruby.ext.krypt.asn1.decode.TimeDecoder;
+import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveWriter;
+import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class PrimitiveWriterTest {
+    
+    private static Primitive parse(byte[] encoding) {
+        return (Primitive) new Asn1Parser(new ParserFactory()).parse(new ByteArrayInputStream(encoding));
+    }
+    
+    @Test
+    public void writeHeader() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeHeader(baos, Tags.SEQUENCE, TagClass.UNIVERSAL, true, 3);
+        PrimitiveWriter.writeHeader(baos, 1, TagClass.CONTEXT_SPECIFIC, false, 300);
+        PrimitiveWriter.writeHeader(baos, 200, TagClass.APPLICATION, true, 0);
+        PrimitiveWriter.writeInfiniteLengthHeader(baos, Tags.OCTET_STRING, TagClass.UNIVERSAL);
+        assertArrayEquals(bytesOf(0x30,0x03, 0x81,0x82,0x01,0x2c, 0x7f,0x81,0x48,0x00, 0x24,0x80), baos.toByteArray());
+        assertEquals(2, PrimitiveWriter.headerLength(Tags.SEQUENCE, 3));
+        assertEquals(4, PrimitiveWriter.headerLength(1, 300));
+        assertEquals(4, PrimitiveWriter.headerLength(200, 0));
+    }
+    
+    @Test
+    public void writeLongInteger() {
+        long[] values = { 0, 1, -1, 127, 128, -128, -129, 255, 256, 65535, Integer.MAX_VALUE,
+                          Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+        for (long value : values) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            Asn1Serializer.serialize(new PrimitiveValue(Tags.INTEGER, BigInteger.valueOf(value).toByteArray()), expected);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrimitiveWriter.writeInteger(baos, value);
+            assertArrayEquals(expected.toByteArray(), baos.toByteArray());
+            assertEquals(baos.size(), PrimitiveWriter.integerLength(value));
+            assertEquals(value, PrimitiveDecoder.decodeLong(parse(baos.toByteArray())));
+        }
+    }
+    
+    @Test
+    public void writeBigInteger() {
+        BigInteger big = BigInteger.ONE.shiftLeft(100).negate();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeInteger(baos, big);
+        PrimitiveWriter.writeInteger(baos, BigInteger.TEN);
+        assertEquals(baos.size(), PrimitiveWriter.integerLength(big) + PrimitiveWriter.integerLength(BigInteger.TEN));
+        byte[] bytes = baos.toByteArray();
+        assertEquals(big, PrimitiveDecoder.decodeBigInteger(bytes, 2, bytes[1]));
+        assertArrayEquals(bytesOf(0x02,0x01,0x0a), Arrays.copyOfRange(bytes, bytes.length - 3, bytes.length));
+    }
+    
+    @Test
+    public void writeImplicitInteger() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeInteger(baos, 0, TagClass.CONTEXT_SPECIFIC, 2);
+        assertArrayEquals(bytesOf(0x80,0x01,0x02), baos.toByteArray());
+    }
+    
+    @Test
+    public void writeObjectIdentifier() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeObjectIdentifier(baos, 1, 2, 840, 113549, 1, 1, 11);
+        assertArrayEquals(bytesOf(0x06,0x09,0x2a,0x86,0x48,0x86,0xf7,0x0d,0x01,0x01,0x0b), baos.toByteArray());
+        assertEquals(11, PrimitiveWriter.objectIdentifierLength(1, 2, 840, 113549, 1, 1, 11));
+        
+        baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeObjectIdentifier(baos, 2, 999, 0);
+        assertEquals("2.999.0", ObjectIdentifier.decode(parse(baos.toByteArray())).toString());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidObjectIdentifier() {
+        PrimitiveWriter.writeObjectIdentifier(new ByteArrayOutputStream(), 1, 40);
+    }
+    
+    @Test
+    public void writeGeneralizedTime() {
+        long[] values = { 0, 1286438400000L, 1286438400100L, 1286438400120L, 1286438400123L,
+                          -1L, 253402300799999L, -62135596800000L, 951782400000L };
+        for (long value : values) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrimitiveWriter.writeGeneralizedTime(baos, value);
+            assertEquals(baos.size(), PrimitiveWriter.generalizedTimeLength(value));
+            assertEquals(value, TimeDecoder.decodeMillis(parse(baos.toByteArray()), true));
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeGeneralizedTime(baos, 1286438400120L);
+        assertEquals("20101007080000.12Z", new String(baos.toByteArray(), 2, baos.size() - 2));
+    }
+    
+    @Test
+    public void writeUtcTime() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeUtcTime(baos, 1286438400999L);
+        assertEquals(PrimitiveWriter.utcTimeLength(), baos.size());
+        assertEquals("101007080000Z", new String(baos.toByteArray(), 2, baos.size() - 2));
+        assertEquals(1286438400000L, TimeDecoder.decodeMillis(parse(baos.toByteArray()), true));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void utcTimeOutOfRange() {
+        PrimitiveWriter.writeUtcTime(new ByteArrayOutputStream(), 2524608000000L);
+    }
+    
+    @Test
+    public void rejectedTimeWritesNothing() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            PrimitiveWriter.writeUtcTime(baos, 4102444800000L); //2100-01-01
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals(0, baos.size());
+        }
+        try {
+            PrimitiveWriter.writeGeneralizedTime(baos, 253402300800000L); //10000-01-01
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals(0, baos.size());
+        }
+    }
+}
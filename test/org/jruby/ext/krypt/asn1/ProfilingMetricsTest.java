@@ -0,0 +1,209 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.jruby.ext.krypt.asn1.encode.Sequence;
+import org.jruby.ext.krypt.asn1.metrics.ElementProfile;
+import org.jruby.ext.krypt.asn1.metrics.ElementProfile.Metric;
+import org.jruby.ext.krypt.asn1.metrics.LogHistogram;
+import org.jruby.ext.krypt.asn1.metrics.ProfilingMetrics;
+import org.jruby.ext.krypt.asn1.parser.Asn1Parser;
+import org.jruby.ext.krypt.asn1.resources.Resources;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ProfilingMetricsTest {
+    
+    @Test
+    public void histogramBuckets() {
+        assertEquals(0, LogHistogram.bucketOf(0));
+        assertEquals(0, LogHistogram.bucketOf(-5));
+        assertEquals(1, LogHistogram.bucketOf(1));
+        assertEquals(2, LogHistogram.bucketOf(2));
+        assertEquals(2, LogHistogram.bucketOf(3));
+        assertEquals(11, LogHistogram.bucketOf(1024));
+        assertEquals(63, LogHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(1023, LogHistogram.upperBound(10));
+        assertEquals(Long.MAX_VALUE, LogHistogram.upperBound(63));
+    }
+    
+    @Test
+    public void histogramStatistics() {
+        LogHistogram h = new LogHistogram();
+        assertEquals(0, h.getPercentile(50));
+        for (int i = 0; i < 99; i++)
+            h.record(10);
+        h.record(5000);
+        assertEquals(100, h.getCount());
+        assertEquals(99 * 10 + 5000, h.getSum());
+        assertEquals(5000, h.getMax());
+        assertEquals(15, h.getPercentile(50));
+        assertEquals(15, h.getPercentile(99));
+        assertEquals(5000, h.getPercentile(100));
+        assertEquals(99, h.getBucketCount(LogHistogram.bucketOf(10)));
+    }
+    
+    @Test
+    public void mergeHistograms() {
+        LogHistogram a = new LogHistogram(), b = new LogHistogram();
+        a.record(1);
+        b.record(100);
+        b.record(200);
+        a.merge(b);
+        assertEquals(3, a.getCount());
+        assertEquals(301, a.getSum());
+        assertEquals(200, a.getMax());
+        assertEquals(2, b.getCount());
+    }
+    
+    @Test
+    public void profileParsedElements() throws Exception {
+        ProfilingMetrics metrics = new ProfilingMetrics();
+        InputStream in = Resources.certificate();
+        try {
+            new Asn1Parser(new ParserFactory(metrics)).parse(in);
+        }
+        finally {
+            in.close();
+        }
+        ElementProfile profile = metrics.snapshot();
+        LogHistogram seqs = profile.getHistogram(Metric.PARSE_NANOS, TagClass.UNIVERSAL, Tags.SEQUENCE);
+        assertNotNull(seqs);
+        assertTrue(seqs.getCount() > 1);
+        LogHistogram oids = profile.getHistogram(Metric.PARSE_BYTES, TagClass.UNIVERSAL, Tags.OBJECT_IDENTIFIER);
+        assertTrue(oids.getCount() > 1);
+        assertNull(profile.getHistogram(Metric.PARSE_NANOS, TagClass.PRIVATE, 17));
+        assertEquals(0, profile.getHistogram(Metric.ENCODE_NANOS, TagClass.UNIVERSAL, Tags.SEQUENCE).getCount());
+    }
+    
+    @Test
+    public void profileSerializedElementsAcrossThreads() throws Exception {
+        final ProfilingMetrics metrics = new ProfilingMetrics();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10; j++)
+                        Asn1Serializer.serialize(sequence(), new ByteArrayOutputStream(), metrics);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        
+        ElementProfile profile = metrics.snapshot();
+        LogHistogram ints = profile.getHistogram(Metric.ENCODE_BYTES, TagClass.UNIVERSAL, Tags.INTEGER);
+        assertEquals(40, ints.getCount());
+        assertEquals(3, ints.getMax());
+        assertEquals(40, profile.getHistogram(Metric.ENCODE_NANOS, TagClass.UNIVERSAL, Tags.SEQUENCE).getCount());
+        
+        ElementProfile merged = new ElementProfile();
+        merged.merge(profile);
+        merged.merge(profile);
+        assertEquals(80, merged.getHistogram(Metric.ENCODE_BYTES, TagClass.UNIVERSAL, Tags.INTEGER).getCount());
+    }
+    
+    @Test
+    public void keepProfilesOfTerminatedThreads() throws Exception {
+        final ProfilingMetrics metrics = new ProfilingMetrics();
+        for (int i = 0; i < 100; i++) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    Asn1Serializer.serialize(sequence(), new ByteArrayOutputStream(), metrics);
+                }
+            };
+            t.start();
+            t.join();
+            if (i == 50)
+                assertEquals(51, metrics.snapshot().getHistogram(Metric.ENCODE_BYTES, TagClass.UNIVERSAL, Tags.INTEGER).getCount());
+        }
+        
+        ElementProfile profile = metrics.snapshot();
+        assertEquals(100, profile.getHistogram(Metric.ENCODE_BYTES, TagClass.UNIVERSAL, Tags.INTEGER).getCount());
+        assertEquals(100, profile.getHistogram(Metric.ENCODE_NANOS, TagClass.UNIVERSAL, Tags.SEQUENCE).getCount());
+    }
+    
+    @Test
+    public void mergeSimpleAndComplexTags() {
+        ElementProfile a = new ElementProfile(), b = new ElementProfile();
+        a.record(Metric.PARSE_BYTES, TagClass.PRIVATE, 30, 1);
+        b.record(Metric.PARSE_BYTES, TagClass.PRIVATE, 30, 2);
+        b.record(Metric.PARSE_BYTES, TagClass.PRIVATE, 31, 3);
+        b.record(Metric.PARSE_BYTES, TagClass.APPLICATION, 4000, 4);
+        a.merge(b);
+        assertEquals(3, a.getHistogram(Metric.PARSE_BYTES, TagClass.PRIVATE, 30).getSum());
+        assertEquals(3, a.getHistogram(Metric.PARSE_BYTES, TagClass.PRIVATE, 31).getSum());
+        assertEquals(4, a.getHistogram(Metric.PARSE_BYTES, TagClass.APPLICATION, 4000).getSum());
+        assertNull(a.getHistogram(Metric.PARSE_BYTES, TagClass.APPLICATION, 30));
+        
+        String text = a.toString();
+        assertTrue(text, text.indexOf("APPLICATION 4000") < text.indexOf("PRIVATE 30"));
+        assertTrue(text, text.indexOf("PRIVATE 30") < text.indexOf("PRIVATE 31"));
+    }
+    
+    @Test
+    public void writeTextAndCsv() throws Exception {
+        ElementProfile profile = new ElementProfile();
+        profile.record(Metric.PARSE_BYTES, TagClass.CONTEXT_SPECIFIC, 3, 100);
+        profile.record(Metric.PARSE_BYTES, TagClass.CONTEXT_SPECIFIC, 3, 300);
+        profile.record(Metric.PARSE_NANOS, TagClass.UNIVERSAL, Tags.INTEGER, 42);
+        
+        String text = profile.toString();
+        assertTrue(text, text.startsWith("UNIVERSAL 2"));
+        assertTrue(text, text.contains("CONTEXT_SPECIFIC 3 parse-bytes  count=2 mean=200.0 p50<=127 p90<=300 p99<=300 max=300 [127:1 511:1]"));
+        
+        StringBuilder csv = new StringBuilder();
+        profile.writeCsv(csv);
+        String[] lines = csv.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("tag_class,tag,metric,count,sum,mean,p50,p90,p99,max", lines[0]);
+        assertEquals("CONTEXT_SPECIFIC,3,parse-bytes,2,400,200.0,127,300,300,300", lines[2]);
+    }
+    
+    private static Asn1 sequence() {
+        List<Asn1> contents = new ArrayList<Asn1>();
+        contents.add(new PrimitiveValue(Tags.INTEGER, bytesOf(0x01)));
+        contents.add(new PrimitiveValue(Tags.OCTET_STRING, bytesOf(0x41, 0x42)));
+        return new Sequence(contents);
+    }
+    
+}
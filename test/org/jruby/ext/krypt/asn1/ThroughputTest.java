@@ -0,0 +1,148 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import org.jruby.ext.krypt.asn1.corpus.CorpusGenerator;
+import org.jruby.ext.krypt.asn1.tools.Throughput;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.jruby.ext.krypt.asn1.Utils.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class ThroughputTest {
+    
+    private static File dir;
+    private static long size;
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        dir = File.createTempFile("throughput", "");
+        dir.delete();
+        new File(dir, "sub").mkdirs();
+        CorpusGenerator gen = new CorpusGenerator(42);
+        write(new File(dir, "chain.der"), CorpusGenerator.encode(gen.certificateChain(3)));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        gen.writeBer(baos, 10000, 1000);
+        write(new File(dir, "sub/stream.ber"), baos.toByteArray());
+        size = new File(dir, "chain.der").length() + new File(dir, "sub/stream.ber").length();
+    }
+    
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        new File(dir, "chain.der").delete();
+        new File(dir, "sub/stream.ber").delete();
+        new File(dir, "sub").delete();
+        dir.delete();
+    }
+    
+    @Test
+    public void allModesOnDirectory() throws Exception {
+        long elements = -1;
+        for (String mode : new String[] { "tree", "serialize", "scan", "stream" }) {
+            String out = run(0, "-m", mode, "-t", "2", "-i", "3", dir.getPath());
+            assertTrue(out, out.contains("mode        " + mode));
+            assertTrue(out, out.contains("inputs      2 x 3 iterations"));
+            assertEquals(out, 3 * size, value(out, "bytes"));
+            assertEquals(out, 0, value(out, "errors"));
+            if (elements == -1)
+                elements = value(out, "elements");
+            assertEquals(out, elements, value(out, "elements"));
+        }
+        
+        String out = run(0, "--mode", "skip", "--preload", dir.getPath());
+        assertEquals(out, 2, value(out, "values"));
+        assertEquals(out, size, value(out, "bytes"));
+    }
+    
+    @Test
+    public void readStdin() throws Exception {
+        byte[] raw = bytesOf(0x30,0x03,0x02,0x01,0x01,0x05,0x00);
+        String out = run(new ByteArrayInputStream(raw), 0, "-m", "scan");
+        assertEquals(out, 3, value(out, "elements"));
+        assertEquals(out, raw.length, value(out, "bytes"));
+    }
+    
+    @Test
+    public void malformedInputFails() throws Exception {
+        String out = run(new ByteArrayInputStream(bytesOf(0x30,0x05,0x02)), 1, "-");
+        assertEquals(out, 1, value(out, "errors"));
+    }
+    
+    @Test
+    public void usageErrors() throws Exception {
+        run(2, "-m", "nonsense");
+        run(2, "-t", "0");
+        run(2, "-x");
+        run(2, "-i");
+        run(2, new File(dir, "missing").getPath());
+        assertTrue(run(0, "--help").startsWith("Usage"));
+    }
+    
+    private static String run(int expectedExit, String... args) throws Exception {
+        return run(new ByteArrayInputStream(new byte[0]), expectedExit, args);
+    }
+    
+    private static String run(InputStream stdin, int expectedExit, String... args) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exit = Throughput.run(args, stdin, new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+        String result = out.toString("UTF-8");
+        assertEquals(result + err.toString("UTF-8"), expectedExit, exit);
+        return result;
+    }
+    
+    private static long value(String report, String key) {
+        for (String line : report.split("\n")) {
+            if (line.startsWith(key + " "))
+                return Long.parseLong(line.substring(key.length()).trim().split(" ")[0]);
+        }
+        throw new AssertionError("No " + key + " in " + report);
+    }
+    
+    private static void write(File f, byte[] content) throws Exception {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+}
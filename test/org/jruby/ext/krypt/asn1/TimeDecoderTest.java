@@ -0,0 +1,149 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1;
+
+import org.jruby.ext.krypt.asn1.decode.TimeDecoder;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class TimeDecoderTest {
+    
+    private static byte[] ascii(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    private static long utc(String s, boolean strict) {
+        byte[] b = ascii(s);
+        return TimeDecoder.decodeUtcTimeMillis(b, 0, b.length, strict);
+    }
+    
+    private static long gen(String s, boolean strict) {
+        byte[] b = ascii(s);
+        return TimeDecoder.decodeGeneralizedTimeMillis(b, 0, b.length, strict);
+    }
+    
+    @Test
+    public void utcTime() {
+        assertEquals(0L, utc("700101000000Z", true));
+        assertEquals(1286438400000L, utc("101007080000Z", true));
+        assertEquals(2524607999000L, utc("491231235959Z", true));
+        assertEquals(-631152000000L, utc("500101000000Z", true));
+    }
+    
+    @Test
+    public void utcTimeLenient() {
+        assertEquals(1286438400000L, utc("1010070800Z", false));
+        assertEquals(1286438400000L, utc("101007100000+0200", false));
+        assertEquals(1286438400000L, utc("101007063000-0130", false));
+    }
+    
+    @Test
+    public void generalizedTime() {
+        assertEquals(1286438400000L, gen("20101007080000Z", true));
+        assertEquals(1286438400123L, gen("20101007080000.123Z", true));
+        assertEquals(1286438400500L, gen("20101007080000.5Z", true));
+        assertEquals(1286438400999L, gen("20101007080000.99999Z", true));
+        assertEquals(253402300799000L, gen("99991231235959Z", true));
+        assertEquals(951782400000L, gen("20000229000000Z", true));
+        assertEquals(-62135596800000L, gen("00010101000000Z", true));
+    }
+    
+    @Test
+    public void generalizedTimeLenient() {
+        assertEquals(1286438400000L, gen("2010100708Z", false));
+        assertEquals(1286438400000L, gen("201010070800Z", false));
+        assertEquals(1286438400500L, gen("20101007080000,50Z", false));
+        assertEquals(1286438400000L, gen("20101007100000+0200", false));
+    }
+    
+    @Test
+    public void fractionOfLastFieldPresent() {
+        assertEquals(1672576230000L, gen("202301011230.5Z", false));
+        assertEquals(1672576230000L, gen("202301011230,5Z", false));
+        assertEquals(1672576200000L, gen("2023010112.5Z", false));
+        assertEquals(1672575300000L, gen("2023010112.25Z", false));
+        assertEquals(1672574400360L, gen("2023010112.0001Z", false));
+        assertEquals(1672576230999L, gen("20230101123030.9999Z", false));
+    }
+    
+    @Test
+    public void seconds() {
+        assertEquals(1286438400L, TimeDecoder.decodeSeconds(new PrimitiveValue(Tags.GENERALIZED_TIME, ascii("20101007080000.9Z")), true));
+        assertEquals(-1L, TimeDecoder.decodeSeconds(new PrimitiveValue(Tags.GENERALIZED_TIME, ascii("19691231235959.5Z")), true));
+        assertEquals(1286438400L, TimeDecoder.decodeSeconds(new PrimitiveValue(Tags.UTC_TIME, ascii("101007080000Z")), true));
+    }
+    
+    @Test(expected=ParseException.class)
+    public void strictRequiresSeconds() {
+        utc("1010070800Z", true);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void strictRequiresZulu() {
+        gen("20101007100000+0200", true);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void strictRejectsTrailingZero() {
+        gen("20101007080000.10Z", true);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void strictRejectsComma() {
+        gen("20101007080000,1Z", true);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void localTimeRejected() {
+        gen("20101007080000", false);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void invalidDate() {
+        gen("20100229000000Z", false);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void nonDigits() {
+        utc("10100708000AZ", false);
+    }
+    
+    @Test(expected=ParseException.class)
+    public void wrongTag() {
+        TimeDecoder.decodeMillis(new PrimitiveValue(Tags.OCTET_STRING, ascii("101007080000Z")), false);
+    }
+}
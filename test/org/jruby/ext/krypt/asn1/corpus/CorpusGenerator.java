@@ -0,0 +1,634 @@
+/***** BEGIN LICENSE BLOCK *****
+* Version: CPL 1.0/GPL 2.0/LGPL 2.1
+*
+* The contents of this file are subject to the Common Public
+* License Version 1.0 (the "License"); you may not use this file
+* except in compliance with the License. You may obtain a copy of
+* the License at http://www.eclipse.org/legal/cpl-v10.html
+*
+* Software distributed under the License is distributed on an "AS
+* IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+* implied. See the License for the specific language governing
+* rights and limitations under the License.
+*
+* Copyright (C) 2011 Martin Bosslet <Martin.Bosslet@googlemail.com>
+*
+* Alternatively, the contents of this file may be used under the terms of
+* either of the GNU General Public License Version 2 or later (the "GPL"),
+* or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+* in which case the provisions of the GPL or the LGPL are applicable instead
+* of those above. If you wish to allow use of your version of this file only
+* under the terms of either the GPL or the LGPL, and not to allow others to
+* use your version of this file under the terms of the CPL, indicate your
+* decision by deleting the provisions above and replace them with the notice
+* and other provisions required by the GPL or the LGPL. If you do not delete
+* the provisions above, a recipient may use your version of this file under
+* the terms of any one of the CPL, the GPL or the LGPL.
+ */
+package org.jruby.ext.krypt.asn1.corpus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.jruby.ext.krypt.asn1.Asn1;
+import org.jruby.ext.krypt.asn1.Header;
+import org.jruby.ext.krypt.asn1.TagClass;
+import org.jruby.ext.krypt.asn1.Tags;
+import org.jruby.ext.krypt.asn1.encode.Asn1Serializer;
+import org.jruby.ext.krypt.asn1.encode.InfiniteLengthOctetString;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveValue;
+import org.jruby.ext.krypt.asn1.encode.PrimitiveWriter;
+import org.jruby.ext.krypt.asn1.encode.Sequence;
+
+
+/**
+ * Generates synthetic but structurally realistic ASN.1 workloads from a
+ * seed. The same seed always yields the same bytes, so benchmarks and
+ * stress tests can run on large inputs without shipping fixtures.
+ * 
+ * The tree builders return values from the encode package. The write*
+ * methods produce exactly the same encoding as serializing the
+ * corresponding tree, but stream it with constant memory by replaying
+ * the random sequence once to compute the lengths, so CRLs and SET OFs
+ * can be generated at sizes that would not fit into the heap as trees.
+ * 
+ * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
+ */
+public class CorpusGenerator {
+    
+    private static final long[] SHA256_WITH_RSA = { 1, 2, 840, 113549, 1, 1, 11 };
+    private static final long[] RSA_ENCRYPTION = { 1, 2, 840, 113549, 1, 1, 1 };
+    private static final long[] COMMON_NAME = { 2, 5, 4, 3 };
+    private static final long[] ORGANIZATION = { 2, 5, 4, 10 };
+    private static final long[] REASON_CODE = { 2, 5, 29, 21 };
+    
+    private static final long BASE_TIME = 1262304000000L; //2010-01-01T00:00:00Z
+    private static final long TIME_RANGE = 10L * 365 * 24 * 60 * 60 * 1000;
+    
+    private static final int SIGNATURE_LENGTH = 257;
+    private static final int ENTRY_EXTENSIONS_LENGTH = 14;
+    
+    private static final TagClass[] HIGH_TAG_CLASSES = {
+        TagClass.APPLICATION, TagClass.CONTEXT_SPECIFIC, TagClass.PRIVATE
+    };
+    
+    private final long seed;
+    
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    public static void write(Asn1 asn, OutputStream out) {
+        Asn1Serializer.serialize(asn, out);
+    }
+    
+    public static byte[] encode(Asn1 asn) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Asn1Serializer.serialize(asn, baos);
+        return baos.toByteArray();
+    }
+    
+    /**
+     * An X.509 v3 certificate shaped value with a 2048 bit key and five
+     * extensions.
+     */
+    public Asn1 certificate() {
+        Random r = new Random(seed);
+        return certificate(r, r.nextInt(), r.nextInt());
+    }
+    
+    /**
+     * A SEQUENCE of length certificates, each one issued by the next.
+     */
+    public Asn1 certificateChain(int length) {
+        if (length < 1)
+            throw new IllegalArgumentException("Chain length must be positive: " + length);
+        Random r = new Random(seed);
+        int[] ids = new int[length + 1];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = r.nextInt();
+        List<Asn1> certs = new ArrayList<Asn1>(length);
+        for (int i = 0; i < length; i++)
+            certs.add(certificate(r, ids[i], ids[i + 1]));
+        return new Sequence(certs);
+    }
+    
+    public Asn1 crl(int entries) {
+        checkCount(entries);
+        Random r = new Random(seed);
+        List<Asn1> tbs = crlPrefix(r);
+        if (entries > 0) {
+            List<Asn1> revoked = new ArrayList<Asn1>(entries);
+            Entry e = new Entry();
+            for (int i = 0; i < entries; i++) {
+                e.draw(r);
+                revoked.add(seq(prim(Tags.INTEGER, BigInteger.valueOf(e.serial).toByteArray()),
+                                prim(Tags.UTC_TIME, valueOf(utcTime(e.revoked))),
+                                seq(seq(prim(Tags.OBJECT_IDENTIFIER, valueOf(oid(REASON_CODE))),
+                                        prim(Tags.OCTET_STRING, new byte[] { Tags.ENUMERATED, 0x01, (byte)e.reason })))));
+            }
+            tbs.add(new Sequence(revoked));
+        }
+        return seq(new Sequence(tbs), algorithm(SHA256_WITH_RSA), signature(r));
+    }
+    
+    /**
+     * Streams the encoding of {@link #crl(int)} with constant memory.
+     */
+    public void writeCrl(OutputStream out, int entries) {
+        checkCount(entries);
+        Random r = new Random(seed);
+        long prefixLength = encodedLength(crlPrefix(r));
+        long revokedLength = 0;
+        Entry e = new Entry();
+        for (int i = 0; i < entries; i++) {
+            e.draw(r);
+            revokedLength += e.encodedLength();
+        }
+        
+        long tbsLength = prefixLength;
+        if (entries > 0)
+            tbsLength += headerLength(Tags.SEQUENCE, revokedLength) + revokedLength;
+        Asn1 algorithm = algorithm(SHA256_WITH_RSA);
+        long contentLength = headerLength(Tags.SEQUENCE, tbsLength) + tbsLength
+                             + encodedLength(algorithm)
+                             + PrimitiveWriter.headerLength(Tags.BIT_STRING, SIGNATURE_LENGTH) + SIGNATURE_LENGTH;
+        
+        r = new Random(seed);
+        List<Asn1> prefix = crlPrefix(r);
+        writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, contentLength);
+        writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, tbsLength);
+        for (Asn1 asn : prefix)
+            write(asn, out);
+        if (entries > 0) {
+            writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, revokedLength);
+            for (int i = 0; i < entries; i++) {
+                e.draw(r);
+                e.writeTo(out);
+            }
+        }
+        write(algorithm, out);
+        write(signature(r), out);
+    }
+    
+    /**
+     * A DER SET OF elements positive INTEGERs. They are generated in
+     * ascending order, which is also the DER sort order of their
+     * encodings.
+     */
+    public Asn1 wideSetOf(int elements) {
+        checkCount(elements);
+        Random r = new Random(seed);
+        List<Asn1> contents = new ArrayList<Asn1>(elements);
+        long value = 0;
+        for (int i = 0; i < elements; i++) {
+            value = nextSetValue(r, value);
+            contents.add(prim(Tags.INTEGER, BigInteger.valueOf(value).toByteArray()));
+        }
+        Sequence set = new Sequence(contents);
+        set.setTagAndClass(Tags.SET, TagClass.UNIVERSAL);
+        return set;
+    }
+    
+    /**
+     * Streams the encoding of {@link #wideSetOf(int)} with constant memory.
+     */
+    public void writeWideSetOf(OutputStream out, int elements) {
+        checkCount(elements);
+        Random r = new Random(seed);
+        long length = 0, value = 0;
+        for (int i = 0; i < elements; i++) {
+            value = nextSetValue(r, value);
+            length += PrimitiveWriter.integerLength(value);
+        }
+        
+        r = new Random(seed);
+        value = 0;
+        writeHeader(out, Tags.SET, TagClass.UNIVERSAL, length);
+        for (int i = 0; i < elements; i++) {
+            value = nextSetValue(r, value);
+            PrimitiveWriter.writeInteger(out, value);
+        }
+    }
+    
+    /**
+     * depth nested constructed values, alternating between SEQUENCE and
+     * context-specific tags (some of them in high tag number form), each
+     * holding its level as INTEGER followed by the next level. The
+     * innermost value is a random INTEGER.
+     */
+    public Asn1 deepNesting(int depth) {
+        checkCount(depth);
+        Random r = new Random(seed);
+        Asn1 current = prim(Tags.INTEGER, BigInteger.valueOf(r.nextLong()).toByteArray());
+        for (int i = depth - 1; i >= 0; i--) {
+            Sequence level = seq(prim(Tags.INTEGER, BigInteger.valueOf(i).toByteArray()), current);
+            if (i % 2 == 1)
+                level.setTagAndClass(levelTag(i), TagClass.CONTEXT_SPECIFIC);
+            current = level;
+        }
+        return current;
+    }
+    
+    /**
+     * Streams the encoding of {@link #deepNesting(int)}.
+     */
+    public void writeDeepNesting(OutputStream out, int depth) {
+        checkCount(depth);
+        long leaf = new Random(seed).nextLong();
+        long[] contentLengths = new long[depth];
+        long inner = PrimitiveWriter.integerLength(leaf);
+        for (int i = depth - 1; i >= 0; i--) {
+            contentLengths[i] = PrimitiveWriter.integerLength(i) + inner;
+            inner = headerLength(i % 2 == 1 ? levelTag(i) : Tags.SEQUENCE, contentLengths[i]) + contentLengths[i];
+        }
+        for (int i = 0; i < depth; i++) {
+            if (i % 2 == 1)
+                writeHeader(out, levelTag(i), TagClass.CONTEXT_SPECIFIC, contentLengths[i]);
+            else
+                writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, contentLengths[i]);
+            PrimitiveWriter.writeInteger(out, i);
+        }
+        PrimitiveWriter.writeInteger(out, leaf);
+    }
+    
+    /**
+     * A SEQUENCE of count values with multi-octet (high number form) tags
+     * in the APPLICATION, CONTEXT-SPECIFIC and PRIVATE classes. Every
+     * fourth value on average is constructed and wraps another one.
+     */
+    public Asn1 highTags(int count) {
+        checkCount(count);
+        Random r = new Random(seed);
+        List<Asn1> contents = new ArrayList<Asn1>(count);
+        for (int i = 0; i < count; i++) {
+            Asn1 value = highTagPrimitive(r);
+            if (r.nextInt(4) == 0) {
+                Sequence wrapper = seq(value);
+                wrapper.setTagAndClass(highTagNumber(r), HIGH_TAG_CLASSES[r.nextInt(HIGH_TAG_CLASSES.length)]);
+                value = wrapper;
+            }
+            contents.add(value);
+        }
+        return new Sequence(contents);
+    }
+    
+    /**
+     * Writes a BER encoded, indefinite length SEQUENCE holding an INTEGER,
+     * an indefinite length OCTET STRING of size bytes split into chunks
+     * of chunkSize and a nested indefinite length [1] value. The octets
+     * are generated lazily, so size is only bounded by the output.
+     */
+    public void writeBer(OutputStream out, long size, int chunkSize) {
+        if (size < 0)
+            throw new IllegalArgumentException("Negative size: " + size);
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        Random r = new Random(seed);
+        PrimitiveWriter.writeInfiniteLengthHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL);
+        PrimitiveWriter.writeInteger(out, r.nextLong());
+        write(new InfiniteLengthOctetString(new RandomInputStream(r.nextLong(), size), chunkSize), out);
+        PrimitiveWriter.writeInfiniteLengthHeader(out, 1, TagClass.CONTEXT_SPECIFIC);
+        PrimitiveWriter.writeInfiniteLengthHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL);
+        write(prim(Tags.PRINTABLE_STRING, printable(r, 1 + r.nextInt(32))), out);
+        PrimitiveWriter.writeGeneralizedTime(out, time(r));
+        writeEndOfContents(out);
+        writeEndOfContents(out);
+        writeEndOfContents(out);
+    }
+    
+    /**
+     * Writes a random mix of the workloads above as consecutive top-level
+     * values until at least targetBytes have been written.
+     * 
+     * @return the number of bytes written
+     */
+    public long writeCorpus(OutputStream out, long targetBytes) {
+        Random r = new Random(seed);
+        CountingOutputStream counter = new CountingOutputStream(out);
+        while (counter.count < targetBytes) {
+            CorpusGenerator next = new CorpusGenerator(r.nextLong());
+            switch (r.nextInt(6)) {
+                case 0:
+                    write(next.certificateChain(1 + r.nextInt(4)), counter);
+                    break;
+                case 1:
+                    next.writeCrl(counter, r.nextInt(10000));
+                    break;
+                case 2:
+                    next.writeDeepNesting(counter, 1 + r.nextInt(200));
+                    break;
+                case 3:
+                    next.writeWideSetOf(counter, r.nextInt(10000));
+                    break;
+                case 4:
+                    write(next.highTags(1 + r.nextInt(100)), counter);
+                    break;
+                default:
+                    next.writeBer(counter, r.nextInt(1 << 20), 1 + r.nextInt(8192));
+                    break;
+            }
+        }
+        return counter.count;
+    }
+    
+    /**
+     * size bytes derived from seed, generated as they are read.
+     */
+    public static InputStream randomBytes(long seed, long size) {
+        return new RandomInputStream(seed, size);
+    }
+    
+    private Asn1 certificate(Random r, int subject, int issuer) {
+        List<Asn1> extensions = new ArrayList<Asn1>();
+        for (int i = 0; i < 5; i++) {
+            extensions.add(seq(prim(Tags.OBJECT_IDENTIFIER, valueOf(oid(new long[] { 2, 5, 29, 14 + i }))),
+                               prim(Tags.OCTET_STRING, random(r, 20 + r.nextInt(40)))));
+        }
+        Sequence extensionsWrapper = seq(new Sequence(extensions));
+        extensionsWrapper.setTagAndClass(3, TagClass.CONTEXT_SPECIFIC);
+        Sequence version = seq(prim(Tags.INTEGER, new byte[] { 0x02 }));
+        version.setTagAndClass(0, TagClass.CONTEXT_SPECIFIC);
+        
+        long notBefore = time(r);
+        byte[] key = random(r, 271);
+        key[0] = 0x00;
+        Sequence tbs = seq(version,
+                           prim(Tags.INTEGER, positive(random(r, 16))),
+                           algorithm(SHA256_WITH_RSA),
+                           name(issuer),
+                           seq(prim(Tags.UTC_TIME, valueOf(utcTime(notBefore))),
+                               prim(Tags.UTC_TIME, valueOf(utcTime(notBefore + 365L * 24 * 60 * 60 * 1000)))),
+                           name(subject),
+                           seq(algorithm(RSA_ENCRYPTION), prim(Tags.BIT_STRING, key)),
+                           extensionsWrapper);
+        return seq(tbs, algorithm(SHA256_WITH_RSA), signature(r));
+    }
+    
+    private List<Asn1> crlPrefix(Random r) {
+        long thisUpdate = time(r);
+        List<Asn1> prefix = new ArrayList<Asn1>();
+        prefix.add(prim(Tags.INTEGER, new byte[] { 0x01 }));
+        prefix.add(algorithm(SHA256_WITH_RSA));
+        prefix.add(name(r.nextInt()));
+        prefix.add(prim(Tags.UTC_TIME, valueOf(utcTime(thisUpdate))));
+        prefix.add(prim(Tags.UTC_TIME, valueOf(utcTime(thisUpdate + 7L * 24 * 60 * 60 * 1000))));
+        return prefix;
+    }
+    
+    /* names only depend on the id, so that issuer and subject of a chain match */
+    private Sequence name(int id) {
+        Random r = new Random(seed ^ ((long)id << 32 | (id & 0xffffffffL)));
+        List<Asn1> rdns = new ArrayList<Asn1>();
+        rdns.add(rdn(ORGANIZATION, printable(r, 4 + r.nextInt(20))));
+        rdns.add(rdn(COMMON_NAME, printable(r, 8 + r.nextInt(24))));
+        return new Sequence(rdns);
+    }
+    
+    private static Sequence rdn(long[] type, byte[] value) {
+        Sequence rdn = seq(seq(prim(Tags.OBJECT_IDENTIFIER, valueOf(oid(type))),
+                               prim(Tags.PRINTABLE_STRING, value)));
+        rdn.setTagAndClass(Tags.SET, TagClass.UNIVERSAL);
+        return rdn;
+    }
+    
+    private static Sequence algorithm(long[] oid) {
+        return seq(prim(Tags.OBJECT_IDENTIFIER, valueOf(oid(oid))), prim(Tags.NULL, null));
+    }
+    
+    private static PrimitiveValue signature(Random r) {
+        byte[] sig = random(r, SIGNATURE_LENGTH);
+        sig[0] = 0x00; //no unused bits
+        return prim(Tags.BIT_STRING, sig);
+    }
+    
+    private static Asn1 highTagPrimitive(Random r) {
+        return new PrimitiveValue(highTagNumber(r),
+                                  HIGH_TAG_CLASSES[r.nextInt(HIGH_TAG_CLASSES.length)],
+                                  random(r, r.nextInt(17)));
+    }
+    
+    /* 31 up to 2^28 - 1, i.e. one to four subsequent tag octets */
+    private static int highTagNumber(Random r) {
+        int bits = 7 * (1 + r.nextInt(4));
+        return 31 + r.nextInt((1 << bits) - 31);
+    }
+    
+    private static int levelTag(int level) {
+        return level % 64;
+    }
+    
+    private static long nextSetValue(Random r, long previous) {
+        return previous + 1 + r.nextInt(1 << r.nextInt(24));
+    }
+    
+    private static long time(Random r) {
+        return BASE_TIME + (long)(r.nextDouble() * TIME_RANGE) / 1000 * 1000;
+    }
+    
+    private static byte[] utcTime(long millis) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(15);
+        PrimitiveWriter.writeUtcTime(baos, millis);
+        return baos.toByteArray();
+    }
+    
+    private static byte[] oid(long[] arcs) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrimitiveWriter.writeObjectIdentifier(baos, arcs);
+        return baos.toByteArray();
+    }
+    
+    /* strips the two octet header of a short DER encoding */
+    private static byte[] valueOf(byte[] der) {
+        return Arrays.copyOfRange(der, 2, der.length);
+    }
+    
+    private static Sequence seq(Asn1... contents) {
+        return new Sequence(new ArrayList<Asn1>(Arrays.asList(contents)));
+    }
+    
+    private static PrimitiveValue prim(int tag, byte[] value) {
+        return new PrimitiveValue(tag, value);
+    }
+    
+    private static byte[] random(Random r, int length) {
+        byte[] b = new byte[length];
+        r.nextBytes(b);
+        return b;
+    }
+    
+    private static byte[] positive(byte[] b) {
+        b[0] &= 0x7f;
+        if (b[0] == 0)
+            b[0] = 0x01;
+        return b;
+    }
+    
+    private static byte[] printable(Random r, int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte)('a' + r.nextInt(26));
+        return b;
+    }
+    
+    private static long encodedLength(List<Asn1> values) {
+        long length = 0;
+        for (Asn1 asn : values)
+            length += encodedLength(asn);
+        return length;
+    }
+    
+    private static long encodedLength(Asn1 asn) {
+        Header h = asn.getHeader();
+        return h.getHeaderLength() + h.getLength();
+    }
+    
+    private static long headerLength(int tag, long length) {
+        return PrimitiveWriter.headerLength(tag, checkLength(length));
+    }
+    
+    private static void writeHeader(OutputStream out, int tag, TagClass tc, long length) {
+        PrimitiveWriter.writeHeader(out, tag, tc, true, checkLength(length));
+    }
+    
+    private static int checkLength(long length) {
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Value too large for a definite length: " + length);
+        return (int)length;
+    }
+    
+    private static void writeEndOfContents(OutputStream out) {
+        try {
+            out.write(0x00);
+            out.write(0x00);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    private static void checkCount(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Negative count: " + count);
+    }
+    
+    /* one revoked certificate entry, reused while streaming */
+    private static final class Entry {
+        
+        private long serial;
+        private long revoked;
+        private int reason;
+        
+        void draw(Random r) {
+            serial = (r.nextLong() >>> (1 + r.nextInt(60))) + 1;
+            revoked = time(r);
+            reason = r.nextInt(11);
+        }
+        
+        long encodedLength() {
+            int content = PrimitiveWriter.integerLength(serial) + PrimitiveWriter.utcTimeLength()
+                          + ENTRY_EXTENSIONS_LENGTH;
+            return PrimitiveWriter.headerLength(Tags.SEQUENCE, content) + content;
+        }
+        
+        void writeTo(OutputStream out) {
+            int content = PrimitiveWriter.integerLength(serial) + PrimitiveWriter.utcTimeLength()
+                          + ENTRY_EXTENSIONS_LENGTH;
+            PrimitiveWriter.writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, true, content);
+            PrimitiveWriter.writeInteger(out, serial);
+            PrimitiveWriter.writeUtcTime(out, revoked);
+            PrimitiveWriter.writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, true, 12);
+            PrimitiveWriter.writeHeader(out, Tags.SEQUENCE, TagClass.UNIVERSAL, true, 10);
+            PrimitiveWriter.writeObjectIdentifier(out, REASON_CODE);
+            PrimitiveWriter.writeHeader(out, Tags.OCTET_STRING, TagClass.UNIVERSAL, false, 3);
+            try {
+                out.write(Tags.ENUMERATED);
+                out.write(0x01);
+                out.write(reason);
+            }
+            catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+    
+    private static final class RandomInputStream extends InputStream {
+        
+        private final Random random;
+        private long remaining;
+        private int word;
+        private int available;
+        
+        RandomInputStream(long seed, long size) {
+            this.random = new Random(seed);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0)
+                return -1;
+            remaining--;
+            return nextByte() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0)
+                return -1;
+            int n = (int)Math.min(len, remaining);
+            for (int i = 0; i < n; i++)
+                b[off + i] = nextByte();
+            remaining -= n;
+            return n;
+        }
+        
+        private byte nextByte() {
+            if (available == 0) {
+                word = random.nextInt();
+                available = 4;
+            }
+            byte b = (byte)word;
+            word >>>= 8;
+            available--;
+            return b;
+        }
+    }
+    
+    private static final class CountingOutputStream extends OutputStream {
+        
+        private final OutputStream out;
+        private long count;
+        
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}